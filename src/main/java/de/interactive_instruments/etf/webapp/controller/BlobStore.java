@@ -0,0 +1,265 @@
+/**
+ * Copyright 2010-2017 interactive instruments GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.interactive_instruments.etf.webapp.controller;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.*;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+import javax.xml.bind.DatatypeConverter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.interactive_instruments.IFile;
+
+/**
+ * Content-addressed store that deduplicates stored test data.
+ *
+ * A stored file is interned with its content digest: the first file with a digest
+ * becomes the blob by adding a hard link to it in the store, every further file with
+ * the same content is replaced by a hard link to the blob. The link count of the
+ * file system is the reference count of a blob, so blobs that are no longer linked
+ * from any Test Object directory can be removed by {@link #sweep()}.
+ *
+ * The entries of extracted archives are remembered with the archive digest, so
+ * an archive that is uploaded again can be linked from the blobs without extracting it.
+ *
+ * Test data must not be modified in place, as all links share the same content.
+ * If the file system does not support hard links, the files are kept as they are.
+ *
+ * @author J. Herrmann ( herrmann <aT) interactive-instruments (doT> de )
+ */
+final class BlobStore {
+
+	static final String DIR_NAME = ".blobs";
+	private static final String LINK_SUFFIX = ".link";
+	private static final String ARCHIVES_DIR = "archives";
+
+	private final Path blobDir;
+	private final boolean linkCountSupported;
+	private volatile boolean linksSupported = true;
+	// files are interned with the read lock, blobs are removed with the write lock
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private final Logger logger = LoggerFactory.getLogger(BlobStore.class);
+
+	BlobStore(final IFile blobDir) throws IOException {
+		blobDir.ensureDir();
+		this.blobDir = blobDir.toPath().toAbsolutePath();
+		this.linkCountSupported = Files.getFileStore(this.blobDir).supportsFileAttributeView("unix");
+		if (!linkCountSupported) {
+			logger.info("Unused test data blobs are not removed, the file system does not provide link counts");
+		}
+	}
+
+	private Path blobFor(final byte[] digest, final long size) {
+		final String hex = DatatypeConverter.printHexBinary(digest).toLowerCase(Locale.ENGLISH);
+		return blobDir.resolve(hex.substring(0, 2)).resolve(hex + "-" + size);
+	}
+
+	/**
+	 * Interns a stored file
+	 *
+	 * @param file stored file
+	 * @param digest content digest of the file
+	 * @return true if the file has been replaced by a link to an existing blob
+	 */
+	boolean intern(final File file, final byte[] digest) {
+		if (!linksSupported) {
+			return false;
+		}
+		final Path path = file.toPath().toAbsolutePath();
+		lock.readLock().lock();
+		try {
+			final Path blob = blobFor(digest, Files.size(path));
+			Files.createDirectories(blob.getParent());
+			try {
+				// The first file with this content becomes the blob
+				Files.createLink(blob, path);
+				return false;
+			} catch (final FileAlreadyExistsException e) {
+				if (Files.isSameFile(blob, path)) {
+					return false;
+				}
+				// Replace the file with a link, the original file is kept if this fails
+				final Path link = path.resolveSibling(path.getFileName() + LINK_SUFFIX);
+				Files.deleteIfExists(link);
+				Files.createLink(link, blob);
+				Files.move(link, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				return true;
+			}
+		} catch (final UnsupportedOperationException | SecurityException e) {
+			linksSupported = false;
+			logger.info("Test data is not deduplicated, hard links are not supported: {}", e.getMessage());
+			return false;
+		} catch (final IOException e) {
+			logger.debug("Could not intern {}: {}", path, e.getMessage());
+			return false;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Links a blob to a file
+	 *
+	 * @param digest content digest
+	 * @param size content size
+	 * @param target file that does not exist yet
+	 * @return false if the blob does not exist or could not be linked
+	 */
+	boolean link(final byte[] digest, final long size, final Path target) {
+		if (!linksSupported) {
+			return false;
+		}
+		lock.readLock().lock();
+		try {
+			final Path blob = blobFor(digest, size);
+			if (!Files.isRegularFile(blob)) {
+				return false;
+			}
+			Files.createDirectories(target.getParent());
+			Files.createLink(target, blob);
+			return true;
+		} catch (final UnsupportedOperationException | SecurityException | IOException e) {
+			logger.debug("Could not link blob to {}: {}", target, e.getMessage());
+			return false;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private Path archiveFor(final byte[] archiveDigest) {
+		return blobDir.resolve(ARCHIVES_DIR).resolve(
+				DatatypeConverter.printHexBinary(archiveDigest).toLowerCase(Locale.ENGLISH) + ".properties");
+	}
+
+	/**
+	 * Returns the entries that have been extracted from an archive
+	 *
+	 * @param archiveDigest content digest of the archive
+	 * @return relative path mapped to 'size:digest' or to an empty string for entries that
+	 *         have been skipped, or null if the archive is unknown
+	 */
+	Properties archiveEntries(final byte[] archiveDigest) {
+		final Path file = archiveFor(archiveDigest);
+		if (!Files.isRegularFile(file)) {
+			return null;
+		}
+		final Properties entries = new Properties();
+		try (final InputStream in = Files.newInputStream(file)) {
+			entries.load(in);
+			return entries;
+		} catch (final IOException e) {
+			logger.debug("Could not read archive entries {}: {}", file, e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Remembers the entries that have been extracted from an archive
+	 *
+	 * @param archiveDigest content digest of the archive
+	 * @param entries see {@link #archiveEntries(byte[])}
+	 */
+	void putArchiveEntries(final byte[] archiveDigest, final Properties entries) {
+		if (!linksSupported) {
+			return;
+		}
+		final Path file = archiveFor(archiveDigest);
+		final Path tmp = file.resolveSibling(file.getFileName() + LINK_SUFFIX);
+		try {
+			Files.createDirectories(file.getParent());
+			try (final OutputStream out = Files.newOutputStream(tmp)) {
+				entries.store(out, null);
+			}
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (final IOException e) {
+			logger.debug("Could not store archive entries {}: {}", file, e.getMessage());
+		}
+	}
+
+	/**
+	 * Links all files of a directory into another directory, so both directories own
+	 * their files. Files are copied, if hard links are not supported.
+	 *
+	 * @param source directory with the prepared files
+	 * @param target empty target directory
+	 * @throws IOException if a file could neither be linked nor copied
+	 */
+	void linkTree(final Path source, final Path target) throws IOException {
+		lock.readLock().lock();
+		try (final Stream<Path> files = Files.walk(source)) {
+			for (final Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+				final Path targetFile = target.resolve(source.relativize(file));
+				Files.createDirectories(targetFile.getParent());
+				if (linksSupported) {
+					try {
+						Files.createLink(targetFile, file);
+						continue;
+					} catch (final UnsupportedOperationException | IOException e) {
+						logger.debug("Could not link {}, copying: {}", file, e.getMessage());
+					}
+				}
+				Files.copy(file, targetFile, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes all blobs that are not linked from any Test Object directory
+	 *
+	 * @return number of freed bytes
+	 */
+	long sweep() {
+		if (!linkCountSupported) {
+			return 0;
+		}
+		final AtomicLong freed = new AtomicLong();
+		lock.writeLock().lock();
+		try (final Stream<Path> blobs = Files.walk(blobDir, 2)) {
+			// Archive entries are kept, their blobs are checked when they are linked
+			blobs.filter(Files::isRegularFile)
+					.filter(blob -> !blob.getParent().getFileName().toString().equals(ARCHIVES_DIR))
+					.forEach(blob -> {
+				try {
+					if ((Integer) Files.getAttribute(blob, "unix:nlink") <= 1) {
+						final long size = Files.size(blob);
+						Files.delete(blob);
+						freed.addAndGet(size);
+					}
+				} catch (final IOException e) {
+					logger.debug("Could not check blob {}: {}", blob, e.getMessage());
+				}
+			});
+		} catch (final IOException e) {
+			logger.warn("Could not remove unused test data blobs: {}", e.getMessage());
+		} finally {
+			lock.writeLock().unlock();
+		}
+		return freed.get();
+	}
+}
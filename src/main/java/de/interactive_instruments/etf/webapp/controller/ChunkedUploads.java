@@ -0,0 +1,335 @@
+/**
+ * Copyright 2010-2017 interactive instruments GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.interactive_instruments.etf.webapp.controller;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.interactive_instruments.IFile;
+import de.interactive_instruments.SUtils;
+
+/**
+ * Upload sessions that receive large files in chunks.
+ *
+ * Each chunk is written at its byte offset, so chunks can be sent in parallel and in
+ * any order. A failed chunk is not recorded and can just be sent again; sending a
+ * chunk twice is harmless. The received byte ranges are tracked per file, so clients
+ * can ask for the missing ranges after a connection loss.
+ *
+ * Sessions that are not accessed within the expiration time are discarded together
+ * with the received data.
+ *
+ * @author J. Herrmann ( herrmann <aT) interactive-instruments (doT> de )
+ */
+final class ChunkedUploads {
+
+	private static final String SESSION_DIR_PREFIX = "chunked-";
+	private static final int BUFFER_SIZE = 65536;
+	private static final int MAX_SESSIONS = 256;
+
+	/**
+	 * A file that is received in chunks
+	 */
+	static final class PartialFile implements FileStorage.UploadSource {
+		private final String name;
+		private final long size;
+		private final IFile file;
+		// start offset -> end offset (exclusive) of the received, merged ranges
+		private final NavigableMap<Long, Long> ranges = new TreeMap<>();
+
+		private PartialFile(final String name, final long size, final IFile file) {
+			this.name = name;
+			this.size = size;
+			this.file = file;
+		}
+
+		private synchronized void addRange(final long start, final long end) {
+			long mergedStart = start;
+			long mergedEnd = end;
+			final Map.Entry<Long, Long> floor = ranges.floorEntry(start);
+			if (floor != null && floor.getValue() >= start) {
+				mergedStart = floor.getKey();
+				mergedEnd = Math.max(mergedEnd, floor.getValue());
+				ranges.remove(floor.getKey());
+			}
+			Map.Entry<Long, Long> next;
+			while ((next = ranges.ceilingEntry(mergedStart)) != null && next.getKey() <= mergedEnd) {
+				mergedEnd = Math.max(mergedEnd, next.getValue());
+				ranges.remove(next.getKey());
+			}
+			ranges.put(mergedStart, mergedEnd);
+		}
+
+		private synchronized long received() {
+			long received = 0;
+			for (final Map.Entry<Long, Long> range : ranges.entrySet()) {
+				received += range.getValue() - range.getKey();
+			}
+			return received;
+		}
+
+		private synchronized boolean isComplete() {
+			return received() == size;
+		}
+
+		private synchronized List<long[]> missing() {
+			final List<long[]> missing = new ArrayList<>();
+			long position = 0;
+			for (final Map.Entry<Long, Long> range : ranges.entrySet()) {
+				if (range.getKey() > position) {
+					missing.add(new long[]{position, range.getKey()});
+				}
+				position = range.getValue();
+			}
+			if (position < size) {
+				missing.add(new long[]{position, size});
+			}
+			return missing;
+		}
+
+		private Map<String, Object> status() {
+			final Map<String, Object> status = new LinkedHashMap<>();
+			status.put("name", name);
+			status.put("size", size);
+			status.put("received", received());
+			status.put("missing", missing());
+			return status;
+		}
+
+		@Override
+		public String getOriginalFilename() {
+			return name;
+		}
+
+		@Override
+		public boolean isEmpty() {
+			return size == 0;
+		}
+
+		@Override
+		public void transferTo(final File dest) throws IOException {
+			Files.move(file.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+
+		long getSize() {
+			return size;
+		}
+	}
+
+	private static final class Session {
+		private final String id;
+		private final IFile dir;
+		private final Map<String, PartialFile> files = new ConcurrentHashMap<>();
+		// chunks are written with the read lock, the session is completed with the write lock
+		private final ReadWriteLock lock = new ReentrantReadWriteLock();
+		private boolean completed;
+
+		private Session(final String id, final IFile dir) {
+			this.id = id;
+			this.dir = dir;
+		}
+
+		private Map<String, Object> status() {
+			final Map<String, Object> status = new LinkedHashMap<>();
+			status.put("id", id);
+			final List<Map<String, Object>> fileStatus = new ArrayList<>();
+			for (final PartialFile file : files.values()) {
+				fileStatus.add(file.status());
+			}
+			status.put("files", fileStatus);
+			return status;
+		}
+	}
+
+	private final IFile uploadDir;
+	private final Cache<String, Session> sessions;
+	private final Logger logger = LoggerFactory.getLogger(ChunkedUploads.class);
+
+	/**
+	 * @param uploadDir directory for the session directories
+	 * @param expiration time in minutes after which an unused session is discarded
+	 */
+	ChunkedUploads(final IFile uploadDir, final long expiration) {
+		this.uploadDir = uploadDir;
+		this.sessions = Caffeine.newBuilder()
+				.expireAfterAccess(expiration, TimeUnit.MINUTES)
+				.maximumSize(MAX_SESSIONS)
+				.<String, Session> removalListener((id, session, cause) -> {
+					if (session != null) {
+						try {
+							session.dir.deleteDirectory();
+						} catch (final IOException e) {
+							logger.warn("Could not delete upload session directory {}: {}",
+									session.dir.getAbsolutePath(), e.getMessage());
+						}
+					}
+				}).build();
+	}
+
+	/**
+	 * Creates a new session
+	 *
+	 * @return session status
+	 */
+	Map<String, Object> create() throws IOException {
+		final String id = UUID.randomUUID().toString();
+		final IFile dir = uploadDir.secureExpandPathDown(SESSION_DIR_PREFIX + id);
+		dir.ensureDir();
+		final Session session = new Session(id, dir);
+		sessions.put(id, session);
+		return session.status();
+	}
+
+	private Session session(final String id) throws LocalizableApiError {
+		final Session session = !SUtils.isNullOrEmpty(id) ? sessions.getIfPresent(id) : null;
+		if (session == null) {
+			throw new LocalizableApiError("l.upload.session.not.found", false, 404, id);
+		}
+		return session;
+	}
+
+	/**
+	 * Returns the received and the missing byte ranges of all files in the session
+	 *
+	 * @param id session ID
+	 * @return session status
+	 * @throws LocalizableApiError if the session does not exist
+	 */
+	Map<String, Object> status(final String id) throws LocalizableApiError {
+		return session(id).status();
+	}
+
+	/**
+	 * Writes a chunk of a file
+	 *
+	 * @param id session ID
+	 * @param fileName name of the file
+	 * @param size total size of the file in bytes, which must not change between the chunks
+	 * @param offset byte offset of the chunk
+	 * @param in chunk data
+	 * @return file status
+	 * @throws LocalizableApiError if the session does not exist or the chunk does not fit into the file
+	 * @throws IOException if the chunk could not be received or written
+	 */
+	Map<String, Object> write(final String id, final String fileName, final long size, final long offset,
+			final InputStream in) throws LocalizableApiError, IOException {
+		final Session session = session(id);
+		if (SUtils.isNullOrEmpty(fileName) || size < 0 || offset < 0 || offset > size) {
+			throw new LocalizableApiError("l.upload.chunk.invalid", false, 400, fileName);
+		}
+		session.lock.readLock().lock();
+		try {
+			if (session.completed) {
+				throw new LocalizableApiError("l.upload.session.not.found", false, 404, id);
+			}
+			final String name = IFile.sanitize(fileName);
+			final PartialFile file = session.files.computeIfAbsent(name,
+					n -> new PartialFile(n, size, session.dir.secureExpandPathDown(n)));
+			if (file.size != size) {
+				throw new LocalizableApiError("l.upload.chunk.invalid", false, 400, fileName);
+			}
+			long position = offset;
+			try (final FileChannel channel = FileChannel.open(file.file.toPath(),
+					StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+				final ReadableByteChannel source = Channels.newChannel(in);
+				final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+				while (source.read(buffer) != -1) {
+					buffer.flip();
+					if (position + buffer.remaining() > size) {
+						throw new LocalizableApiError("l.upload.chunk.invalid", false, 400, fileName);
+					}
+					while (buffer.hasRemaining()) {
+						position += channel.write(buffer, position);
+					}
+					buffer.clear();
+				}
+			}
+			// Only completely received chunks are recorded
+			if (position > offset) {
+				file.addRange(offset, position);
+			}
+			return file.status();
+		} finally {
+			session.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Closes the session for further chunks and returns the received files,
+	 * if all files are complete. The session must be discarded afterwards.
+	 *
+	 * @param id session ID
+	 * @return received files
+	 * @throws LocalizableApiError if the session does not exist or a file is incomplete
+	 */
+	List<PartialFile> complete(final String id) throws LocalizableApiError {
+		final Session session = session(id);
+		session.lock.writeLock().lock();
+		try {
+			if (session.completed) {
+				throw new LocalizableApiError("l.upload.session.not.found", false, 404, id);
+			}
+			final List<String> incomplete = new ArrayList<>();
+			for (final PartialFile file : session.files.values()) {
+				if (!file.isComplete()) {
+					incomplete.add(file.name);
+				}
+			}
+			if (session.files.isEmpty() || !incomplete.isEmpty()) {
+				throw new LocalizableApiError("l.upload.incomplete", false, 409, String.join(", ", incomplete));
+			}
+			session.completed = true;
+			final List<PartialFile> files = new ArrayList<>(session.files.values());
+			files.sort(Comparator.comparing(PartialFile::getOriginalFilename));
+			return files;
+		} finally {
+			session.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Discards the session and all received data
+	 *
+	 * @param id session ID
+	 */
+	void discard(final String id) {
+		sessions.invalidate(id);
+	}
+
+	void release() {
+		sessions.invalidateAll();
+		sessions.cleanUp();
+	}
+}
@@ -0,0 +1,46 @@
+/**
+ * Copyright 2010-2017 interactive instruments GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.interactive_instruments.etf.webapp.controller;
+
+import java.util.List;
+
+import de.interactive_instruments.etf.model.EID;
+
+/**
+ * IDs of the objects on one page of a collection and the cursor for the next page
+ *
+ * @author J. Herrmann ( herrmann <aT) interactive-instruments (doT> de )
+ */
+final class CursorPage {
+	private final List<EID> ids;
+	private final String nextCursor;
+
+	CursorPage(final List<EID> ids, final String nextCursor) {
+		this.ids = ids;
+		this.nextCursor = nextCursor;
+	}
+
+	List<EID> getIds() {
+		return ids;
+	}
+
+	/**
+	 * @return cursor for the next page or null if this is the last page
+	 */
+	String getNextCursor() {
+		return nextCursor;
+	}
+}
@@ -72,12 +72,27 @@ public class EtfConfigController implements PropertyHolder {
 	public static final String ETF_TESTOBJECT_ALLOW_PRIVATENET_ACCESS = "etf.testobject.allow.privatenet.access";
 	// in minutes
 	public static final String ETF_TESTOBJECT_UPLOADED_LIFETIME_EXPIRATION = "etf.testobject.uploaded.lifetime.expiration";
+	// in seconds
+	public static final String ETF_TESTOBJECT_SERVICE_CACHE_FRESHNESS = "etf.testobject.service.cache.freshness";
+	public static final String ETF_PROJECTS_WATCH = "etf.projects.watch";
+	public static final String ETF_STARTUP_SNAPSHOT = "etf.startup.snapshot";
+	// in seconds
+	public static final String ETF_PROJECTS_WATCH_DELAY = "etf.projects.watch.delay";
+	public static final String ETF_TESTOBJECT_TYPE_DETECTION_THREADS = "etf.testobject.type.detection.threads";
 	public static final String ETF_REPORT_COMPARISON = "etf.report.comparison";
+	public static final String ETF_REPORT_PRERENDER_THREADS = "etf.report.prerender.threads";
 	// in minutes
 	public static final String ETF_TESTREPORTS_LIFETIME_EXPIRATION = "etf.testreports.lifetime.expiration";
 	public static final String ETF_WORKFLOWS = "etf.workflows";
 	public static final String ETF_TESTDATA_DIR = "etf.testdata.dir";
 	public static final String ETF_TESTDATA_UPLOAD_DIR = "etf.testdata.upload.dir";
+	public static final String ETF_TESTDATA_UPLOAD_THREADS = "etf.testdata.upload.threads";
+	public static final String ETF_TESTDATA_DOWNLOAD_CONNECTIONS_PER_HOST = "etf.testdata.download.connections.per.host";
+	public static final String ETF_TESTDATA_DOWNLOAD_RETRIES = "etf.testdata.download.retries";
+	public static final String ETF_TESTDATA_DEDUPLICATION = "etf.testdata.deduplication";
+	public static final String ETF_TESTDATA_DOWNLOAD_CACHE = "etf.testdata.download.cache";
+	// in minutes
+	public static final String ETF_TESTDATA_UPLOAD_SESSION_EXPIRATION = "etf.testdata.upload.session.expiration";
 	public static final String ETF_DIR = "etf.dir";
 	public static final String ETF_FEED_DIR = "etf.feed.dir";
 	public static final String ETF_BSX_RECREATE_CONFIG = "etf.bsx.recreate.config";
@@ -114,7 +129,13 @@ public class EtfConfigController implements PropertyHolder {
 			put(ETF_WEBAPP_BASE_URL, "http://localhost:8080/etf-webapp");
 			put(ETF_BRANDING_TEXT, "");
 			put(ETF_TESTOBJECT_ALLOW_PRIVATENET_ACCESS, "false");
+			put(ETF_TESTOBJECT_SERVICE_CACHE_FRESHNESS, "300");
+			put(ETF_TESTOBJECT_TYPE_DETECTION_THREADS, "4");
+			put(ETF_PROJECTS_WATCH, "false");
+			put(ETF_STARTUP_SNAPSHOT, "false");
+			put(ETF_PROJECTS_WATCH_DELAY, "10");
 			put(ETF_REPORT_COMPARISON, "false");
+			put(ETF_REPORT_PRERENDER_THREADS, "1");
 			put(ETF_TESTOBJECT_UPLOADED_LIFETIME_EXPIRATION, "360");
 			put(ETF_TESTREPORTS_LIFETIME_EXPIRATION, "43800");
 			put(ETF_HELP_PAGE_URL,
@@ -131,6 +152,12 @@ public class EtfConfigController implements PropertyHolder {
 			// put(ETF_FEED_DIR, ".feed");
 			put(ETF_TESTDATA_DIR, "testdata");
 			put(ETF_TESTDATA_UPLOAD_DIR, "http_uploads");
+			put(ETF_TESTDATA_UPLOAD_THREADS, "4");
+			put(ETF_TESTDATA_UPLOAD_SESSION_EXPIRATION, "60");
+			put(ETF_TESTDATA_DOWNLOAD_CONNECTIONS_PER_HOST, "4");
+			put(ETF_TESTDATA_DOWNLOAD_RETRIES, "3");
+			put(ETF_TESTDATA_DEDUPLICATION, "true");
+			put(ETF_TESTDATA_DOWNLOAD_CACHE, "true");
 		}
 	});
 
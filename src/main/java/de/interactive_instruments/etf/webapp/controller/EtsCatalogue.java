@@ -0,0 +1,288 @@
+/**
+ * Copyright 2010-2017 interactive instruments GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.interactive_instruments.etf.webapp.controller;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+import javax.xml.bind.DatatypeConverter;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import de.interactive_instruments.etf.dal.dto.test.ExecutableTestSuiteDto;
+import de.interactive_instruments.etf.dal.dto.translation.TranslationTemplateBundleDto;
+import de.interactive_instruments.etf.dal.dto.translation.TranslationTemplateDto;
+import de.interactive_instruments.etf.model.EID;
+import de.interactive_instruments.etf.model.ParameterSet;
+import de.interactive_instruments.etf.model.Parameterizable;
+import de.interactive_instruments.etf.testdriver.DependencyGraph;
+
+/**
+ * Immutable catalogue of all loaded Executable Test Suites.
+ *
+ * The sorted dependencies and the parameters in the default language of each Executable
+ * Test Suite are computed once, when the catalogue is built after the Executable Test
+ * Suites have been (re)imported. Parameters in other languages are translated on first
+ * use and cached. Lookups do not access the storage.
+ *
+ * The Executable Test Suite DTOs are shared by all requests and must not be modified.
+ * Callers that hand an Executable Test Suite to a Test Run, which the test drivers may
+ * modify, must use {@link Entry#copyOfExecutableTestSuite()}.
+ *
+ * @author J. Herrmann ( herrmann <aT) interactive-instruments (doT> de )
+ */
+final class EtsCatalogue {
+
+	static final String DEFAULT_LANGUAGE = "en";
+
+	static final EtsCatalogue EMPTY = new EtsCatalogue(Collections.emptyMap());
+
+	static final class Entry {
+		private final ExecutableTestSuiteDto executableTestSuite;
+		private final List<ExecutableTestSuiteDto> sortedDependencies;
+		private final TranslatedParameters parameters;
+
+		private Entry(final ExecutableTestSuiteDto executableTestSuite) {
+			this.executableTestSuite = executableTestSuite;
+			final Collection<ExecutableTestSuiteDto> dependencies = executableTestSuite.getDependencies();
+			if (dependencies == null || dependencies.isEmpty()) {
+				this.sortedDependencies = Collections.emptyList();
+			} else {
+				final DependencyGraph<ExecutableTestSuiteDto> graph = new DependencyGraph(dependencies);
+				this.sortedDependencies = Collections.unmodifiableList(new ArrayList<>(graph.sortIgnoreCylce()));
+			}
+			this.parameters = TranslatedParameters.of(executableTestSuite, DEFAULT_LANGUAGE);
+		}
+
+		/**
+		 * @return shared Executable Test Suite, which must not be modified
+		 */
+		ExecutableTestSuiteDto getExecutableTestSuite() {
+			return executableTestSuite;
+		}
+
+		/**
+		 * @return copy of the Executable Test Suite, which may be modified
+		 */
+		ExecutableTestSuiteDto copyOfExecutableTestSuite() {
+			return executableTestSuite.createCopy();
+		}
+
+		/**
+		 * @return topologically sorted dependencies
+		 */
+		List<ExecutableTestSuiteDto> getSortedDependencies() {
+			return sortedDependencies;
+		}
+
+	}
+
+	// maximum number of cached translations in other languages than the default language
+	private static final int MAX_TRANSLATIONS = 2000;
+
+	private final Map<EID, Entry> entries;
+	private final Collection<ExecutableTestSuiteDto> executableTestSuites;
+	private final Cache<String, TranslatedParameters> translations = Caffeine.newBuilder()
+			.maximumSize(MAX_TRANSLATIONS).build();
+
+	private EtsCatalogue(final Map<EID, Entry> entries) {
+		this.entries = entries;
+		final List<ExecutableTestSuiteDto> all = new ArrayList<>(entries.size());
+		for (final Entry entry : entries.values()) {
+			all.add(entry.executableTestSuite);
+		}
+		this.executableTestSuites = Collections.unmodifiableList(all);
+	}
+
+	/**
+	 * Builds the catalogue
+	 *
+	 * @param executableTestSuites all loaded Executable Test Suites
+	 * @return catalogue
+	 */
+	static EtsCatalogue build(final Collection<ExecutableTestSuiteDto> executableTestSuites) {
+		final Map<EID, Entry> entries = new LinkedHashMap<>();
+		for (final ExecutableTestSuiteDto ets : executableTestSuites) {
+			entries.put(ets.getId(), new Entry(ets));
+		}
+		return new EtsCatalogue(Collections.unmodifiableMap(entries));
+	}
+
+	/**
+	 * Parameters of an Executable Test Suite with descriptions in one language
+	 */
+	static final class TranslatedParameters {
+		private final String language;
+		private final Collection<Parameterizable.Parameter> parameters;
+		// number of descriptions that are available in the language
+		private final int translated;
+		private final int descriptions;
+		// hash of the content
+		private final String contentHash;
+
+		private TranslatedParameters(final String language, final Collection<Parameterizable.Parameter> parameters,
+				final int translated, final int descriptions, final String contentHash) {
+			this.language = language;
+			this.parameters = parameters;
+			this.translated = translated;
+			this.descriptions = descriptions;
+			this.contentHash = contentHash;
+		}
+
+		/**
+		 * Hashes the ETS ID, the language and the names, default values and descriptions
+		 * of the parameters
+		 */
+		private static String hash(final ExecutableTestSuiteDto ets, final String language,
+				final Collection<Parameterizable.Parameter> parameters) {
+			final MessageDigest digest;
+			try {
+				digest = MessageDigest.getInstance("SHA-1");
+			} catch (final NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e);
+			}
+			update(digest, ets.getId().getId());
+			update(digest, language);
+			if (parameters != null) {
+				for (final Parameterizable.Parameter parameter : parameters) {
+					update(digest, parameter.getName());
+					update(digest, parameter.getDefaultValue());
+					update(digest, parameter.getDescription());
+				}
+			}
+			return DatatypeConverter.printHexBinary(digest.digest()).toLowerCase(Locale.ENGLISH);
+		}
+
+		private static void update(final MessageDigest digest, final String value) {
+			if (value != null) {
+				digest.update(value.getBytes(StandardCharsets.UTF_8));
+			}
+			// separates the values and distinguishes null from empty values
+			digest.update(value != null ? (byte) 0 : (byte) 1);
+		}
+
+		/**
+		 * Copies the parameters and replaces the descriptions, which are translation
+		 * template names, with the translated text
+		 *
+		 * @param ets Executable Test Suite
+		 * @param language language code
+		 * @return translated parameters
+		 */
+		private static TranslatedParameters of(final ExecutableTestSuiteDto ets, final String language) {
+			if (ets.getParameters() == null) {
+				return new TranslatedParameters(language, null, 0, 0, hash(ets, language, null));
+			}
+			final ParameterSet transferParameters = new ParameterSet();
+			final TranslationTemplateBundleDto bundleDto = ets.getTranslationTemplateBundle();
+			int translated = 0;
+			int descriptions = 0;
+			for (final Parameterizable.Parameter parameter : ets.getParameters().getParameters()) {
+				final ParameterSet.MutableParameter copiedParam = new ParameterSet.MutableParameter(parameter);
+				if (parameter.getDescription() != null) {
+					descriptions++;
+					final TranslationTemplateDto template = bundleDto != null
+							? bundleDto.getTranslationTemplate(parameter.getDescription(), language)
+							: null;
+					if (template != null && template.getStrWithTokens() != null) {
+						copiedParam.setDescription(template.getStrWithTokens());
+						translated++;
+					}
+				}
+				transferParameters.addParameter(copiedParam);
+			}
+			final Collection<Parameterizable.Parameter> parameters = Collections.unmodifiableCollection(
+					transferParameters.getParameters());
+			return new TranslatedParameters(language, parameters, translated, descriptions,
+					hash(ets, language, parameters));
+		}
+
+		private boolean isAvailable() {
+			return descriptions == 0 || translated > 0;
+		}
+
+		String getLanguage() {
+			return language;
+		}
+
+		/**
+		 * @return parameters or null if the Executable Test Suite has no parameters
+		 */
+		Collection<Parameterizable.Parameter> getParameters() {
+			return parameters;
+		}
+	}
+
+	/**
+	 * Returns the parameters of an Executable Test Suite with descriptions in the first
+	 * preferred language, for which translations exist, or in the default language.
+	 *
+	 * The translations are cached per Executable Test Suite, version and language.
+	 *
+	 * @param entry catalogue entry
+	 * @param languages preferred language codes, in descending order
+	 * @return translated parameters
+	 */
+	TranslatedParameters getParameters(final Entry entry, final List<String> languages) {
+		for (final String language : languages) {
+			if (DEFAULT_LANGUAGE.equals(language)) {
+				break;
+			}
+			final ExecutableTestSuiteDto ets = entry.executableTestSuite;
+			final TranslatedParameters translated = translations.get(
+					ets.getId().getId() + ":" + ets.getVersion() + ":" + language,
+					k -> TranslatedParameters.of(ets, language));
+			if (translated.isAvailable()) {
+				return translated;
+			}
+		}
+		return entry.parameters;
+	}
+
+	/**
+	 * Returns a quoted ETag for the parameters of an Executable Test Suite, which is derived
+	 * from the translated content, so it stays valid if the catalogue is rebuilt and changes
+	 * if the parameters or their translations change
+	 *
+	 * @param parameters translated parameters
+	 * @return quoted ETag
+	 */
+	String etagFor(final TranslatedParameters parameters) {
+		return "\"" + parameters.contentHash + "-" + parameters.language + "\"";
+	}
+
+	/**
+	 * @param id Executable Test Suite ID
+	 * @return entry or null if the Executable Test Suite is unknown
+	 */
+	Entry get(final EID id) {
+		return entries.get(id);
+	}
+
+	/**
+	 * @return shared Executable Test Suites, which must not be modified
+	 */
+	Collection<ExecutableTestSuiteDto> getExecutableTestSuites() {
+		return executableTestSuites;
+	}
+
+	int size() {
+		return entries.size();
+	}
+}
@@ -19,8 +19,7 @@ import static de.interactive_instruments.etf.webapp.SwaggerConfig.SERVICE_CAP_TA
 import static de.interactive_instruments.etf.webapp.dto.DocumentationConstants.*;
 
 import java.io.IOException;
-import java.util.Collection;
-import java.util.List;
+import java.util.*;
 import java.util.stream.Collectors;
 
 import javax.annotation.PostConstruct;
@@ -34,18 +33,16 @@ import io.swagger.annotations.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import de.interactive_instruments.etf.dal.dao.Dao;
 import de.interactive_instruments.etf.dal.dto.test.ExecutableTestSuiteDto;
-import de.interactive_instruments.etf.dal.dto.translation.TranslationTemplateBundleDto;
-import de.interactive_instruments.etf.dal.dto.translation.TranslationTemplateDto;
+import de.interactive_instruments.etf.model.EID;
 import de.interactive_instruments.etf.model.OutputFormat;
-import de.interactive_instruments.etf.model.ParameterSet;
 import de.interactive_instruments.etf.model.Parameterizable;
-import de.interactive_instruments.etf.testdriver.DependencyGraph;
 import de.interactive_instruments.etf.webapp.WebAppConstants;
 import de.interactive_instruments.etf.webapp.conversion.EidConverter;
 import de.interactive_instruments.exceptions.ObjectWithIdNotFoundException;
@@ -64,6 +61,11 @@ public class EtsController {
 	@Autowired
 	private TestDriverController testDriverController;
 
+	@Autowired
+	private StartupOrchestrator startup;
+
+	static final String ETS_CACHE_PHASE = "Executable Test Suite cache";
+
 	@Autowired
 	private DataStorageService dataStorageService;
 
@@ -84,9 +86,13 @@ public class EtsController {
 		xmlOutputFormat = etsDao.getOutputFormats().values().iterator().next();
 		logger.info("Executable Test Suite controller initialized!");
 
-		// Prepare cache
-		streaming.prepareCache(etsDao, new SimpleFilter("label,remoteResource,description,version,author,creationDate,"
-				+ "lastEditor,lastUpdateDate,tags,translationTemplateBundle,ParameterList,supportedTestObjectTypes,dependencies"));
+		// Prepare cache after the ETS have been loaded
+		startup.submit(ETS_CACHE_PHASE, () -> streaming.prepareCache(etsDao,
+				new SimpleFilter("label,remoteResource,description,version,author,creationDate,"
+						+ "lastEditor,lastUpdateDate,tags,translationTemplateBundle,ParameterList,"
+						+ "supportedTestObjectTypes,dependencies"),
+				testDriverController.getStartupSnapshot()),
+				TestDriverController.TEST_DRIVER_PHASE);
 	}
 
 	@ApiOperation(value = "Get multiple Executable Test Suites as JSON", notes = ETS_MODEL_DESCRIPTION, tags = {
@@ -99,10 +105,11 @@ public class EtsController {
 			@ApiParam(value = OFFSET_DESCRIPTION) @RequestParam(required = false, defaultValue = "0") int offset,
 			@ApiParam(value = LIMIT_DESCRIPTION) @RequestParam(required = false, defaultValue = "0") int limit,
 			@ApiParam(value = FIELDS_DESCRIPTION) @RequestParam(required = false, defaultValue = "*") String fields,
+			@ApiParam(value = CURSOR_DESCRIPTION) @RequestParam(value = "cursor", required = false) String cursor,
 			HttpServletRequest request,
 			HttpServletResponse response)
-			throws StorageException, ConfigurationException, IOException, ObjectWithIdNotFoundException {
-		streaming.asJson2(etsDao, request, response, new SimpleFilter(offset, limit, fields));
+			throws StorageException, ConfigurationException, IOException, ObjectWithIdNotFoundException, LocalizableApiError {
+		streaming.asJson2(etsDao, request, response, new SimpleFilter(offset, limit, fields, cursor));
 	}
 
 	@ApiOperation(value = "Get multiple Executable Test Suites as XML", notes = ETS_MODEL_DESCRIPTION, tags = {
@@ -115,9 +122,10 @@ public class EtsController {
 			@ApiParam(value = OFFSET_DESCRIPTION) @RequestParam(required = false, defaultValue = "0") int offset,
 			@ApiParam(value = LIMIT_DESCRIPTION) @RequestParam(required = false, defaultValue = "0") int limit,
 			@ApiParam(value = FIELDS_DESCRIPTION) @RequestParam(required = false, defaultValue = "*") String fields,
+			@ApiParam(value = CURSOR_DESCRIPTION) @RequestParam(value = "cursor", required = false) String cursor,
 			HttpServletRequest request,
-			HttpServletResponse response) throws IOException, StorageException, ObjectWithIdNotFoundException {
-		streaming.asXml2(etsDao, request, response, new SimpleFilter(offset, limit, fields));
+			HttpServletResponse response) throws IOException, StorageException, ObjectWithIdNotFoundException, LocalizableApiError {
+		streaming.asXml2(etsDao, request, response, new SimpleFilter(offset, limit, fields, cursor));
 	}
 
 	@ApiOperation(value = "Get Executable Test Suite as XML", notes = ETS_MODEL_DESCRIPTION, tags = {SERVICE_CAP_TAG_NAME})
@@ -158,30 +166,57 @@ public class EtsController {
 				: new ResponseEntity(HttpStatus.NOT_FOUND);
 	}
 
-	@ApiOperation(value = "Get the parameter of an Executable Test Suites ", tags = {
-			SERVICE_CAP_TAG_NAME}, response = Parameterizable.Parameter.class, responseContainer = "List")
+	@ApiOperation(value = "Get the parameter of an Executable Test Suites ", notes = "The parameter descriptions "
+			+ "are returned in the first language of the Accept-Language header, for which translations exist, "
+			+ "otherwise in English. The language is returned in the Content-Language header. "
+			+ "Responds with 304 if the If-None-Match header matches the ETag of the response.", tags = {
+					SERVICE_CAP_TAG_NAME}, response = Parameterizable.Parameter.class, responseContainer = "List")
+	@ApiResponses(value = {
+			@ApiResponse(code = 200, message = "OK"),
+			@ApiResponse(code = 304, message = "Not modified"),
+			@ApiResponse(code = 404, message = "Executable Test Suite does not exist")
+	})
 	@RequestMapping(value = {ETS_URL + "/{etsId}/parameter",
 			ETS_URL + "/{etsId}/arguments.json"}, method = RequestMethod.GET, produces = "application/json")
-	public @ResponseBody Collection<Parameterizable.Parameter> etsParameterById(@PathVariable String etsId)
+	public ResponseEntity<Collection<Parameterizable.Parameter>> etsParameterById(@PathVariable String etsId,
+			final HttpServletRequest request)
 			throws StorageException, ConfigurationException, ObjectWithIdNotFoundException {
-		// Get ETS and translation bundle to translate the description text
-		final ExecutableTestSuiteDto dto = etsDao.getById(EidConverter.toEid(etsId)).getDto();
-		if (dto.getParameters() == null) {
-			return null;
-		}
-		final ParameterSet transferParameters = new ParameterSet();
-		final TranslationTemplateBundleDto bundleDto = dto.getTranslationTemplateBundle();
-		for (final Parameterizable.Parameter parameter : dto.getParameters().getParameters()) {
-			final ParameterSet.MutableParameter copiedParam = new ParameterSet.MutableParameter(parameter);
-			if (parameter.getDescription() != null) {
-				final TranslationTemplateDto template = bundleDto.getTranslationTemplate(parameter.getDescription(), "en");
-				if (template != null && template.getStrWithTokens() != null) {
-					copiedParam.setDescription(template.getStrWithTokens());
-				}
+		final EID id = EidConverter.toEid(etsId);
+		final EtsCatalogue catalogue = catalogueWith(id);
+		final EtsCatalogue.Entry entry = catalogue.get(id);
+		final List<String> languages = new ArrayList<>();
+		// Without the header, getLocales() returns the default locale of the server
+		if (request.getHeader(HttpHeaders.ACCEPT_LANGUAGE) != null) {
+			for (final Enumeration<Locale> locales = request.getLocales(); locales.hasMoreElements();) {
+				languages.add(locales.nextElement().getLanguage());
 			}
-			transferParameters.addParameter(copiedParam);
 		}
-		return transferParameters.getParameters();
+		final EtsCatalogue.TranslatedParameters parameters = catalogue.getParameters(entry, languages);
+
+		final String etag = catalogue.etagFor(parameters);
+		final HttpHeaders headers = new HttpHeaders();
+		headers.setETag(etag);
+		headers.set(HttpHeaders.CONTENT_LANGUAGE, parameters.getLanguage());
+		headers.set(HttpHeaders.VARY, HttpHeaders.ACCEPT_LANGUAGE);
+		final String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+		if (ifNoneMatch != null && ifNoneMatch.contains(etag)) {
+			return new ResponseEntity<>(headers, HttpStatus.NOT_MODIFIED);
+		}
+		return new ResponseEntity<>(parameters.getParameters(), headers, HttpStatus.OK);
+	}
+
+	/**
+	 * Returns the catalogue of the loaded ETS, if it contains the ETS
+	 *
+	 * @throws ObjectWithIdNotFoundException if the ETS does not exist
+	 */
+	private EtsCatalogue catalogueWith(final EID id) throws StorageException, ObjectWithIdNotFoundException {
+		final EtsCatalogue catalogue = testDriverController.getCatalogue();
+		if (catalogue.get(id) == null) {
+			// not loaded, let the Dao report the missing ETS
+			return EtsCatalogue.build(Collections.singleton(etsDao.getById(id).getDto()));
+		}
+		return catalogue;
 	}
 
 	private static class DependenciesJsonView {
@@ -202,13 +237,9 @@ public class EtsController {
 			ETS_URL + "/{etsId}/dependencies.json"}, method = RequestMethod.GET, produces = "application/json")
 	public @ResponseBody List<DependenciesJsonView> etsDependenciesById(@PathVariable String etsId)
 			throws StorageException, ConfigurationException, ObjectWithIdNotFoundException {
-		final Collection<ExecutableTestSuiteDto> dependencies = testDriverController
-				.getExecutableTestSuiteById(EidConverter.toEid(etsId)).getDependencies();
-		final DependencyGraph<ExecutableTestSuiteDto> graph = new DependencyGraph(dependencies);
-		final List<ExecutableTestSuiteDto> sortedDependencies = graph.sortIgnoreCylce();
-		final List<DependenciesJsonView> depsJson = sortedDependencies.stream().map(DependenciesJsonView::new)
+		final EID id = EidConverter.toEid(etsId);
+		return catalogueWith(id).get(id).getSortedDependencies().stream().map(DependenciesJsonView::new)
 				.collect(Collectors.toList());
-		return depsJson;
 	}
 
 }
@@ -0,0 +1,314 @@
+/**
+ * Copyright 2010-2017 interactive instruments GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.interactive_instruments.etf.webapp.controller;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.BooleanSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.interactive_instruments.etf.dal.dao.Dao;
+import de.interactive_instruments.etf.dal.dao.Filter;
+import de.interactive_instruments.etf.dal.dao.WriteDao;
+import de.interactive_instruments.etf.dal.dto.test.ExecutableTestSuiteDto;
+import de.interactive_instruments.etf.model.EID;
+import de.interactive_instruments.exceptions.StorageException;
+
+/**
+ * Synchronizes the stored Executable Test Suites with the projects directory.
+ *
+ * Instead of deleting all Executable Test Suites before the test drivers import them,
+ * only the Executable Test Suites are deleted, whose directory contains files that were
+ * added, changed or removed since the last synchronization. New projects are imported
+ * without deleting anything. The state of the last
+ * synchronization is kept in a manifest file. Without a manifest all Executable Test
+ * Suites are deleted.
+ *
+ * Optionally the projects directory is watched and a synchronization is triggered,
+ * after the directory has not been changed for a quiet period. A synchronization, that
+ * can not be run at the moment, is retried after another quiet period.
+ *
+ * @author J. Herrmann ( herrmann <aT) interactive-instruments (doT> de )
+ */
+final class EtsSynchronizer {
+
+	private final Path projectsDir;
+	private final File manifestFile;
+	private final Dao<ExecutableTestSuiteDto> etsDao;
+	private final Filter filterGetAll;
+	private ProjectsManifest manifest;
+	private ProjectsManifest pending;
+	private WatchService watchService;
+	private ScheduledExecutorService scheduler;
+	private ScheduledFuture<?> scheduledSync;
+	private final Logger logger = LoggerFactory.getLogger(EtsSynchronizer.class);
+
+	EtsSynchronizer(final Path projectsDir, final File manifestFile, final Dao<ExecutableTestSuiteDto> etsDao,
+			final Filter filterGetAll) {
+		this.projectsDir = projectsDir.toAbsolutePath().normalize();
+		this.manifestFile = manifestFile;
+		this.etsDao = etsDao;
+		this.filterGetAll = filterGetAll;
+	}
+
+	/**
+	 * Scans the projects directory and deletes the Executable Test Suites, which must be
+	 * imported again. Must be followed by {@link #commit()} after the import succeeded.
+	 *
+	 * @return number of modified files, 0 if nothing needs to be imported
+	 * @throws IOException if the projects directory could not be scanned
+	 * @throws StorageException if the Executable Test Suites could not be deleted
+	 */
+	synchronized int prepare() throws IOException, StorageException {
+		if (manifest == null) {
+			try {
+				manifest = ProjectsManifest.load(projectsDir, manifestFile);
+			} catch (final IOException e) {
+				logger.warn("Ignoring unreadable projects manifest: {}", e.getMessage());
+			}
+		}
+		final ProjectsManifest current = ProjectsManifest.scan(projectsDir, manifest);
+		final Collection<ExecutableTestSuiteDto> stored = etsDao.getAll(filterGetAll).asCollection();
+		final Set<EID> stale = new HashSet<>();
+		final int modified;
+		if (manifest == null) {
+			for (final ExecutableTestSuiteDto ets : stored) {
+				stale.add(ets.getId());
+			}
+			modified = current.size();
+		} else {
+			final Set<Path> modifiedFiles = current.modifiedSince(manifest);
+			if (!modifiedFiles.isEmpty()) {
+				final Set<Path> addedFiles = current.addedSince(manifest);
+				final Map<EID, Path> etsDirs = new HashMap<>();
+				for (final ExecutableTestSuiteDto ets : stored) {
+					final Path dir = directoryOf(ets);
+					if (dir == null) {
+						// Executable Test Suites with an unknown or missing directory are always affected
+						stale.add(ets.getId());
+					} else {
+						etsDirs.put(ets.getId(), dir);
+					}
+				}
+				stale.addAll(affected(projectsDir, etsDirs, modifiedFiles, addedFiles));
+			}
+			modified = modifiedFiles.size();
+		}
+		if (!stale.isEmpty()) {
+			((WriteDao) etsDao).deleteAll(stale);
+		}
+		logger.info("{} modified project files, {} of {} Executable Test Suites will be imported again",
+				modified, stale.size(), stored.size());
+		pending = current;
+		return modified;
+	}
+
+	/**
+	 * Records the state of the last prepared synchronization
+	 */
+	synchronized void commit() {
+		if (pending == null) {
+			return;
+		}
+		manifest = pending;
+		pending = null;
+		try {
+			manifest.store(manifestFile);
+		} catch (final IOException e) {
+			logger.warn("Could not store projects manifest: {}", e.getMessage());
+		}
+	}
+
+	/**
+	 * @return hash of the projects directory at the last synchronization or null
+	 */
+	synchronized String getDigest() {
+		return manifest != null ? manifest.digest() : null;
+	}
+
+	/**
+	 * Selects the Executable Test Suites, which are affected by the modified files.
+	 *
+	 * A modified file in the directory of an Executable Test Suite affects this Executable
+	 * Test Suite. An added file outside of all Executable Test Suite directories belongs
+	 * to a new project, which is imported without deleting anything. A changed or deleted
+	 * file outside of all Executable Test Suite directories may be a shared resource, for
+	 * instance an include file in a sibling directory. It affects all Executable Test Suites
+	 * below the nearest parent directory, that contains at least one Executable Test Suite
+	 * directory, which is the projects directory in the worst case.
+	 *
+	 * @param projectsDir projects directory
+	 * @param etsDirs directories of the stored Executable Test Suites
+	 * @param modifiedFiles added, changed and deleted files
+	 * @param addedFiles added files
+	 * @return IDs of the affected Executable Test Suites
+	 */
+	static Set<EID> affected(final Path projectsDir, final Map<EID, Path> etsDirs, final Set<Path> modifiedFiles,
+			final Set<Path> addedFiles) {
+		final Set<EID> affected = new HashSet<>();
+		for (final Path modified : modifiedFiles) {
+			boolean inEtsDir = false;
+			for (final Map.Entry<EID, Path> etsDir : etsDirs.entrySet()) {
+				if (modified.startsWith(etsDir.getValue())) {
+					affected.add(etsDir.getKey());
+					inEtsDir = true;
+				}
+			}
+			if (inEtsDir || addedFiles.contains(modified)) {
+				continue;
+			}
+			// shared resource
+			for (Path parent = modified.getParent(); parent != null && parent.startsWith(projectsDir); parent = parent
+					.getParent()) {
+				boolean found = false;
+				for (final Map.Entry<EID, Path> etsDir : etsDirs.entrySet()) {
+					if (etsDir.getValue().startsWith(parent)) {
+						affected.add(etsDir.getKey());
+						found = true;
+					}
+				}
+				if (found) {
+					break;
+				}
+			}
+		}
+		return affected;
+	}
+
+	/**
+	 * @return directory of the Executable Test Suite or null if it is unknown, missing or
+	 * not located in the projects directory
+	 */
+	private Path directoryOf(final ExecutableTestSuiteDto ets) {
+		final String localPath = ets.getLocalPath();
+		if (localPath == null) {
+			// origin unknown
+			return null;
+		}
+		final Path path;
+		try {
+			path = (localPath.startsWith("file:") ? Paths.get(URI.create(localPath)) : Paths.get(localPath))
+					.toAbsolutePath().normalize();
+		} catch (final IllegalArgumentException | InvalidPathException e) {
+			return null;
+		}
+		final Path dir = Files.isDirectory(path) ? path : path.getParent();
+		if (dir == null || !dir.startsWith(projectsDir) || !Files.exists(path)) {
+			return null;
+		}
+		return dir;
+	}
+
+	/**
+	 * Watches the projects directory and invokes the synchronization after the directory has
+	 * not been changed for the quiet period
+	 *
+	 * @param quietPeriod quiet period in seconds
+	 * @param sync synchronization that is invoked, returns false if it must be retried later
+	 * @throws IOException if the directory could not be watched
+	 */
+	synchronized void watch(final long quietPeriod, final BooleanSupplier sync) throws IOException {
+		if (watchService != null) {
+			return;
+		}
+		watchService = projectsDir.getFileSystem().newWatchService();
+		registerAll(projectsDir);
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			final Thread thread = new Thread(r, "projects-watcher");
+			thread.setDaemon(true);
+			return thread;
+		});
+		final Thread watcher = new Thread(() -> {
+			try {
+				while (!Thread.currentThread().isInterrupted()) {
+					final WatchKey key = watchService.take();
+					for (final WatchEvent<?> event : key.pollEvents()) {
+						if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+							final Path created = ((Path) key.watchable()).resolve((Path) event.context());
+							if (Files.isDirectory(created)) {
+								registerAll(created);
+							}
+						}
+					}
+					key.reset();
+					schedule(quietPeriod, sync);
+				}
+			} catch (final InterruptedException | ClosedWatchServiceException e) {
+				// released
+			} catch (final IOException e) {
+				logger.error("Watching the projects directory failed: ", e);
+			}
+		}, "projects-watch-events");
+		watcher.setDaemon(true);
+		watcher.start();
+		logger.info("Watching projects directory {}", projectsDir);
+	}
+
+	private synchronized void schedule(final long quietPeriod, final BooleanSupplier sync) {
+		if (scheduler == null) {
+			return;
+		}
+		if (scheduledSync != null) {
+			scheduledSync.cancel(false);
+		}
+		scheduledSync = scheduler.schedule(() -> {
+			try {
+				if (!sync.getAsBoolean()) {
+					schedule(quietPeriod, sync);
+				}
+			} catch (final RuntimeException e) {
+				logger.error("Synchronizing Executable Test Suites failed: ", e);
+			}
+		}, quietPeriod, TimeUnit.SECONDS);
+	}
+
+	private void registerAll(final Path dir) throws IOException {
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(final Path d, final BasicFileAttributes attrs)
+					throws IOException {
+				if (!d.equals(projectsDir) && d.getFileName().toString().startsWith(".")) {
+					return FileVisitResult.SKIP_SUBTREE;
+				}
+				d.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+						StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	synchronized void release() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+		if (watchService != null) {
+			try {
+				watchService.close();
+			} catch (final IOException ignore) {
+				// closing
+			}
+			watchService = null;
+		}
+	}
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright 2010-2017 interactive instruments GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.interactive_instruments.etf.webapp.controller;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.bind.DatatypeConverter;
+
+/**
+ * Number, size and hash of the files of a Test Object
+ *
+ * @author J. Herrmann ( herrmann <aT) interactive-instruments (doT> de )
+ */
+final class FileStats {
+
+	static final String DIGEST_ALGORITHM = "SHA-1";
+
+	private final long fileCount;
+	private final long size;
+	private final long emptyFiles;
+	private final long skippedFiles;
+	private final byte[] hash;
+
+	FileStats(final long fileCount, final long size, final long emptyFiles, final long skippedFiles,
+			final byte[] hash) {
+		this.fileCount = fileCount;
+		this.size = size;
+		this.emptyFiles = emptyFiles;
+		this.skippedFiles = skippedFiles;
+		this.hash = hash;
+	}
+
+	static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance(DIGEST_ALGORITHM);
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Collects the stats of files while they are stored.
+	 *
+	 * Files may be added concurrently and in any order. A file that is stored twice
+	 * under the same path is only counted once, the hash does not depend on the order.
+	 */
+	static final class Collector {
+		private static final class StoredFile {
+			private final long size;
+			private final byte[] digest;
+
+			private StoredFile(final long size, final byte[] digest) {
+				this.size = size;
+				this.digest = digest;
+			}
+		}
+
+		private final Map<String, StoredFile> files = new ConcurrentHashMap<>();
+		private final AtomicLong skippedFiles = new AtomicLong();
+
+		/**
+		 * @param relativePath path relative to the storage directory
+		 * @param size file size in bytes
+		 * @param digest content digest created with {@link #newDigest()}
+		 */
+		void add(final String relativePath, final long size, final byte[] digest) {
+			files.put(relativePath, new StoredFile(size, digest));
+		}
+
+		void skipped() {
+			skippedFiles.incrementAndGet();
+		}
+
+		/**
+		 * Adds the files of another collector, files with equal paths are replaced
+		 *
+		 * @param other collector
+		 */
+		void addAll(final Collector other) {
+			files.putAll(other.files);
+			skippedFiles.addAndGet(other.skippedFiles.get());
+		}
+
+		FileStats toStats() {
+			final MessageDigest itemDigest = newDigest();
+			long size = 0;
+			long emptyFiles = 0;
+			for (final String path : new TreeSet<>(files.keySet())) {
+				final StoredFile file = files.get(path);
+				itemDigest.update(path.getBytes(StandardCharsets.UTF_8));
+				itemDigest.update(file.digest);
+				size += file.size;
+				if (file.size == 0) {
+					emptyFiles++;
+				}
+			}
+			final String hash = DatatypeConverter.printHexBinary(itemDigest.digest()).toLowerCase(Locale.ENGLISH);
+			return new FileStats(files.size(), size, emptyFiles, skippedFiles.get(),
+					hash.getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	long getFileCount() {
+		return fileCount;
+	}
+
+	long getSize() {
+		return size;
+	}
+
+	long getEmptyFiles() {
+		return emptyFiles;
+	}
+
+	long getSkippedFiles() {
+		return skippedFiles;
+	}
+
+	byte[] getHash() {
+		return hash;
+	}
+}
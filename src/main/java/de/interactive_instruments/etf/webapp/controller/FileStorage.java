@@ -15,15 +15,32 @@
  */
 package de.interactive_instruments.etf.webapp.controller;
 
-import java.io.File;
-import java.io.FileFilter;
-import java.io.IOException;
+import java.io.*;
 import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.stream.Stream;
+import java.util.zip.ZipInputStream;
 
+import javax.xml.bind.DatatypeConverter;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.web.multipart.MultipartFile;
 
 import de.interactive_instruments.Credentials;
@@ -35,23 +52,149 @@ import de.interactive_instruments.io.FileContentFilterHolder;
 import de.interactive_instruments.io.MultiFileFilter;
 
 /**
+ * Stores uploaded and downloaded files.
+ *
+ * The received files are transferred sequentially, while the type detection and
+ * the extraction of archives run in parallel on a bounded pool that is shared by
+ * all uploads. Each upload is prepared in its own staging directory, the staging
+ * directories are merged in upload order, so the last upload wins like in a sequential
+ * extraction. Archives are extracted in a single pass: the file filter is applied and
+ * the {@link FileStats} are collected while the entries are written, so the stored
+ * files do not need to be read again. Stored files with equal content are deduplicated
+ * by the {@link BlobStore}, archives that have been extracted before are linked from it.
+ *
  * @author J. Herrmann ( herrmann <aT) interactive-instruments (doT> de )
  */
 class FileStorage {
 
+	private static final int QUEUE_SIZE = 64;
+	private static final int BUFFER_SIZE = 65536;
+	// Prefix of the hidden directories and files in which the files are prepared
+	private static final String PREPARED_DIR_PREFIX = ".prepare-";
+
 	private final IFile storageDir;
 	private final IFile tmpDir;
 	private final FileContentFilterHolder baseFilter;
+	private final ThreadPoolExecutor executor;
+	private final ParallelDownloader downloader;
+	private final BlobStore blobStore;
+	private final RemoteDataCache remoteDataCache;
+	private final Logger logger = LoggerFactory.getLogger(FileStorage.class);
+
+	/**
+	 * A received file that is transferred to the temporary directory
+	 */
+	interface UploadSource {
+		String getOriginalFilename();
+
+		boolean isEmpty();
+
+		void transferTo(final File dest) throws IOException;
+	}
 
-	FileStorage(final IFile destination, final IFile tmpDir, final FileContentFilterHolder baseFilter) {
+	/**
+	 * @param destination storage directory
+	 * @param tmpDir directory for temporary files
+	 * @param baseFilter filter for the file names and content types
+	 * @param maxParallelFiles maximum number of files that are prepared in parallel,
+	 *                         a value less equal 1 prepares the files in the request thread
+	 * @param downloader downloader for remote resources
+	 * @param blobStore store that deduplicates the stored files or null
+	 * @param remoteDataCache cache for conditional downloads or null
+	 */
+	FileStorage(final IFile destination, final IFile tmpDir, final FileContentFilterHolder baseFilter,
+			final int maxParallelFiles, final ParallelDownloader downloader, final BlobStore blobStore,
+			final RemoteDataCache remoteDataCache) {
 		this.storageDir = destination;
 		this.tmpDir = tmpDir;
 		this.baseFilter = baseFilter;
+		this.downloader = downloader;
+		this.blobStore = blobStore;
+		this.remoteDataCache = remoteDataCache;
+		if (maxParallelFiles > 1) {
+			final AtomicInteger threadCounter = new AtomicInteger();
+			this.executor = new ThreadPoolExecutor(maxParallelFiles, maxParallelFiles,
+					60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(QUEUE_SIZE),
+					r -> {
+						final Thread t = new Thread(r, "file-storage-" + threadCounter.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					},
+					// Apply back pressure to the request threads
+					new ThreadPoolExecutor.CallerRunsPolicy());
+			this.executor.allowCoreThreadTimeOut(true);
+		} else {
+			this.executor = null;
+		}
+	}
+
+	void release() {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+		downloader.release();
+	}
+
+	/**
+	 * Wraps a local file, which is moved to the temporary directory
+	 *
+	 * @param file local file
+	 * @return upload source
+	 */
+	static UploadSource source(final IFile file) {
+		return new UploadSource() {
+			@Override
+			public String getOriginalFilename() {
+				return file.getName();
+			}
+
+			@Override
+			public boolean isEmpty() {
+				return file.length() == 0;
+			}
+
+			@Override
+			public void transferTo(final File dest) throws IOException {
+				Files.move(file.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		};
+	}
+
+	/**
+	 * Wraps multipart files
+	 *
+	 * @param multiFiles multipart files grouped by the form field names
+	 * @return upload sources
+	 */
+	static List<UploadSource> sources(final Collection<List<MultipartFile>> multiFiles) {
+		final List<UploadSource> sources = new ArrayList<>();
+		for (final List<MultipartFile> files : multiFiles) {
+			for (final MultipartFile file : files) {
+				sources.add(new UploadSource() {
+					@Override
+					public String getOriginalFilename() {
+						return file.getOriginalFilename();
+					}
+
+					@Override
+					public boolean isEmpty() {
+						return file.isEmpty();
+					}
+
+					@Override
+					public void transferTo(final File dest) throws IOException {
+						file.transferTo(dest);
+					}
+				});
+			}
+		}
+		return sources;
 	}
 
 	abstract class StorageCmd {
 		protected final String label;
 		protected final MultiFileFilter fileFilter;
+		protected final FileStats.Collector stats = new FileStats.Collector();
 
 		StorageCmd(final String label, final FileFilter additionalFileFilter) {
 			this.label = IFile.sanitize(label);
@@ -62,12 +205,23 @@ class FileStorage {
 				fileFilter = baseFilter.filename().and(additionalFileFilter);
 			}
 		}
+
+		/**
+		 * @return stats of the stored files, available after the command has been executed
+		 */
+		FileStats getStats() {
+			return stats.toStats();
+		}
 	}
 
 	public class DownloadCmd extends StorageCmd {
 
 		private final Collection<URI> uris;
 		private final Credentials credentials;
+		private String username;
+		private String password;
+		private String filterKey;
+		private FileStats cachedStats;
 
 		private DownloadCmd(final String label, final Collection<URI> uris, final FileFilter additionalFileFilter,
 				final Credentials credentials) {
@@ -77,41 +231,140 @@ class FileStorage {
 		}
 
 		IFile download() throws LocalizableApiError, IOException {
+			return download(null);
+		}
+
+		/**
+		 * Enables conditional requests, if a single remote URI is downloaded
+		 *
+		 * @param username user name or null
+		 * @param password password or null
+		 * @param filterKey key of the additional file filter or null
+		 * @return this command
+		 */
+		DownloadCmd conditional(final String username, final String password, final String filterKey) {
+			this.username = username;
+			this.password = password;
+			this.filterKey = filterKey != null ? filterKey : "";
+			return this;
+		}
+
+		@Override
+		FileStats getStats() {
+			return cachedStats != null ? cachedStats : super.getStats();
+		}
+
+		/**
+		 * Reuses the prepared files if the resource has not been modified
+		 *
+		 * @return the directory of the prepared files or null if the resource could not be
+		 * 		   requested conditionally
+		 */
+		private IFile downloadConditionally(final URI uri, final IFile tmpSubDir, final IFile destinationSubDir)
+				throws LocalizableApiError, IOException {
+			final RemoteDataCache.Response response;
+			try {
+				response = remoteDataCache.request(uri, username, password, filterKey);
+			} catch (IOException e) {
+				logger.debug("Conditional request for {} failed: {}", uri, e.getMessage());
+				return null;
+			}
+			try {
+				if (response.isNotModified()) {
+					// The prepared files belong to another Test Object, link them into the own directory
+					try {
+						materialize(response.getCachedDirectory(), destinationSubDir);
+					} catch (IOException e) {
+						logger.debug("Reusing the prepared files of {} failed: {}", uri, e.getMessage());
+						destinationSubDir.deleteDirectory();
+						destinationSubDir.ensureDir();
+						return null;
+					}
+					logger.info("Reusing unmodified test data from {}", uri);
+					cachedStats = response.getCachedStats();
+					response.relocate(destinationSubDir);
+					return destinationSubDir;
+				}
+				final IFile download;
+				try {
+					download = response.saveTo(tmpSubDir.secureExpandPathDown("download"));
+				} catch (IOException e) {
+					logger.debug("Conditional download of {} failed: {}", uri, e.getMessage());
+					return null;
+				}
+				uploadAndUnzip(Collections.singletonList(source(download)), fileFilter, stats, tmpSubDir,
+						destinationSubDir);
+				response.store(destinationSubDir, stats.toStats());
+				return destinationSubDir;
+			} finally {
+				response.close();
+			}
+		}
+
+		/**
+		 * Downloads all remote URIs concurrently and prepares the downloaded files
+		 *
+		 * @param progress progress callback or null
+		 * @return destination directory
+		 */
+		IFile download(final ParallelDownloader.Progress progress) throws LocalizableApiError, IOException {
 			// Create a temporary directory for the uploads
 			final IFile tmpSubDir = tmpDir.secureExpandPathDown(label);
 			tmpSubDir.ensureDir();
+			try {
+				return download(progress, tmpSubDir);
+			} finally {
+				try {
+					tmpSubDir.deleteDirectory();
+				} catch (IOException ignore) {}
+			}
+		}
 
+		private IFile download(final ParallelDownloader.Progress progress, final IFile tmpSubDir)
+				throws LocalizableApiError, IOException {
 			// Destination directory
 			final IFile destinationSubDir = storageDir.secureExpandPathDown(label);
 			destinationSubDir.ensureDir();
 
+			final List<URI> remoteUris = new ArrayList<>(uris.size());
 			for (final URI uri : uris) {
 				if (!UriUtils.isFile(uri)) {
-					final IFile download;
-					try {
-						download = UriUtils.downloadTo(uri, tmpSubDir, this.credentials);
-					} catch (IOException e) {
-						throw new LocalizableApiError("l.download.failed", e);
-					}
-					prepare(download, destinationSubDir, download.getName(), fileFilter);
+					remoteUris.add(uri);
+				}
+			}
+			if (remoteDataCache != null && filterKey != null && remoteUris.size() == 1
+					&& remoteUris.get(0).getScheme() != null
+					&& remoteUris.get(0).getScheme().toLowerCase(Locale.ENGLISH).startsWith("http")) {
+				final IFile dir = downloadConditionally(remoteUris.get(0), tmpSubDir, destinationSubDir);
+				if (dir != null) {
+					return dir;
 				}
+				// Fall back to a regular download with retries
+			}
+			final List<IFile> downloads;
+			try {
+				downloads = downloader.download(remoteUris, tmpSubDir.secureExpandPathDown("download"),
+						this.credentials, progress);
+			} catch (IOException e) {
+				throw new LocalizableApiError("l.download.failed", e);
 			}
+			final List<UploadSource> sources = new ArrayList<>(downloads.size());
+			for (final IFile download : downloads) {
+				sources.add(source(download));
+			}
+			uploadAndUnzip(sources, fileFilter, stats, tmpSubDir, destinationSubDir);
 			return destinationSubDir;
 		}
 	}
 
 	public class UploadCmd extends StorageCmd {
 
-		private final List<MultipartFile> files;
+		private final List<UploadSource> files;
 
-		UploadCmd(final String label, final Collection<List<MultipartFile>> multiFiles, final FileFilter additionalFileFilter) {
+		UploadCmd(final String label, final Collection<? extends UploadSource> files,
+				final FileFilter additionalFileFilter) {
 			super(label, additionalFileFilter);
-			this.files = new ArrayList<>(multiFiles.size());
-			for (final List<MultipartFile> files : multiFiles) {
-				for (final MultipartFile file : files) {
-					this.files.add(file);
-				}
-			}
+			this.files = new ArrayList<>(files);
 		}
 
 		IFile upload() throws LocalizableApiError {
@@ -125,7 +378,7 @@ class FileStorage {
 				tmpSubDir.ensureDir();
 				destinationSubDir.ensureDir();
 
-				uploadAndUnzip(files, fileFilter, tmpSubDir, destinationSubDir);
+				uploadAndUnzip(files, fileFilter, stats, tmpSubDir, destinationSubDir);
 			} catch (LocalizableApiError e) {
 				try {
 					tmpSubDir.deleteDirectory();
@@ -153,26 +406,97 @@ class FileStorage {
 		return new DownloadCmd(dto.getLabel() + "-" + dto.getId(), Arrays.asList(uris), additionalFileFilter, credentials);
 	}
 
-	UploadCmd upload(MetaDataItemDto dto, final FileFilter additionalFileFilter, final Collection<List<MultipartFile>> files) {
+	UploadCmd upload(MetaDataItemDto dto, final FileFilter additionalFileFilter,
+			final Collection<? extends UploadSource> files) {
 		return new UploadCmd(dto.getId().getId(), files, additionalFileFilter);
 	}
 
-	private void uploadAndUnzip(final Collection<MultipartFile> files, final MultiFileFilter fileFilter, final IFile tmpSubDir,
-			final IFile destinationSubDir) throws LocalizableApiError, IOException {
-		for (final MultipartFile multipartFile : files) {
-			if (multipartFile != null && !multipartFile.isEmpty()) {
-				final IFile tmpFile = tmpSubDir.secureExpandPathDown(
-						IFile.sanitize(multipartFile.getOriginalFilename()));
-				tmpFile.expectFileIsWritable();
-				tmpFile.delete();
-				multipartFile.transferTo(tmpFile);
-				prepare(tmpFile, destinationSubDir, multipartFile.getOriginalFilename(), fileFilter);
+	/**
+	 * Prepares the uploaded files in parallel. Each upload is extracted into its own staging
+	 * directory, the staging directories are merged into the destination directory in upload
+	 * order afterwards, so files with equal relative paths are replaced like in a sequential
+	 * extraction: the last upload wins.
+	 */
+	private void uploadAndUnzip(final Collection<UploadSource> files, final MultiFileFilter fileFilter,
+			final FileStats.Collector stats, final IFile tmpSubDir, final IFile destinationSubDir) throws LocalizableApiError, IOException {
+		final List<Future<?>> preparations = new ArrayList<>(files.size());
+		final List<IFile> preparedDirs = new ArrayList<>(files.size());
+		final List<FileStats.Collector> preparedStats = new ArrayList<>(files.size());
+		try {
+			int index = 0;
+			for (final UploadSource upload : files) {
+				if (upload != null && !upload.isEmpty()) {
+					// Files with equal names must not overwrite each other while they are prepared
+					final IFile stagingDir = tmpSubDir.secureExpandPathDown(String.valueOf(index));
+					stagingDir.ensureDir();
+					final IFile tmpFile = stagingDir.secureExpandPathDown(
+							IFile.sanitize(upload.getOriginalFilename()));
+					tmpFile.expectFileIsWritable();
+					tmpFile.delete();
+					upload.transferTo(tmpFile);
+					// Prepared on the file system of the destination, so the files are moved, not copied
+					final IFile preparedDir = destinationSubDir.secureExpandPathDown(PREPARED_DIR_PREFIX + index++);
+					preparedDir.ensureDir();
+					final FileStats.Collector uploadStats = new FileStats.Collector();
+					preparedDirs.add(preparedDir);
+					preparedStats.add(uploadStats);
+					if (executor == null) {
+						prepare(tmpFile, preparedDir, upload.getOriginalFilename(), fileFilter, uploadStats);
+					} else {
+						preparations.add(executor.submit((Callable<Void>) () -> {
+							prepare(tmpFile, preparedDir, upload.getOriginalFilename(), fileFilter, uploadStats);
+							return null;
+						}));
+					}
+				}
+			}
+			for (final Future<?> preparation : preparations) {
+				preparation.get();
+			}
+			for (int i = 0; i < preparedDirs.size(); i++) {
+				moveInto(preparedDirs.get(i).toPath(), destinationSubDir.toPath());
+				stats.addAll(preparedStats.get(i));
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while preparing the uploaded files", e);
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof LocalizableApiError) {
+				throw (LocalizableApiError) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		} finally {
+			// Stop the remaining preparations if one has failed
+			for (final Future<?> preparation : preparations) {
+				if (!preparation.isDone()) {
+					preparation.cancel(true);
+					logger.debug("Cancelled file preparation in {}", destinationSubDir.getName());
+				}
+			}
+			for (final IFile preparedDir : preparedDirs) {
+				try {
+					preparedDir.deleteDirectory();
+				} catch (IOException ignore) {}
+			}
+		}
+	}
+
+	/**
+	 * Moves the prepared files into the destination directory. Existing files are replaced
+	 * by a new directory entry, so files that are linked to a blob are never overwritten.
+	 */
+	private static void moveInto(final Path preparedDir, final Path destination) throws IOException {
+		try (final Stream<Path> preparedFiles = Files.walk(preparedDir)) {
+			for (final Path file : (Iterable<Path>) preparedFiles.filter(Files::isRegularFile)::iterator) {
+				final Path target = destination.resolve(preparedDir.relativize(file));
+				Files.createDirectories(target.getParent());
+				Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
 			}
 		}
 	}
 
 	private void prepare(final IFile tmpFile, final IFile storageSubDir, final String originalFilename,
-			final MultiFileFilter fileFilter) throws LocalizableApiError {
+			final MultiFileFilter fileFilter, final FileStats.Collector stats) throws LocalizableApiError {
 		final String type;
 		try {
 			type = MimeTypeUtils.detectMimeType(tmpFile);
@@ -183,7 +507,7 @@ class FileStorage {
 		if (type.equals("application/zip")) {
 			// Unzip files to directory
 			try {
-				tmpFile.unzipTo(storageSubDir, fileFilter);
+				unzip(tmpFile, storageSubDir, fileFilter, stats);
 			} catch (IOException e) {
 				throw new LocalizableApiError("l.decompress.failed", e);
 			} finally {
@@ -195,11 +519,167 @@ class FileStorage {
 				tmpFile.delete();
 				throw new LocalizableApiError("l.upload.invalid", false, 400, type);
 			}
+			final String fileName = IFile.sanitize(originalFilename);
 			try {
-				tmpFile.moveTo(storageSubDir.getPath() + File.separator + IFile.sanitize(originalFilename));
+				final long size = tmpFile.length();
+				final byte[] digest = digest(tmpFile);
+				Files.move(tmpFile.toPath(), new File(storageSubDir, fileName).toPath(),
+						StandardCopyOption.REPLACE_EXISTING);
+				intern(new File(storageSubDir, fileName), digest);
+				if (fileFilter.accept(new File(storageSubDir, fileName))) {
+					stats.add(fileName, size, digest);
+				} else {
+					stats.skipped();
+				}
 			} catch (IOException e) {
 				throw new LocalizableApiError(e);
 			}
 		}
 	}
+
+	/**
+	 * Provides the prepared files of another Test Object in the destination directory
+	 */
+	private void materialize(final IFile preparedDir, final IFile destinationSubDir) throws IOException {
+		if (blobStore != null) {
+			blobStore.linkTree(preparedDir.toPath(), destinationSubDir.toPath());
+		} else {
+			FileUtils.copyDirectory(preparedDir, destinationSubDir);
+		}
+	}
+
+	private static byte[] digest(final File file) throws IOException {
+		final MessageDigest digest = FileStats.newDigest();
+		try (final InputStream in = new DigestInputStream(new FileInputStream(file), digest)) {
+			final byte[] buffer = new byte[BUFFER_SIZE];
+			while (in.read(buffer) != -1) {
+				// digest is updated while reading
+			}
+		}
+		return digest.digest();
+	}
+
+	private void intern(final File file, final byte[] digest) {
+		if (blobStore != null) {
+			blobStore.intern(file, digest);
+		}
+	}
+
+	/**
+	 * Extracts the files that pass the filter and collects their stats while writing.
+	 * An archive whose entries are known to the blob store is linked instead.
+	 */
+	private void unzip(final IFile zipFile, final IFile storageSubDir, final MultiFileFilter fileFilter,
+			final FileStats.Collector stats) throws IOException {
+		final Path root = storageSubDir.toPath().toAbsolutePath().normalize();
+		final byte[] archiveDigest = blobStore != null ? digest(zipFile) : null;
+		if (archiveDigest != null && linkArchive(archiveDigest, root, fileFilter, stats)) {
+			return;
+		}
+		final Properties archiveEntries = new Properties();
+		final byte[] buffer = new byte[BUFFER_SIZE];
+		try (final ZipInputStream zip = new ZipInputStream(new BufferedInputStream(new FileInputStream(zipFile)))) {
+			ZipEntry entry;
+			while ((entry = zip.getNextEntry()) != null) {
+				if (entry.isDirectory()) {
+					continue;
+				}
+				final Path target = root.resolve(entry.getName()).normalize();
+				if (!target.startsWith(root)) {
+					throw new IOException("Illegal path in archive: " + entry.getName());
+				}
+				final File targetFile = target.toFile();
+				final String relativePath = root.relativize(target).toString().replace(File.separatorChar, '/');
+				if (!fileFilter.accept(targetFile)) {
+					archiveEntries.setProperty(relativePath, "");
+					stats.skipped();
+					continue;
+				}
+				targetFile.getParentFile().mkdirs();
+				final MessageDigest digest = FileStats.newDigest();
+				long size = 0;
+				// Never write into an existing file, it may be linked to a blob
+				final Path tmpTarget = Files.createTempFile(target.getParent(), PREPARED_DIR_PREFIX, ".tmp");
+				try {
+					try (final OutputStream out = new DigestOutputStream(
+							new BufferedOutputStream(Files.newOutputStream(tmpTarget)), digest)) {
+						int read;
+						while ((read = zip.read(buffer)) != -1) {
+							out.write(buffer, 0, read);
+							size += read;
+						}
+					}
+					Files.move(tmpTarget, target, StandardCopyOption.REPLACE_EXISTING);
+				} finally {
+					Files.deleteIfExists(tmpTarget);
+				}
+				final byte[] fileDigest = digest.digest();
+				intern(targetFile, fileDigest);
+				archiveEntries.setProperty(relativePath, size + ":" + DatatypeConverter.printHexBinary(fileDigest));
+				stats.add(relativePath, size, fileDigest);
+			}
+		}
+		if (archiveDigest != null) {
+			blobStore.putArchiveEntries(archiveDigest, archiveEntries);
+		}
+	}
+
+	/**
+	 * Links the entries of an archive that has been extracted before from the blob store
+	 *
+	 * @return false if the archive is unknown, if an entry that has been skipped before
+	 *         passes the filter or if a blob has been removed in the meantime
+	 */
+	private boolean linkArchive(final byte[] archiveDigest, final Path root, final MultiFileFilter fileFilter,
+			final FileStats.Collector stats) {
+		final Properties archiveEntries = blobStore.archiveEntries(archiveDigest);
+		if (archiveEntries == null) {
+			return false;
+		}
+		final List<String> accepted = new ArrayList<>();
+		int skipped = 0;
+		for (final String relativePath : archiveEntries.stringPropertyNames()) {
+			final boolean extracted = !archiveEntries.getProperty(relativePath).isEmpty();
+			if (fileFilter.accept(root.resolve(relativePath).toFile())) {
+				if (!extracted) {
+					return false;
+				}
+				accepted.add(relativePath);
+			} else {
+				skipped++;
+			}
+		}
+		final List<Path> linked = new ArrayList<>();
+		final List<Runnable> addStats = new ArrayList<>();
+		for (final String relativePath : accepted) {
+			final String[] entry = archiveEntries.getProperty(relativePath).split(":", 2);
+			final Path target = root.resolve(relativePath);
+			boolean success = false;
+			try {
+				final long size = Long.parseLong(entry[0]);
+				final byte[] digest = DatatypeConverter.parseHexBinary(entry[1]);
+				if (blobStore.link(digest, size, target)) {
+					linked.add(target);
+					addStats.add(() -> stats.add(relativePath, size, digest));
+					success = true;
+				}
+			} catch (final IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+				logger.debug("Invalid archive entry {}", relativePath);
+			}
+			if (!success) {
+				// Remove the links, so the extraction does not write into the blobs
+				for (final Path link : linked) {
+					try {
+						Files.deleteIfExists(link);
+					} catch (IOException ignore) {}
+				}
+				return false;
+			}
+		}
+		addStats.forEach(Runnable::run);
+		for (int i = 0; i < skipped; i++) {
+			stats.skipped();
+		}
+		return true;
+	}
 }
@@ -0,0 +1,198 @@
+/**
+ * Copyright 2010-2017 interactive instruments GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.interactive_instruments.etf.webapp.controller;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileVisitOption;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Counts the detected types of the files in a Test Object directory.
+ *
+ * The files are classified in parallel on a fork-join pool. The classification stops early
+ * as soon as one detected type has been found for the majority of all files, as the
+ * remaining files can not change the majority type. Files of unknown type never end the
+ * classification early. The histogram is then incomplete, which is
+ * indicated by the number of checked files.
+ *
+ * @author J. Herrmann ( herrmann <aT) interactive-instruments (doT> de )
+ */
+final class FileTypeHistogram {
+
+	static final String UNKNOWN_TYPE = "unknown";
+	private static final int MAX_DEPTH = 5;
+	// Number of files that are classified in one fork-join leaf
+	private static final int LEAF_SIZE = 16;
+
+	private final Map<String, Long> counts;
+	private final int fileCount;
+	private final int checkedFiles;
+
+	private FileTypeHistogram(final Map<String, Long> counts, final int fileCount, final int checkedFiles) {
+		this.counts = counts;
+		this.fileCount = fileCount;
+		this.checkedFiles = checkedFiles;
+	}
+
+	private static final class Classification extends RecursiveAction {
+		private final List<Path> files;
+		private final int from;
+		private final int to;
+		private final TypeDetectorRegistry registry;
+		private final Map<String, LongAdder> counts;
+		private final AtomicInteger checked;
+		private final int majority;
+		private final AtomicBoolean decided;
+
+		private Classification(final List<Path> files, final int from, final int to,
+				final TypeDetectorRegistry registry, final Map<String, LongAdder> counts,
+				final AtomicInteger checked, final int majority, final AtomicBoolean decided) {
+			this.files = files;
+			this.from = from;
+			this.to = to;
+			this.registry = registry;
+			this.counts = counts;
+			this.checked = checked;
+			this.majority = majority;
+			this.decided = decided;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > LEAF_SIZE) {
+				final int middle = (from + to) >>> 1;
+				invokeAll(
+						new Classification(files, from, middle, registry, counts, checked, majority, decided),
+						new Classification(files, middle, to, registry, counts, checked, majority, decided));
+				return;
+			}
+			for (int i = from; i < to; i++) {
+				if (decided.get()) {
+					return;
+				}
+				final String type = classify(files.get(i));
+				final LongAdder count = counts.computeIfAbsent(type, t -> new LongAdder());
+				count.increment();
+				checked.incrementAndGet();
+				// Unknown files never decide the majority type
+				if (!UNKNOWN_TYPE.equals(type) && count.sum() >= majority) {
+					// a benign race: other leaves may still finish their current file
+					decided.set(true);
+				}
+			}
+		}
+
+		private String classify(final Path file) {
+			try (final InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+				final XmlTypeDetection.Result result = registry.classify(
+						file.getFileName().toString(), null, in, true);
+				return result != null ? result.getTypeId().getId() : UNKNOWN_TYPE;
+			} catch (final IOException e) {
+				LoggerFactory.getLogger(FileTypeHistogram.class).debug("Could not classify {}: {}",
+						file, e.getMessage());
+				return UNKNOWN_TYPE;
+			}
+		}
+	}
+
+	/**
+	 * Classifies the files of a directory
+	 *
+	 * @param dir Test Object directory
+	 * @param registry detector registry
+	 * @param pool fork-join pool
+	 * @return histogram
+	 * @throws IOException if the directory could not be listed
+	 */
+	static FileTypeHistogram compute(final Path dir, final TypeDetectorRegistry registry, final ForkJoinPool pool)
+			throws IOException {
+		final List<Path> files;
+		try (final Stream<Path> paths = Files.walk(dir, MAX_DEPTH, FileVisitOption.FOLLOW_LINKS)) {
+			files = paths.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+		}
+		final Map<String, LongAdder> counts = new ConcurrentHashMap<>();
+		final AtomicInteger checked = new AtomicInteger();
+		if (!files.isEmpty()) {
+			final long start = System.currentTimeMillis();
+			pool.invoke(new Classification(files, 0, files.size(), registry, counts, checked,
+					files.size() / 2 + 1, new AtomicBoolean()));
+			final Logger logger = LoggerFactory.getLogger(FileTypeHistogram.class);
+			logger.debug("Classified {} of {} files in {} ms", checked.get(), files.size(),
+					System.currentTimeMillis() - start);
+		}
+		final Map<String, Long> result = new LinkedHashMap<>();
+		counts.entrySet().stream()
+				.sorted(Map.Entry.<String, LongAdder> comparingByValue(
+						Comparator.comparingLong(LongAdder::sum)).reversed().thenComparing(Map.Entry::getKey))
+				.forEach(e -> result.put(e.getKey(), e.getValue().sum()));
+		return new FileTypeHistogram(Collections.unmodifiableMap(result), files.size(), checked.get());
+	}
+
+	/**
+	 * @return number of files per type ID, ordered by frequency
+	 */
+	Map<String, Long> getCounts() {
+		return counts;
+	}
+
+	int getFileCount() {
+		return fileCount;
+	}
+
+	int getCheckedFiles() {
+		return checkedFiles;
+	}
+
+	boolean isComplete() {
+		return checkedFiles == fileCount;
+	}
+
+	/**
+	 * @return type ID of the majority of files or null, if no detected type is
+	 *         found for the majority of files
+	 */
+	String getMajorityType() {
+		for (final Map.Entry<String, Long> entry : counts.entrySet()) {
+			if (!UNKNOWN_TYPE.equals(entry.getKey())) {
+				return entry.getValue() > fileCount / 2 ? entry.getKey() : null;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return histogram as property value, for instance 'EID...=120,unknown=3'
+	 */
+	String toPropertyValue() {
+		return counts.entrySet().stream().map(e -> e.getKey() + "=" + e.getValue())
+				.collect(Collectors.joining(","));
+	}
+}
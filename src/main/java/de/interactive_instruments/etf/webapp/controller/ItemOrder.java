@@ -0,0 +1,182 @@
+/**
+ * Copyright 2010-2017 interactive instruments GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.interactive_instruments.etf.webapp.controller;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+import de.interactive_instruments.etf.model.EID;
+
+/**
+ * Restores the order of a page in an item collection, that has been queried by IDs.
+ *
+ * The Dao does not guarantee that the items of a query by IDs are returned in the order
+ * of the IDs. The items of the page are sorted by the position of their ID, the
+ * referenced items are not changed. Items with unknown IDs are moved to the end.
+ *
+ * @author J. Herrmann ( herrmann <aT) interactive-instruments (doT> de )
+ */
+final class ItemOrder {
+
+	private static final String COLLECTION = "EtfItemCollection";
+	private static final String REFERENCED_ITEMS = "referencedItems";
+	private static final String ID = "id";
+
+	// Item collections of empty pages, which are not queried from the Dao
+	static final byte[] EMPTY_JSON_COLLECTION = "{\"EtfItemCollection\":{}}".getBytes(StandardCharsets.UTF_8);
+	static final byte[] EMPTY_XML_COLLECTION = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+			+ "<etf:EtfItemCollection xmlns:etf=\"http://www.interactive-instruments.de/etf/2.0\"/>")
+					.getBytes(StandardCharsets.UTF_8);
+
+	private ItemOrder() {}
+
+	/**
+	 * @return position of each ID, IDs are compared without the 'EID' prefix
+	 */
+	private static Map<String, Integer> positions(final List<EID> ids) {
+		final Map<String, Integer> positions = new HashMap<>();
+		for (int i = 0; i < ids.size(); i++) {
+			positions.putIfAbsent(normalize(ids.get(i).getId()), i);
+		}
+		return positions;
+	}
+
+	private static String normalize(final String id) {
+		return id.startsWith("EID") ? id.substring(3) : id;
+	}
+
+	private static int positionOf(final Map<String, Integer> positions, final String id) {
+		final Integer position = id != null ? positions.get(normalize(id)) : null;
+		return position != null ? position : Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Sorts the items of a JSON item collection
+	 *
+	 * @param mapper object mapper
+	 * @param collection JSON item collection
+	 * @param ids IDs in the order of the page
+	 * @return ordered JSON item collection or the passed collection if the structure is not recognized
+	 * @throws IOException if the collection can not be parsed
+	 */
+	static byte[] orderJson(final ObjectMapper mapper, final byte[] collection, final List<EID> ids)
+			throws IOException {
+		final JsonNode root = mapper.readTree(collection);
+		final JsonNode itemCollection = root != null ? root.get(COLLECTION) : null;
+		if (itemCollection == null || !itemCollection.isObject()) {
+			return collection;
+		}
+		final Map<String, Integer> positions = positions(ids);
+		// EtfItemCollection -> collection name -> item type name -> item array
+		final Iterator<Map.Entry<String, JsonNode>> collections = itemCollection.fields();
+		while (collections.hasNext()) {
+			final Map.Entry<String, JsonNode> items = collections.next();
+			if (REFERENCED_ITEMS.equals(items.getKey()) || !items.getValue().isObject()) {
+				continue;
+			}
+			for (final JsonNode itemsOfType : items.getValue()) {
+				if (itemsOfType.isArray() && itemsOfType.size() > 1) {
+					final List<JsonNode> sorted = new ArrayList<>(itemsOfType.size());
+					itemsOfType.forEach(sorted::add);
+					sorted.sort(Comparator.comparingInt(item -> positionOf(positions,
+							item.has(ID) ? item.get(ID).asText() : null)));
+					((ArrayNode) itemsOfType).removeAll();
+					((ArrayNode) itemsOfType).addAll(sorted);
+				}
+			}
+		}
+		return mapper.writeValueAsBytes(root);
+	}
+
+	/**
+	 * Sorts the items of a XML item collection and writes the collection
+	 *
+	 * @param collection XML item collection
+	 * @param ids IDs in the order of the page
+	 * @param out output stream
+	 * @throws IOException if the collection can not be parsed or written
+	 */
+	static void orderXml(final byte[] collection, final List<EID> ids, final OutputStream out) throws IOException {
+		final Document document;
+		try {
+			final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+			factory.setNamespaceAware(true);
+			factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+			factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+			document = factory.newDocumentBuilder().parse(new ByteArrayInputStream(collection));
+		} catch (final ParserConfigurationException | SAXException e) {
+			throw new IOException("Item collection can not be parsed", e);
+		}
+		order(document.getDocumentElement(), positions(ids));
+		try {
+			TransformerFactory.newInstance().newTransformer().transform(new DOMSource(document),
+					new StreamResult(out));
+		} catch (final TransformerException e) {
+			throw new IOException("Item collection can not be written", e);
+		}
+	}
+
+	/**
+	 * Sorts the child elements of the first elements, whose children are items of the page
+	 */
+	private static void order(final Element parent, final Map<String, Integer> positions) {
+		final List<Element> children = new ArrayList<>();
+		boolean items = false;
+		for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+			if (node.getNodeType() == Node.ELEMENT_NODE) {
+				final Element child = (Element) node;
+				children.add(child);
+				if (positions.containsKey(normalize(child.getAttribute(ID)))) {
+					items = true;
+				}
+			}
+		}
+		if (items) {
+			final List<Element> sorted = new ArrayList<>(children);
+			sorted.sort(Comparator.comparingInt(item -> positionOf(positions, item.getAttribute(ID))));
+			for (final Element item : sorted) {
+				// appending an existing child moves it to the end
+				parent.appendChild(item);
+			}
+			return;
+		}
+		for (final Element child : children) {
+			if (!REFERENCED_ITEMS.equals(child.getLocalName())) {
+				order(child, positions);
+			}
+		}
+	}
+}
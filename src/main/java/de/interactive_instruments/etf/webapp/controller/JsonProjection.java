@@ -0,0 +1,99 @@
+/**
+ * Copyright 2010-2017 interactive instruments GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.interactive_instruments.etf.webapp.controller;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Derives a partial response from a complete JSON item collection, so that
+ * responses with selected fields can be created from a cached complete response
+ * instead of querying the Dao again.
+ *
+ * Like the Dao projection, only fields on the highest level of the items are selected
+ * and only the selected fields are kept: the item ID and the referenced items are
+ * removed as well, if they are not selected.
+ *
+ * @author J. Herrmann ( herrmann <aT) interactive-instruments (doT> de )
+ */
+final class JsonProjection {
+
+	private static final String COLLECTION = "EtfItemCollection";
+	private static final String REFERENCED_ITEMS = "referencedItems";
+
+	private JsonProjection() {}
+
+	/**
+	 * Removes all fields of the items that are not selected
+	 *
+	 * @param mapper object mapper
+	 * @param collection complete JSON item collection
+	 * @param fields selected fields
+	 * @return partial JSON item collection or null if the structure is not recognized
+	 * @throws IOException if the collection can not be parsed
+	 */
+	static byte[] project(final ObjectMapper mapper, final byte[] collection, final Set<String> fields)
+			throws IOException {
+		final JsonNode root = mapper.readTree(collection);
+		final JsonNode itemCollection = root != null ? root.get(COLLECTION) : null;
+		if (itemCollection == null || !itemCollection.isObject()) {
+			return null;
+		}
+		// EtfItemCollection -> collection name -> item type name -> item or item array
+		final Iterator<Map.Entry<String, JsonNode>> collections = itemCollection.fields();
+		while (collections.hasNext()) {
+			final Map.Entry<String, JsonNode> items = collections.next();
+			if (REFERENCED_ITEMS.equals(items.getKey())) {
+				if (!fields.contains(REFERENCED_ITEMS)) {
+					collections.remove();
+				}
+				continue;
+			} else if (!items.getValue().isObject()) {
+				continue;
+			}
+			for (final JsonNode itemsOfType : items.getValue()) {
+				if (itemsOfType.isArray()) {
+					for (final JsonNode item : itemsOfType) {
+						retain(item, fields);
+					}
+				} else {
+					retain(itemsOfType, fields);
+				}
+			}
+		}
+		return mapper.writeValueAsBytes(root);
+	}
+
+	private static void retain(final JsonNode item, final Set<String> fields) {
+		if (item.isObject()) {
+			final List<String> unselected = new ArrayList<>();
+			item.fieldNames().forEachRemaining(name -> {
+				if (!fields.contains(name)) {
+					unselected.add(name);
+				}
+			});
+			((ObjectNode) item).remove(unselected);
+		}
+	}
+}
@@ -0,0 +1,191 @@
+/**
+ * Copyright 2010-2017 interactive instruments GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.interactive_instruments.etf.webapp.controller;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.interactive_instruments.etf.dal.dao.Dao;
+import de.interactive_instruments.etf.dal.dto.Dto;
+import de.interactive_instruments.etf.dal.dto.MetaDataItemDto;
+import de.interactive_instruments.etf.model.EID;
+import de.interactive_instruments.etf.webapp.conversion.EidConverter;
+import de.interactive_instruments.etf.webapp.helpers.SimpleFilter;
+import de.interactive_instruments.exceptions.StorageException;
+
+/**
+ * Resolves keyset cursors for Dao collections, ordered by label and ID.
+ *
+ * A sorted index of the keys is kept per Dao. Items that are stored or deleted through
+ * the webapp are added to or removed from the index. The index is only reloaded, with
+ * the labels only, if the Dao has been modified otherwise. The position of a cursor is
+ * looked up in the sorted index, so the costs of a page do not depend on its position
+ * in the collection. As the cursor contains the key of the last returned item and not a
+ * position, a cursor stays valid if items are added or removed.
+ *
+ * @author J. Herrmann ( herrmann <aT) interactive-instruments (doT> de )
+ */
+final class KeysetPager {
+
+	private static final int LOAD_PAGE_SIZE = 1000;
+	private static final char CURSOR_SEPARATOR = '\n';
+
+	private static final class Key {
+		private final String label;
+		private final EID id;
+
+		private Key(final String label, final EID id) {
+			this.label = label;
+			this.id = id;
+		}
+
+		private static Key of(final Dto dto) {
+			final String label = dto instanceof MetaDataItemDto ? ((MetaDataItemDto) dto).getLabel() : null;
+			return new Key(label != null ? label : "", dto.getId());
+		}
+	}
+
+	private static final Comparator<Key> ORDER = Comparator.<Key, String> comparing(k -> k.label)
+			.thenComparing(k -> k.id.getId());
+
+	private static final class Index {
+		// modification date of the Dao, that is reflected by the index
+		private volatile long lastModified;
+		private final Map<EID, Key> keys = new ConcurrentHashMap<>();
+		private final NavigableSet<Key> sorted = new ConcurrentSkipListSet<>(ORDER);
+
+		private Index(final long lastModified) {
+			this.lastModified = lastModified;
+		}
+
+		private synchronized void put(final Key key) {
+			final Key previous = keys.put(key.id, key);
+			if (previous != null) {
+				sorted.remove(previous);
+			}
+			sorted.add(key);
+		}
+
+		private synchronized void remove(final EID id) {
+			final Key previous = keys.remove(id);
+			if (previous != null) {
+				sorted.remove(previous);
+			}
+		}
+	}
+
+	private final Map<String, Index> indexes = new ConcurrentHashMap<>();
+	private final Logger logger = LoggerFactory.getLogger(KeysetPager.class);
+
+	/**
+	 * Returns the IDs of the items on the page that follows the cursor of the filter
+	 *
+	 * @param dao Dao
+	 * @param filter filter with a cursor, an empty cursor addresses the first page
+	 * @return page
+	 * @throws IllegalArgumentException if the cursor is invalid
+	 */
+	CursorPage page(final Dao<? extends Dto> dao, final SimpleFilter filter) throws StorageException {
+		final NavigableSet<Key> sorted = indexOf(dao).sorted;
+		final Iterator<Key> it = (filter.cursor().isEmpty() ? sorted
+				: sorted.tailSet(decodeCursor(filter.cursor()), false)).iterator();
+		final List<EID> ids = new ArrayList<>(filter.limit());
+		Key last = null;
+		while (ids.size() < filter.limit() && it.hasNext()) {
+			last = it.next();
+			ids.add(last.id);
+		}
+		return new CursorPage(ids, last != null && it.hasNext() ? encodeCursor(last) : null);
+	}
+
+	/**
+	 * Adds or replaces an item, that has been stored in the Dao, in the index
+	 *
+	 * @param dao Dao, that has been modified
+	 * @param dto stored item
+	 */
+	void put(final Dao<? extends Dto> dao, final Dto dto) {
+		final Index index = indexes.get(dao.getId());
+		if (index != null) {
+			index.put(Key.of(dto));
+			index.lastModified = dao.getLastModificationDate();
+		}
+	}
+
+	/**
+	 * Removes an item, that has been deleted from the Dao, from the index
+	 *
+	 * @param dao Dao, that has been modified
+	 * @param id ID of the deleted item
+	 */
+	void remove(final Dao<? extends Dto> dao, final EID id) {
+		final Index index = indexes.get(dao.getId());
+		if (index != null) {
+			index.remove(id);
+			index.lastModified = dao.getLastModificationDate();
+		}
+	}
+
+	private Index indexOf(final Dao<? extends Dto> dao) throws StorageException {
+		final long lastModified = dao.getLastModificationDate();
+		final Index index = indexes.get(dao.getId());
+		if (index != null && index.lastModified == lastModified) {
+			return index;
+		}
+		synchronized (this) {
+			final Index current = indexes.get(dao.getId());
+			if (current != null && current.lastModified == lastModified) {
+				return current;
+			}
+			// Modified without notification, reload the labels
+			final long start = System.currentTimeMillis();
+			final Index loaded = new Index(lastModified);
+			for (int offset = 0;; offset += LOAD_PAGE_SIZE) {
+				final Collection<? extends Dto> page = dao.getAll(
+						new SimpleFilter(offset, LOAD_PAGE_SIZE, "label")).asCollection();
+				for (final Dto dto : page) {
+					loaded.put(Key.of(dto));
+				}
+				if (page.size() < LOAD_PAGE_SIZE) {
+					break;
+				}
+			}
+			indexes.put(dao.getId(), loaded);
+			logger.debug("Loaded {} keys of {} in {} ms", loaded.keys.size(), dao.getId(),
+					System.currentTimeMillis() - start);
+			return loaded;
+		}
+	}
+
+	private static String encodeCursor(final Key key) {
+		final String cursor = key.id.getId() + CURSOR_SEPARATOR + key.label;
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static Key decodeCursor(final String cursor) {
+		final String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+		final int separator = decoded.indexOf(CURSOR_SEPARATOR);
+		if (separator == -1) {
+			throw new IllegalArgumentException("Invalid cursor");
+		}
+		return new Key(decoded.substring(separator + 1), EidConverter.toEid(decoded.substring(0, separator)));
+	}
+}
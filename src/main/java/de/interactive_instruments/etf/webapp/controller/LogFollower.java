@@ -0,0 +1,200 @@
+/**
+ * Copyright 2010-2017 interactive instruments GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.interactive_instruments.etf.webapp.controller;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Streams appended log lines to asynchronous requests.
+ *
+ * One polling thread serves all followed logs, so a follower does not hold a
+ * request thread. Writes use non-blocking servlet output: a follower only writes
+ * while its stream is ready and is resumed by the container when the client
+ * catches up, so a slow client never blocks the polling thread or the other
+ * followers. A follower is completed when its source becomes inactive, the
+ * request times out, the container reports an error, writing to the client fails
+ * or the client has not accepted any data for {@link #STALL_TIMEOUT} ms.
+ *
+ * @author J. Herrmann ( herrmann <aT) interactive-instruments (doT> de )
+ */
+final class LogFollower {
+
+	private static final long POLL_INTERVAL = 1000;
+	private static final long STALL_TIMEOUT = 60000;
+	private static final int CHUNK_SIZE = 65536;
+
+	private final class Follower implements AsyncListener, WriteListener {
+		private final AsyncContext context;
+		private final ServletOutputStream out;
+		private final LogTailer tailer;
+		private final BooleanSupplier active;
+		private long position;
+		private boolean unflushed;
+		private volatile long blockedSince;
+
+		private Follower(final AsyncContext context, final LogTailer tailer, final long position,
+				final BooleanSupplier active) throws IOException {
+			this.context = context;
+			this.out = context.getResponse().getOutputStream();
+			this.tailer = tailer;
+			this.position = position;
+			this.active = active;
+		}
+
+		/**
+		 * Writes appended bytes as long as the stream accepts them without blocking.
+		 * Called by the poller and by the container if the stream becomes ready again.
+		 */
+		private synchronized void write() {
+			try {
+				while (out.isReady()) {
+					blockedSince = 0;
+					// Checked before reading, so that the last read follows the end of the source
+					final boolean inactive = !active.getAsBoolean();
+					final byte[] chunk = tailer.read(position, CHUNK_SIZE);
+					if (chunk.length > 0) {
+						out.write(chunk);
+						position += chunk.length;
+						unflushed = true;
+					} else if (unflushed) {
+						out.flush();
+						unflushed = false;
+					} else {
+						if (inactive) {
+							complete();
+						}
+						return;
+					}
+				}
+				// The container calls onWritePossible() when the client accepts data again
+				if (blockedSince == 0) {
+					blockedSince = System.currentTimeMillis();
+				}
+			} catch (final IOException | IllegalStateException e) {
+				logger.debug("Stopped following a log: {}", e.getMessage());
+				complete();
+			}
+		}
+
+		private boolean stalled(final long now) {
+			final long since = blockedSince;
+			return since != 0 && now - since > STALL_TIMEOUT;
+		}
+
+		private void complete() {
+			followers.remove(this);
+			try {
+				context.complete();
+			} catch (final IllegalStateException ignore) {
+				// already completed by the container
+			}
+		}
+
+		@Override
+		public void onWritePossible() {
+			write();
+		}
+
+		@Override
+		public void onError(final Throwable t) {
+			logger.debug("Stopped following a log: {}", t.getMessage());
+			complete();
+		}
+
+		@Override
+		public void onComplete(final AsyncEvent event) {
+			followers.remove(this);
+		}
+
+		@Override
+		public void onTimeout(final AsyncEvent event) {
+			complete();
+		}
+
+		@Override
+		public void onError(final AsyncEvent event) {
+			complete();
+		}
+
+		@Override
+		public void onStartAsync(final AsyncEvent event) {}
+	}
+
+	private final Map<Follower, Boolean> followers = new ConcurrentHashMap<>();
+	private final ScheduledExecutorService poller;
+	private final Logger logger = LoggerFactory.getLogger(LogFollower.class);
+
+	LogFollower() {
+		poller = Executors.newSingleThreadScheduledExecutor(r -> {
+			final Thread thread = new Thread(r, "log-follower");
+			thread.setDaemon(true);
+			return thread;
+		});
+		poller.scheduleWithFixedDelay(this::pollAll, POLL_INTERVAL, POLL_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Follows a log file in an asynchronous request
+	 *
+	 * @param context started asynchronous context, its timeout limits the follow time
+	 * @param tailer log file
+	 * @param offset start position
+	 * @param active returns false if no more data will be appended
+	 * @throws IOException if the output stream of the response could not be obtained
+	 */
+	void follow(final AsyncContext context, final LogTailer tailer, final long offset, final BooleanSupplier active)
+			throws IOException {
+		final Follower follower = new Follower(context, tailer, offset, active);
+		context.addListener(follower);
+		followers.put(follower, Boolean.TRUE);
+		// The container calls onWritePossible() for the already available bytes
+		follower.out.setWriteListener(follower);
+	}
+
+	private void pollAll() {
+		final long now = System.currentTimeMillis();
+		for (final Follower follower : followers.keySet()) {
+			if (follower.stalled(now)) {
+				logger.debug("Dropping a log follower that did not accept data for {} ms", STALL_TIMEOUT);
+				follower.complete();
+			} else {
+				follower.write();
+			}
+		}
+	}
+
+	void release() {
+		poller.shutdownNow();
+		for (final Follower follower : followers.keySet()) {
+			follower.complete();
+		}
+	}
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright 2010-2017 interactive instruments GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.interactive_instruments.etf.webapp.controller;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads the tail of a log file and the lines appended since a position.
+ *
+ * All positions are byte offsets, so a client can resume exactly where
+ * the last response ended.
+ *
+ * @author J. Herrmann ( herrmann <aT) interactive-instruments (doT> de )
+ */
+final class LogTailer {
+
+	private static final int BLOCK_SIZE = 8192;
+
+	private final File file;
+
+	LogTailer(final File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Returns the byte offset of the beginning of the last n lines
+	 *
+	 * @param lines number of lines
+	 * @return byte offset
+	 * @throws IOException if the file could not be read
+	 */
+	long offsetOfLastLines(final int lines) throws IOException {
+		if (lines <= 0) {
+			return file.length();
+		}
+		try (final RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			final long length = raf.length();
+			final byte[] block = new byte[BLOCK_SIZE];
+			int newLines = 0;
+			long blockEnd = length;
+			// A terminating line break does not start a new line
+			boolean skipLast = true;
+			while (blockEnd > 0) {
+				final long blockStart = Math.max(0, blockEnd - BLOCK_SIZE);
+				final int blockLength = (int) (blockEnd - blockStart);
+				raf.seek(blockStart);
+				raf.readFully(block, 0, blockLength);
+				for (int i = blockLength - 1; i >= 0; i--) {
+					if (block[i] == '\n') {
+						if (skipLast && blockStart + i == length - 1) {
+							continue;
+						}
+						if (++newLines == lines) {
+							return blockStart + i + 1;
+						}
+					}
+				}
+				skipLast = false;
+				blockEnd = blockStart;
+			}
+			return 0;
+		}
+	}
+
+	/**
+	 * Reads the bytes from the offset up to the current end of the file
+	 *
+	 * @param offset start position
+	 * @param maxLength maximum number of bytes to read
+	 * @return the bytes read, empty if no bytes have been appended since the offset
+	 * @throws IOException if the file could not be read
+	 */
+	byte[] read(final long offset, final int maxLength) throws IOException {
+		try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			final long available = channel.size() - offset;
+			if (available <= 0) {
+				return new byte[0];
+			}
+			final ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(available, maxLength));
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer, offset + buffer.position()) <= 0) {
+					break;
+				}
+			}
+			return Arrays.copyOf(buffer.array(), buffer.position());
+		}
+	}
+
+	/**
+	 * Copies all bytes from the offset to the current end of the file
+	 *
+	 * @param offset start position
+	 * @param out output stream
+	 * @return the new position
+	 * @throws IOException if the file could not be read or the stream could not be written
+	 */
+	long copyFrom(final long offset, final OutputStream out) throws IOException {
+		try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			final long end = channel.size();
+			if (end < offset) {
+				// truncated, nothing to send
+				return end;
+			}
+			final WritableByteChannel target = Channels.newChannel(out);
+			long position = offset;
+			while (position < end) {
+				final long transferred = channel.transferTo(position, end - position, target);
+				if (transferred <= 0) {
+					break;
+				}
+				position += transferred;
+			}
+			out.flush();
+			return position;
+		}
+	}
+}
@@ -66,6 +66,14 @@ public class MetaTypeController {
 	@Autowired
 	private StreamingService streaming;
 
+	@Autowired
+	private StartupOrchestrator startup;
+
+	@Autowired
+	private TestDriverController testDriverController;
+
+	static final String METADATA_CACHE_PHASE = "Metadata cache";
+
 	private final Logger logger = LoggerFactory.getLogger(MetaTypeController.class);
 	private Dao<TestItemTypeDto> testItemTypeDao;
 
@@ -86,9 +94,13 @@ public class MetaTypeController {
 		testItemTypeDao = dataStorageService.getDao(TestItemTypeDto.class);
 		componentDao = dataStorageService.getDao(ComponentDto.class);
 
-		streaming.prepareCache(translationTemplateBundleDao, new SimpleFilter());
-		streaming.prepareCache(testObjectTypeDao, new SimpleFilter());
-		streaming.prepareCache(tagDao, new SimpleFilter());
+		// The test drivers may add further metadata
+		startup.submit(METADATA_CACHE_PHASE, () -> {
+			final StartupSnapshot snapshot = testDriverController.getStartupSnapshot();
+			streaming.prepareCache(translationTemplateBundleDao, new SimpleFilter(), snapshot);
+			streaming.prepareCache(testObjectTypeDao, new SimpleFilter(), snapshot);
+			streaming.prepareCache(tagDao, new SimpleFilter(), snapshot);
+		}, TestDriverController.TEST_DRIVER_PHASE);
 
 		logger.info("Meta Type controller initialized");
 	}
@@ -125,10 +137,11 @@ public class MetaTypeController {
 	public void listTestItemTypesJson(
 			@ApiParam(value = OFFSET_DESCRIPTION, example = "0") @RequestParam(required = false, defaultValue = "0") int offset,
 			@ApiParam(value = LIMIT_DESCRIPTION) @RequestParam(required = false, defaultValue = "0") int limit,
+			@ApiParam(value = CURSOR_DESCRIPTION) @RequestParam(value = "cursor", required = false) String cursor,
 			HttpServletRequest request,
 			HttpServletResponse response)
-			throws StorageException, ConfigurationException, IOException, ObjectWithIdNotFoundException {
-		streaming.asJson2(testItemTypeDao, request, response, new SimpleFilter(offset, limit));
+			throws StorageException, ConfigurationException, IOException, ObjectWithIdNotFoundException, LocalizableApiError {
+		streaming.asJson2(testItemTypeDao, request, response, new SimpleFilter(offset, limit, "*", cursor));
 	}
 
 	@ApiOperation(value = "Get multiple Test Item Types as XML", notes = TEST_ITEM_TYPEL_DESCRIPTION, tags = {
@@ -138,9 +151,10 @@ public class MetaTypeController {
 	public void listTestItemTypesXml(
 			@ApiParam(value = OFFSET_DESCRIPTION) @RequestParam(required = false, defaultValue = "0") int offset,
 			@ApiParam(value = LIMIT_DESCRIPTION) @RequestParam(required = false, defaultValue = "0") int limit,
+			@ApiParam(value = CURSOR_DESCRIPTION) @RequestParam(value = "cursor", required = false) String cursor,
 			HttpServletRequest request,
-			HttpServletResponse response) throws IOException, StorageException, ObjectWithIdNotFoundException {
-		streaming.asXml2(testItemTypeDao, request, response, new SimpleFilter(offset, limit));
+			HttpServletResponse response) throws IOException, StorageException, ObjectWithIdNotFoundException, LocalizableApiError {
+		streaming.asXml2(testItemTypeDao, request, response, new SimpleFilter(offset, limit, "*", cursor));
 	}
 
 	@ApiOperation(value = "Get Test Item Type as XML", notes = TEST_ITEM_TYPEL_DESCRIPTION, tags = {
@@ -191,10 +205,11 @@ public class MetaTypeController {
 	public void listTranslationTemplateBundlesJson(
 			@ApiParam(value = OFFSET_DESCRIPTION) @RequestParam(required = false, defaultValue = "0") int offset,
 			@ApiParam(value = LIMIT_DESCRIPTION) @RequestParam(required = false, defaultValue = "0") int limit,
+			@ApiParam(value = CURSOR_DESCRIPTION) @RequestParam(value = "cursor", required = false) String cursor,
 			HttpServletRequest request,
 			HttpServletResponse response)
-			throws StorageException, ConfigurationException, IOException, ObjectWithIdNotFoundException {
-		streaming.asJson2(translationTemplateBundleDao, request, response, new SimpleFilter(offset, limit));
+			throws StorageException, ConfigurationException, IOException, ObjectWithIdNotFoundException, LocalizableApiError {
+		streaming.asJson2(translationTemplateBundleDao, request, response, new SimpleFilter(offset, limit, "*", cursor));
 	}
 
 	@ApiOperation(value = "Get multiple Translation Template Bundles as XML", notes = TRANSLATION_TEMP_BUNDLE_DESCRIPTION, tags = {
@@ -206,9 +221,10 @@ public class MetaTypeController {
 	public void listTranslationTemplateBundlesXml(
 			@ApiParam(value = OFFSET_DESCRIPTION) @RequestParam(required = false, defaultValue = "0") int offset,
 			@ApiParam(value = LIMIT_DESCRIPTION) @RequestParam(required = false, defaultValue = "0") int limit,
+			@ApiParam(value = CURSOR_DESCRIPTION) @RequestParam(value = "cursor", required = false) String cursor,
 			HttpServletRequest request,
-			HttpServletResponse response) throws IOException, StorageException, ObjectWithIdNotFoundException {
-		streaming.asXml2(translationTemplateBundleDao, request, response, new SimpleFilter(offset, limit));
+			HttpServletResponse response) throws IOException, StorageException, ObjectWithIdNotFoundException, LocalizableApiError {
+		streaming.asXml2(translationTemplateBundleDao, request, response, new SimpleFilter(offset, limit, "*", cursor));
 	}
 
 	@ApiOperation(value = "Get Translation Template Bundle as XML", notes = TRANSLATION_TEMP_BUNDLE_DESCRIPTION, tags = {
@@ -257,10 +273,11 @@ public class MetaTypeController {
 	public void listComponentsJson(
 			@ApiParam(value = OFFSET_DESCRIPTION) @RequestParam(required = false, defaultValue = "0") int offset,
 			@ApiParam(value = LIMIT_DESCRIPTION) @RequestParam(required = false, defaultValue = "0") int limit,
+			@ApiParam(value = CURSOR_DESCRIPTION) @RequestParam(value = "cursor", required = false) String cursor,
 			HttpServletRequest request,
 			HttpServletResponse response)
-			throws StorageException, ConfigurationException, IOException, ObjectWithIdNotFoundException {
-		streaming.asJson2(componentDao, request, response, new SimpleFilter(offset, limit));
+			throws StorageException, ConfigurationException, IOException, ObjectWithIdNotFoundException, LocalizableApiError {
+		streaming.asJson2(componentDao, request, response, new SimpleFilter(offset, limit, "*", cursor));
 	}
 
 	@ApiOperation(value = "Get multiple Framework Components as XML", notes = COMPONENT_DESCRIPTION, tags = {
@@ -272,9 +289,10 @@ public class MetaTypeController {
 	public void listComponentsXml(
 			@ApiParam(value = OFFSET_DESCRIPTION) @RequestParam(required = false, defaultValue = "0") int offset,
 			@ApiParam(value = LIMIT_DESCRIPTION) @RequestParam(required = false, defaultValue = "0") int limit,
+			@ApiParam(value = CURSOR_DESCRIPTION) @RequestParam(value = "cursor", required = false) String cursor,
 			HttpServletRequest request,
-			HttpServletResponse response) throws IOException, StorageException, ObjectWithIdNotFoundException {
-		streaming.asXml2(componentDao, request, response, new SimpleFilter(offset, limit));
+			HttpServletResponse response) throws IOException, StorageException, ObjectWithIdNotFoundException, LocalizableApiError {
+		streaming.asXml2(componentDao, request, response, new SimpleFilter(offset, limit, "*", cursor));
 	}
 
 	@ApiOperation(value = "Get Framework Component as XML", notes = COMPONENT_DESCRIPTION, tags = {
@@ -322,10 +340,11 @@ public class MetaTypeController {
 	public void listTagsJson(
 			@ApiParam(value = OFFSET_DESCRIPTION) @RequestParam(required = false, defaultValue = "0") int offset,
 			@ApiParam(value = LIMIT_DESCRIPTION) @RequestParam(required = false, defaultValue = "0") int limit,
+			@ApiParam(value = CURSOR_DESCRIPTION) @RequestParam(value = "cursor", required = false) String cursor,
 			HttpServletRequest request,
 			HttpServletResponse response)
-			throws StorageException, ConfigurationException, IOException, ObjectWithIdNotFoundException {
-		streaming.asJson2(tagDao, request, response, new SimpleFilter(offset, limit));
+			throws StorageException, ConfigurationException, IOException, ObjectWithIdNotFoundException, LocalizableApiError {
+		streaming.asJson2(tagDao, request, response, new SimpleFilter(offset, limit, "*", cursor));
 	}
 
 	@ApiOperation(value = "Get multiple Tags as XML", notes = TAG_DESCRIPTION, tags = {
@@ -337,9 +356,10 @@ public class MetaTypeController {
 	public void listTagsXml(
 			@ApiParam(value = OFFSET_DESCRIPTION) @RequestParam(required = false, defaultValue = "0") int offset,
 			@ApiParam(value = LIMIT_DESCRIPTION) @RequestParam(required = false, defaultValue = "0") int limit,
+			@ApiParam(value = CURSOR_DESCRIPTION) @RequestParam(value = "cursor", required = false) String cursor,
 			HttpServletRequest request,
-			HttpServletResponse response) throws IOException, StorageException, ObjectWithIdNotFoundException {
-		streaming.asXml2(tagDao, request, response, new SimpleFilter(offset, limit));
+			HttpServletResponse response) throws IOException, StorageException, ObjectWithIdNotFoundException, LocalizableApiError {
+		streaming.asXml2(tagDao, request, response, new SimpleFilter(offset, limit, "*", cursor));
 	}
 
 	@ApiOperation(value = "Get Tag as XML", notes = TAG_DESCRIPTION, tags = {SERVICE_CAP_TAG_NAME}, produces = "text/xml")
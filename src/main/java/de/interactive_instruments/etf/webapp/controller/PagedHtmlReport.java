@@ -0,0 +1,225 @@
+/**
+ * Copyright 2010-2017 interactive instruments GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.interactive_instruments.etf.webapp.controller;
+
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringEscapeUtils;
+import org.springframework.context.MessageSource;
+
+import de.interactive_instruments.etf.dal.dto.Dto;
+import de.interactive_instruments.etf.dal.dto.test.*;
+import de.interactive_instruments.etf.dal.dto.translation.TranslationTemplateBundleDto;
+import de.interactive_instruments.etf.dal.dto.translation.TranslationTemplateDto;
+
+/**
+ * Writes a Test Task Result as a lightweight HTML shell with fragments
+ * for Test Module and Test Case results that are loaded by the browser
+ * when the user expands an entry.
+ *
+ * The results are read with the {@link ResultFragmentReader}. Labels are taken from the
+ * Executable Test Suite, messages are translated with its translation templates and the
+ * texts of the report are resolved with the message source in the language of the user.
+ *
+ * Relative fragment URLs are used, which are resolved against the URL of the shell
+ * ( TestTaskResults/{id}/report.html ).
+ *
+ * @author J. Herrmann ( herrmann <aT) interactive-instruments (doT> de )
+ */
+final class PagedHtmlReport {
+
+	static final int DEFAULT_PAGE_SIZE = 100;
+
+	private static final String SCRIPT = "<script>"
+			+ "function etfLoad(e,u){var x=new XMLHttpRequest();x.open('GET',u);"
+			+ "x.onload=function(){e.outerHTML=x.responseText;};x.send();}"
+			+ "document.addEventListener('toggle',function(ev){var d=ev.target;"
+			+ "if(d.open&&d.getAttribute('data-fragment')&&!d.getAttribute('data-loaded')){"
+			+ "d.setAttribute('data-loaded','true');etfLoad(d.querySelector('.fragment'),d.getAttribute('data-fragment'));}},true);"
+			+ "document.addEventListener('click',function(ev){var m=ev.target;"
+			+ "if(m.className==='more'){etfLoad(m,m.getAttribute('data-fragment'));}});"
+			+ "</script>";
+
+	private static final String STYLE = "<style>"
+			+ "body{font-family:sans-serif}details{margin-left:1em}summary{cursor:pointer}"
+			+ ".PASSED,.PASSED_MANUAL{color:#2b7a0b}.FAILED,.INTERNAL_ERROR{color:#b00020}"
+			+ ".WARNING,.MANUAL,.INFO{color:#b36b00}.SKIPPED,.NOT_APPLICABLE,.UNDEFINED{color:#666}"
+			+ ".more{cursor:pointer;text-decoration:underline;margin-left:1em}"
+			+ ".message{white-space:pre-wrap}"
+			+ "</style>";
+
+	/**
+	 * Labels of the items of an Executable Test Suite and its translation templates
+	 */
+	static final class EtsText {
+		static final EtsText NONE = new EtsText(Collections.emptyMap(), null);
+
+		private final Map<String, String> labels;
+		private final TranslationTemplateBundleDto bundle;
+
+		private EtsText(final Map<String, String> labels, final TranslationTemplateBundleDto bundle) {
+			this.labels = labels;
+			this.bundle = bundle;
+		}
+
+		private static void put(final Map<String, String> labels, final Dto item, final String label) {
+			if (item.getId() != null && label != null) {
+				labels.put(item.getId().getId(), label);
+			}
+		}
+
+		static EtsText of(final ExecutableTestSuiteDto ets) {
+			final Map<String, String> labels = new HashMap<>();
+			put(labels, ets, ets.getLabel());
+			for (final TestModuleDto module : nullSafe(ets.getTestModules())) {
+				put(labels, module, module.getLabel());
+				for (final TestCaseDto testCase : nullSafe(module.getTestCases())) {
+					put(labels, testCase, testCase.getLabel());
+					for (final TestStepDto testStep : nullSafe(testCase.getTestSteps())) {
+						put(labels, testStep, testStep.getLabel());
+						for (final TestAssertionDto assertion : nullSafe(testStep.getTestAssertions())) {
+							put(labels, assertion, assertion.getLabel());
+						}
+					}
+				}
+			}
+			return new EtsText(labels, ets.getTranslationTemplateBundle());
+		}
+
+		private TranslationTemplateDto template(final String name, final String language) {
+			if (bundle == null || name == null) {
+				return null;
+			}
+			final TranslationTemplateDto template = bundle.getTranslationTemplate(name, language);
+			return template != null ? template : bundle.getTranslationTemplate(name, EtsCatalogue.DEFAULT_LANGUAGE);
+		}
+	}
+
+	private final MessageSource messages;
+	private final Locale locale;
+	private final EtsText etsText;
+
+	/**
+	 * @param messages message source for the texts of the report
+	 * @param locale language of the user
+	 * @param etsText labels and translation templates of the Executable Test Suite
+	 */
+	PagedHtmlReport(final MessageSource messages, final Locale locale, final EtsText etsText) {
+		this.messages = messages;
+		this.locale = locale;
+		this.etsText = etsText;
+	}
+
+	private static String esc(final String str) {
+		return str != null ? StringEscapeUtils.escapeHtml4(str) : "";
+	}
+
+	private static <T> List<T> nullSafe(final List<T> list) {
+		return list != null ? list : Collections.emptyList();
+	}
+
+	private String text(final String key, final Object... args) {
+		return messages.getMessage(key, args, locale);
+	}
+
+	private String labelOf(final ResultFragmentReader.Item item) {
+		final String label = item.getRef() != null ? etsText.labels.get(item.getRef()) : null;
+		return label != null ? label : item.getId();
+	}
+
+	private void status(final PrintWriter out, final String status) {
+		out.append("<span class=\"").append(esc(status)).append("\">")
+				.append(esc(messages.getMessage("l.result.status." + status, null, status, locale)))
+				.append("</span> ");
+	}
+
+	private String translate(final ResultFragmentReader.Message message) {
+		final TranslationTemplateDto template = etsText.template(message.getRef(), locale.getLanguage());
+		if (template == null || template.getStrWithTokens() == null) {
+			final StringBuilder untranslated = new StringBuilder(String.valueOf(message.getRef()));
+			for (final Map.Entry<String, String> argument : message.getArguments().entrySet()) {
+				untranslated.append(' ').append(argument.getKey()).append('=').append(argument.getValue());
+			}
+			return untranslated.toString();
+		}
+		String translated = template.getStrWithTokens();
+		for (final Map.Entry<String, String> argument : message.getArguments().entrySet()) {
+			if (argument.getKey() != null && argument.getValue() != null) {
+				translated = translated.replace("{" + argument.getKey() + "}", argument.getValue());
+			}
+		}
+		return translated;
+	}
+
+	private void collapsed(final PrintWriter out, final String fragment, final ResultFragmentReader.Item item,
+			final String suffix) {
+		out.append("<details data-fragment=\"").append(esc(fragment)).append("\"><summary>");
+		status(out, item.getStatus());
+		out.append(esc(labelOf(item))).append(suffix).append("</summary><div class=\"fragment\">")
+				.append(esc(text("l.report.paged.loading"))).append("</div></details>");
+	}
+
+	void writeShell(final ResultFragmentReader.Overview overview, final PrintWriter out) {
+		final String title = esc(labelOf(overview));
+		out.append("<!DOCTYPE html><html lang=\"").append(esc(locale.getLanguage()))
+				.append("\"><head><meta charset=\"UTF-8\"><title>").append(title).append("</title>")
+				.append(STYLE).append("</head><body>");
+		out.append("<h1>").append(title).append("</h1><p>");
+		status(out, overview.getStatus());
+		out.append("</p>");
+		for (final ResultFragmentReader.TestModule module : overview.getTestModules()) {
+			collapsed(out, "TestModuleResults/" + module.getId() + ".html", module,
+					" (" + esc(text("l.report.paged.testCases", module.getTestCaseCount())) + ")");
+		}
+		out.append(SCRIPT).append("</body></html>");
+	}
+
+	void writeTestModule(final String moduleId, final ResultFragmentReader.TestCasePage page, final int offset,
+			final int limit, final PrintWriter out) {
+		for (final ResultFragmentReader.Item testCase : page.getTestCases()) {
+			collapsed(out, "TestCaseResults/" + testCase.getId() + ".html", testCase, "");
+		}
+		final int end = offset + page.getTestCases().size();
+		if (end < page.getTotal()) {
+			out.append("<div class=\"more\" data-fragment=\"TestModuleResults/").append(esc(moduleId))
+					.append(".html?offset=").append(String.valueOf(end)).append("&amp;limit=").append(String.valueOf(limit))
+					.append("\">").append(esc(text("l.report.paged.more", page.getTotal() - end))).append("</div>");
+		}
+	}
+
+	void writeTestCase(final List<ResultFragmentReader.TestStep> testSteps, final PrintWriter out) {
+		for (final ResultFragmentReader.TestStep testStep : testSteps) {
+			out.append("<details open><summary>");
+			status(out, testStep.getStatus());
+			out.append(esc(labelOf(testStep))).append("</summary><ul>");
+			for (final ResultFragmentReader.TestAssertion assertion : testStep.getTestAssertions()) {
+				out.append("<li>");
+				status(out, assertion.getStatus());
+				out.append(esc(labelOf(assertion)));
+				for (final ResultFragmentReader.Message message : assertion.getMessages()) {
+					out.append("<div class=\"message\">").append(esc(translate(message))).append("</div>");
+				}
+				out.append("</li>");
+			}
+			out.append("</ul></details>");
+		}
+	}
+}
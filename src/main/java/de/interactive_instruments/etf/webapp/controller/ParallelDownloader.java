@@ -0,0 +1,185 @@
+/**
+ * Copyright 2010-2017 interactive instruments GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.interactive_instruments.etf.webapp.controller;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.interactive_instruments.Credentials;
+import de.interactive_instruments.IFile;
+import de.interactive_instruments.UriUtils;
+
+/**
+ * Downloads multiple URIs concurrently.
+ *
+ * The number of parallel connections to one host is limited process-wide: the URIs
+ * are grouped by host and each host is served by at most the configured number of
+ * workers, which download the URIs of the host one after another. A worker holds a
+ * permit of the host while downloading, the permits are shared by all downloads, so
+ * concurrent downloads do not multiply the connections to one host. The connections are
+ * reused by the keep-alive cache of the JDK, as long as a worker does not exceed
+ * the number of persistent connections per destination (http.maxConnections,
+ * default 5). Failed downloads are retried with an exponential backoff,
+ * except if the resource does not exist or the host is unknown.
+ *
+ * @author J. Herrmann ( herrmann <aT) interactive-instruments (doT> de )
+ */
+final class ParallelDownloader {
+
+	private static final int MAX_THREADS = 16;
+	private static final long INITIAL_BACKOFF = 1000;
+	// Permits per host, shared by all downloads of the process
+	private static final ConcurrentMap<String, Semaphore> HOST_PERMITS = new ConcurrentHashMap<>();
+
+	/**
+	 * Callback that is invoked after each completed download
+	 */
+	@FunctionalInterface
+	interface Progress {
+		/**
+		 * @param uri downloaded URI
+		 * @param completed number of completed downloads
+		 * @param total number of all downloads
+		 */
+		void downloaded(final URI uri, final int completed, final int total);
+	}
+
+	private final int maxConnectionsPerHost;
+	private final int maxRetries;
+	private final ThreadPoolExecutor executor;
+	private final Logger logger = LoggerFactory.getLogger(ParallelDownloader.class);
+
+	/**
+	 * @param maxConnectionsPerHost maximum number of parallel downloads from one host
+	 * @param maxRetries number of retries of a failed download
+	 */
+	ParallelDownloader(final int maxConnectionsPerHost, final int maxRetries) {
+		this.maxConnectionsPerHost = Math.max(1, maxConnectionsPerHost);
+		this.maxRetries = Math.max(0, maxRetries);
+		final AtomicInteger threadCounter = new AtomicInteger();
+		// Workers that exceed the threads wait in the unbounded queue
+		this.executor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS,
+				60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+				r -> {
+					final Thread t = new Thread(r, "download-" + threadCounter.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				});
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+
+	void release() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Downloads all URIs. Each URI is saved in its own subdirectory of the
+	 * target directory, so that equal file names do not collide.
+	 *
+	 * @param uris URIs to download
+	 * @param targetDir directory for the downloaded files
+	 * @param credentials credentials or null
+	 * @param progress progress callback or null
+	 * @return downloaded files in the order of the URIs
+	 * @throws IOException if a download finally failed, all other downloads are cancelled
+	 */
+	List<IFile> download(final List<URI> uris, final IFile targetDir, final Credentials credentials,
+			final Progress progress) throws IOException {
+		final IFile[] files = new IFile[uris.size()];
+		// Group by host
+		final Map<String, Queue<Integer>> byHost = new LinkedHashMap<>();
+		for (int i = 0; i < uris.size(); i++) {
+			byHost.computeIfAbsent(host(uris.get(i)), h -> new ConcurrentLinkedQueue<>()).add(i);
+		}
+		final AtomicInteger completed = new AtomicInteger();
+		final List<Future<?>> workers = new ArrayList<>();
+		try {
+			for (final Map.Entry<String, Queue<Integer>> hostQueue : byHost.entrySet()) {
+				final Queue<Integer> queue = hostQueue.getValue();
+				final int workersForHost = Math.min(queue.size(), maxConnectionsPerHost);
+				final Semaphore permits = HOST_PERMITS.computeIfAbsent(hostQueue.getKey(),
+						h -> new Semaphore(maxConnectionsPerHost, true));
+				for (int w = 0; w < workersForHost; w++) {
+					workers.add(executor.submit((Callable<Void>) () -> {
+						Integer index;
+						while ((index = queue.poll()) != null && !Thread.currentThread().isInterrupted()) {
+							final IFile dir = targetDir.secureExpandPathDown(String.valueOf(index));
+							dir.ensureDir();
+							permits.acquire();
+							try {
+								files[index] = downloadWithRetries(uris.get(index), dir, credentials);
+							} finally {
+								permits.release();
+							}
+							final int done = completed.incrementAndGet();
+							if (progress != null) {
+								progress.downloaded(uris.get(index), done, files.length);
+							}
+						}
+						return null;
+					}));
+				}
+			}
+			for (final Future<?> worker : workers) {
+				worker.get();
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while downloading", e);
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		} finally {
+			for (final Future<?> worker : workers) {
+				worker.cancel(true);
+			}
+		}
+		return Arrays.asList(files);
+	}
+
+	private static String host(final URI uri) {
+		return String.valueOf(uri.getHost()).toLowerCase(Locale.ENGLISH);
+	}
+
+	private IFile downloadWithRetries(final URI uri, final IFile dir, final Credentials credentials)
+			throws IOException, InterruptedException {
+		for (int attempt = 0;; attempt++) {
+			try {
+				return UriUtils.downloadTo(uri, dir, credentials);
+			} catch (final FileNotFoundException | UnknownHostException e) {
+				// Not recoverable
+				throw e;
+			} catch (final IOException e) {
+				if (attempt >= maxRetries) {
+					throw e;
+				}
+				final long backoff = INITIAL_BACKOFF << attempt;
+				logger.info("Download of {} failed ({}), retrying in {} ms", uri, e.getMessage(), backoff);
+				Thread.sleep(backoff);
+			}
+		}
+	}
+}
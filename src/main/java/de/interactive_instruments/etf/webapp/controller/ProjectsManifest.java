@@ -0,0 +1,235 @@
+/**
+ * Copyright 2010-2017 interactive instruments GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.interactive_instruments.etf.webapp.controller;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.*;
+
+import javax.xml.bind.DatatypeConverter;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+
+/**
+ * Size, modification time and hash of every file in the projects directory.
+ *
+ * A file is only hashed again if its size or modification time changed since the
+ * previous manifest was created.
+ *
+ * @author J. Herrmann ( herrmann <aT) interactive-instruments (doT> de )
+ */
+final class ProjectsManifest {
+
+	private static final char SEPARATOR = ':';
+
+	private static final class Entry {
+		private final long size;
+		private final long lastModified;
+		private final String hash;
+
+		private Entry(final long size, final long lastModified, final String hash) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.hash = hash;
+		}
+
+		@Override
+		public String toString() {
+			return String.valueOf(size) + SEPARATOR + lastModified + SEPARATOR + hash;
+		}
+
+		private static Entry parse(final String value) {
+			final String[] parts = value.split(String.valueOf(SEPARATOR), 3);
+			if (parts.length != 3) {
+				return null;
+			}
+			try {
+				return new Entry(Long.parseLong(parts[0]), Long.parseLong(parts[1]), parts[2]);
+			} catch (final NumberFormatException e) {
+				return null;
+			}
+		}
+	}
+
+	private final Path root;
+	// relative path -> entry
+	private final SortedMap<String, Entry> entries;
+
+	private ProjectsManifest(final Path root, final SortedMap<String, Entry> entries) {
+		this.root = root;
+		this.entries = entries;
+	}
+
+	/**
+	 * Scans the projects directory
+	 *
+	 * @param root projects directory
+	 * @param previous previous manifest, whose hashes are reused for unmodified files, or null
+	 * @return manifest
+	 * @throws IOException if the directory could not be read
+	 */
+	static ProjectsManifest scan(final Path root, final ProjectsManifest previous) throws IOException {
+		final SortedMap<String, Entry> entries = new TreeMap<>();
+		if (Files.isDirectory(root)) {
+			Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+					new SimpleFileVisitor<Path>() {
+						@Override
+						public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) {
+							return !dir.equals(root) && dir.getFileName().toString().startsWith(".")
+									? FileVisitResult.SKIP_SUBTREE
+									: FileVisitResult.CONTINUE;
+						}
+
+						@Override
+						public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs)
+								throws IOException {
+							final String relPath = root.relativize(file).toString().replace('\\', '/');
+							final long lastModified = attrs.lastModifiedTime().toMillis();
+							final Entry known = previous != null ? previous.entries.get(relPath) : null;
+							if (known != null && known.size == attrs.size() && known.lastModified == lastModified) {
+								entries.put(relPath, known);
+							} else {
+								entries.put(relPath, new Entry(attrs.size(), lastModified, hash(file)));
+							}
+							return FileVisitResult.CONTINUE;
+						}
+
+						@Override
+						public FileVisitResult visitFileFailed(final Path file, final IOException exc) {
+							// removed in the meantime
+							return FileVisitResult.CONTINUE;
+						}
+					});
+		}
+		return new ProjectsManifest(root, entries);
+	}
+
+	private static String hash(final Path file) throws IOException {
+		final MessageDigest digest = FileStats.newDigest();
+		try (final InputStream in = new DigestInputStream(Files.newInputStream(file), digest)) {
+			IOUtils.copy(in, NullOutputStream.NULL_OUTPUT_STREAM);
+		}
+		return DatatypeConverter.printHexBinary(digest.digest());
+	}
+
+	/**
+	 * Reads a stored manifest
+	 *
+	 * @param root projects directory
+	 * @param file manifest file
+	 * @return manifest or null if the file does not exist
+	 * @throws IOException if the file could not be read
+	 */
+	static ProjectsManifest load(final Path root, final File file) throws IOException {
+		if (!file.exists()) {
+			return null;
+		}
+		final Properties properties = new Properties();
+		try (final InputStream in = new FileInputStream(file)) {
+			properties.load(in);
+		}
+		final SortedMap<String, Entry> entries = new TreeMap<>();
+		for (final String path : properties.stringPropertyNames()) {
+			final Entry entry = Entry.parse(properties.getProperty(path));
+			if (entry != null) {
+				entries.put(path, entry);
+			}
+		}
+		return new ProjectsManifest(root, entries);
+	}
+
+	/**
+	 * Writes the manifest atomically
+	 *
+	 * @param file manifest file
+	 * @throws IOException if the file could not be written
+	 */
+	void store(final File file) throws IOException {
+		final Properties properties = new Properties();
+		for (final Map.Entry<String, Entry> entry : entries.entrySet()) {
+			properties.setProperty(entry.getKey(), entry.getValue().toString());
+		}
+		final File tmp = new File(file.getPath() + ".tmp");
+		try (final OutputStream out = new FileOutputStream(tmp)) {
+			properties.store(out, "ETF projects manifest");
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Returns the files that have been added, changed or removed compared to a previous
+	 * manifest
+	 *
+	 * @param previous previous manifest or null
+	 * @return absolute paths of the modified files
+	 */
+	Set<Path> modifiedSince(final ProjectsManifest previous) {
+		final Set<Path> modified = new TreeSet<>();
+		for (final Map.Entry<String, Entry> entry : entries.entrySet()) {
+			final Entry known = previous != null ? previous.entries.get(entry.getKey()) : null;
+			if (known == null || !known.hash.equals(entry.getValue().hash)) {
+				modified.add(root.resolve(entry.getKey()));
+			}
+		}
+		if (previous != null) {
+			for (final String path : previous.entries.keySet()) {
+				if (!entries.containsKey(path)) {
+					modified.add(root.resolve(path));
+				}
+			}
+		}
+		return modified;
+	}
+
+	/**
+	 * Returns the files that have been added compared to a previous manifest
+	 *
+	 * @param previous previous manifest or null
+	 * @return absolute paths of the added files
+	 */
+	Set<Path> addedSince(final ProjectsManifest previous) {
+		final Set<Path> added = new TreeSet<>();
+		for (final String path : entries.keySet()) {
+			if (previous == null || !previous.entries.containsKey(path)) {
+				added.add(root.resolve(path));
+			}
+		}
+		return added;
+	}
+
+	int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return hash over the paths and hashes of all files
+	 */
+	String digest() {
+		final MessageDigest digest = FileStats.newDigest();
+		for (final Map.Entry<String, Entry> entry : entries.entrySet()) {
+			digest.update(entry.getKey().getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+			digest.update(entry.getValue().hash.getBytes(StandardCharsets.US_ASCII));
+			digest.update((byte) '\n');
+		}
+		return DatatypeConverter.printHexBinary(digest.digest());
+	}
+}
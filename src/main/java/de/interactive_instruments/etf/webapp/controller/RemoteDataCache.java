@@ -0,0 +1,279 @@
+/**
+ * Copyright 2010-2017 interactive instruments GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.interactive_instruments.etf.webapp.controller;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.Properties;
+
+import javax.xml.bind.DatatypeConverter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.interactive_instruments.IFile;
+import de.interactive_instruments.SUtils;
+
+/**
+ * HTTP cache for remote test data.
+ *
+ * The validators (ETag and Last-Modified) of a downloaded resource are stored together
+ * with the directory of the prepared files and their {@link FileStats}. The next request
+ * for the same resource is sent as conditional request: if the origin answers with
+ * 304 Not Modified, the prepared files are linked into the directory of the new
+ * Test Object, the item hash is reused and nothing is downloaded or extracted.
+ *
+ * Entries are keyed by the URI, the user name and the file filter, as the filter
+ * determines which files are prepared.
+ *
+ * @author J. Herrmann ( herrmann <aT) interactive-instruments (doT> de )
+ */
+final class RemoteDataCache {
+
+	static final String DIR_NAME = ".remote";
+	private static final int CONNECT_TIMEOUT = 30000;
+	private static final int READ_TIMEOUT = 600000;
+
+	/**
+	 * Response of a conditional request
+	 */
+	final class Response implements Closeable {
+		private final String key;
+		private final HttpURLConnection connection;
+		private final Properties cached;
+
+		private Response(final String key, final HttpURLConnection connection, final Properties cached) {
+			this.key = key;
+			this.connection = connection;
+			this.cached = cached;
+		}
+
+		/**
+		 * @return true if the cached directory can be reused
+		 */
+		boolean isNotModified() throws IOException {
+			return connection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null;
+		}
+
+		/**
+		 * @return directory of the Test Object, which prepared the files, must not be
+		 * used as directory of another Test Object
+		 */
+		IFile getCachedDirectory() {
+			return new IFile(cached.getProperty("dir"));
+		}
+
+		FileStats getCachedStats() {
+			return new FileStats(
+					Long.parseLong(cached.getProperty("files")),
+					Long.parseLong(cached.getProperty("size")),
+					Long.parseLong(cached.getProperty("emptyFiles")),
+					Long.parseLong(cached.getProperty("skippedFiles")),
+					Base64.getDecoder().decode(cached.getProperty("hash")));
+		}
+
+		/**
+		 * Saves the response body
+		 *
+		 * @param dir target directory
+		 * @return saved file
+		 * @throws IOException if the response is not successful or the body could not be saved
+		 */
+		IFile saveTo(final IFile dir) throws IOException {
+			final int code = connection.getResponseCode();
+			if (code != HttpURLConnection.HTTP_OK) {
+				throw new IOException("Unexpected response code " + code + " for " + connection.getURL());
+			}
+			dir.ensureDir();
+			final IFile file = dir.secureExpandPathDown(fileName(connection));
+			try (final InputStream in = connection.getInputStream()) {
+				Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			return file;
+		}
+
+		/**
+		 * Stores the prepared directory and its stats, if the origin provided validators
+		 *
+		 * @param dir directory with the prepared files
+		 * @param stats stats of the prepared files
+		 */
+		void store(final IFile dir, final FileStats stats) {
+			final String etag = connection.getHeaderField("ETag");
+			final String lastModified = connection.getHeaderField("Last-Modified");
+			if (SUtils.isNullOrEmpty(etag) && SUtils.isNullOrEmpty(lastModified)) {
+				return;
+			}
+			final Properties entry = new Properties();
+			if (!SUtils.isNullOrEmpty(etag)) {
+				entry.setProperty("etag", etag);
+			}
+			if (!SUtils.isNullOrEmpty(lastModified)) {
+				entry.setProperty("lastModified", lastModified);
+			}
+			entry.setProperty("uri", connection.getURL().toString());
+			entry.setProperty("dir", dir.getAbsolutePath());
+			entry.setProperty("files", String.valueOf(stats.getFileCount()));
+			entry.setProperty("size", String.valueOf(stats.getSize()));
+			entry.setProperty("emptyFiles", String.valueOf(stats.getEmptyFiles()));
+			entry.setProperty("skippedFiles", String.valueOf(stats.getSkippedFiles()));
+			entry.setProperty("hash", Base64.getEncoder().encodeToString(stats.getHash()));
+			write(entry);
+		}
+
+		/**
+		 * Points the cache entry to the directory of the Test Object, that reused the
+		 * prepared files, so the entry stays valid if the previous Test Object is deleted
+		 *
+		 * @param dir directory with the copy of the prepared files
+		 */
+		void relocate(final IFile dir) {
+			if (cached != null) {
+				cached.setProperty("dir", dir.getAbsolutePath());
+				write(cached);
+			}
+		}
+
+		private void write(final Properties entry) {
+			final File entryFile = entryFile(key);
+			final File tmpFile = new File(entryFile.getPath() + ".tmp");
+			try (final OutputStream out = new FileOutputStream(tmpFile)) {
+				entry.store(out, null);
+			} catch (final IOException e) {
+				logger.warn("Could not cache validators of {}: {}", connection.getURL(), e.getMessage());
+				return;
+			}
+			try {
+				Files.move(tmpFile.toPath(), entryFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} catch (final IOException e) {
+				logger.warn("Could not cache validators of {}: {}", connection.getURL(), e.getMessage());
+			}
+		}
+
+		@Override
+		public void close() {
+			connection.disconnect();
+		}
+	}
+
+	private final IFile cacheDir;
+	private final Logger logger = LoggerFactory.getLogger(RemoteDataCache.class);
+
+	RemoteDataCache(final IFile cacheDir) throws IOException {
+		cacheDir.ensureDir();
+		this.cacheDir = cacheDir;
+	}
+
+	private static String key(final URI uri, final String username, final String filterKey) {
+		final MessageDigest digest = FileStats.newDigest();
+		digest.update(uri.toString().getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) '\n');
+		digest.update(String.valueOf(username).getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) '\n');
+		digest.update(String.valueOf(filterKey).getBytes(StandardCharsets.UTF_8));
+		return DatatypeConverter.printHexBinary(digest.digest()).toLowerCase(Locale.ENGLISH);
+	}
+
+	private File entryFile(final String key) {
+		return cacheDir.secureExpandPathDown(key + ".properties");
+	}
+
+	private Properties load(final String key) {
+		final File entryFile = entryFile(key);
+		if (!entryFile.exists()) {
+			return null;
+		}
+		final Properties entry = new Properties();
+		try (final InputStream in = new FileInputStream(entryFile)) {
+			entry.load(in);
+		} catch (final IOException e) {
+			logger.debug("Ignoring unreadable cache entry {}: {}", entryFile, e.getMessage());
+			return null;
+		}
+		// The prepared files may have been removed in the meantime
+		return new File(entry.getProperty("dir", "")).isDirectory() ? entry : null;
+	}
+
+	private static String fileName(final URLConnection connection) {
+		final String disposition = connection.getHeaderField("Content-Disposition");
+		if (disposition != null) {
+			final int index = disposition.toLowerCase(Locale.ENGLISH).indexOf("filename=");
+			if (index != -1) {
+				final String name = disposition.substring(index + 9).replace("\"", "").split(";")[0].trim();
+				if (!name.isEmpty()) {
+					return IFile.sanitize(name);
+				}
+			}
+		}
+		final String path = connection.getURL().getPath();
+		final String name = path.substring(path.lastIndexOf('/') + 1);
+		return IFile.sanitize(!name.isEmpty() ? name : "download");
+	}
+
+	/**
+	 * Sets the basic authorization header, if a user name is set
+	 *
+	 * @param connection unconnected connection
+	 * @param username user name or null
+	 * @param password password or null
+	 */
+	static void setBasicAuthorization(final URLConnection connection, final String username, final String password) {
+		if (!SUtils.isNullOrEmpty(username)) {
+			connection.setRequestProperty("Authorization", "Basic " + Base64.getEncoder().encodeToString(
+					(username + ":" + (password != null ? password : "")).getBytes(StandardCharsets.UTF_8)));
+		}
+	}
+
+	/**
+	 * Requests a remote resource, conditionally if a cache entry exists
+	 *
+	 * @param uri HTTP(S) URI
+	 * @param username user name or null
+	 * @param password password or null
+	 * @param filterKey key of the file filter that is used to prepare the files
+	 * @return response, which must be closed
+	 * @throws IOException if the request failed
+	 */
+	Response request(final URI uri, final String username, final String password, final String filterKey)
+			throws IOException {
+		final String key = key(uri, username, filterKey);
+		final Properties cached = load(key);
+		final HttpURLConnection connection = (HttpURLConnection) uri.toURL().openConnection();
+		connection.setConnectTimeout(CONNECT_TIMEOUT);
+		connection.setReadTimeout(READ_TIMEOUT);
+		connection.setInstanceFollowRedirects(true);
+		setBasicAuthorization(connection, username, password);
+		if (cached != null) {
+			if (cached.getProperty("etag") != null) {
+				connection.setRequestProperty("If-None-Match", cached.getProperty("etag"));
+			}
+			if (cached.getProperty("lastModified") != null) {
+				connection.setRequestProperty("If-Modified-Since", cached.getProperty("lastModified"));
+			}
+		}
+		connection.connect();
+		return new Response(key, connection, cached);
+	}
+}
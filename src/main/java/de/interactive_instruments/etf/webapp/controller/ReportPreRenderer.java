@@ -0,0 +1,186 @@
+/**
+ * Copyright 2010-2017 interactive instruments GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.interactive_instruments.etf.webapp.controller;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import de.interactive_instruments.IFile;
+import de.interactive_instruments.etf.dal.dao.Dao;
+import de.interactive_instruments.etf.dal.dto.Dto;
+import de.interactive_instruments.etf.model.EID;
+import de.interactive_instruments.etf.model.OutputFormat;
+import de.interactive_instruments.exceptions.ExcUtils;
+import de.interactive_instruments.exceptions.ObjectWithIdNotFoundException;
+import de.interactive_instruments.exceptions.StorageException;
+
+/**
+ * Renders HTML reports of completed Test Runs in the background, so that
+ * the first request for a report does not need to wait for the transformation.
+ *
+ * The number of concurrently rendered reports is limited and the queue is bounded:
+ * if the queue is full, new render jobs are dropped and the report is rendered
+ * on request as before. Reports of deleted objects are not rendered anymore and
+ * reports that are being rendered while the object is deleted are discarded.
+ *
+ * @author J. Herrmann ( herrmann <aT) interactive-instruments (doT> de )
+ */
+class ReportPreRenderer {
+
+	private static final int QUEUE_SIZE = 64;
+	private static final String FILE_EXTENSION = ".html";
+	// How long the IDs of evicted reports are remembered, longer than a rendering takes
+	private static final long EVICTED_RETENTION_MINUTES = 30;
+
+	private final IFile renderDir;
+	private final OutputFormat htmlFormat;
+	private final ThreadPoolExecutor executor;
+	private final Cache<EID, Boolean> evicted = Caffeine.newBuilder()
+			.expireAfterWrite(EVICTED_RETENTION_MINUTES, TimeUnit.MINUTES).build();
+	private final Logger logger = LoggerFactory.getLogger(ReportPreRenderer.class);
+
+	/**
+	 * @param renderDir directory for the rendered reports
+	 * @param htmlFormat output format used for the transformation
+	 * @param maxConcurrentRenderings maximum number of reports rendered in parallel,
+	 *                                a value less equal 0 disables the pre-rendering
+	 */
+	ReportPreRenderer(final IFile renderDir, final OutputFormat htmlFormat, final int maxConcurrentRenderings)
+			throws IOException {
+		this.renderDir = renderDir;
+		this.renderDir.ensureDir();
+		this.htmlFormat = htmlFormat;
+		if (maxConcurrentRenderings > 0 && htmlFormat != null) {
+			final AtomicInteger threadCounter = new AtomicInteger();
+			this.executor = new ThreadPoolExecutor(maxConcurrentRenderings, maxConcurrentRenderings,
+					60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(QUEUE_SIZE),
+					r -> {
+						final Thread t = new Thread(r, "report-prerender-" + threadCounter.incrementAndGet());
+						t.setDaemon(true);
+						// Test Runs always have precedence
+						t.setPriority(Thread.MIN_PRIORITY);
+						return t;
+					},
+					(r, e) -> logger.debug("Report pre-rendering queue is full, skipping job"));
+			this.executor.allowCoreThreadTimeOut(true);
+		} else {
+			this.executor = null;
+		}
+	}
+
+	boolean isEnabled() {
+		return executor != null;
+	}
+
+	private IFile fileFor(final EID id) {
+		return renderDir.secureExpandPathDown(IFile.sanitize(id.getId()) + FILE_EXTENSION);
+	}
+
+	/**
+	 * Queues the rendering of the report for the object with the passed ID
+	 *
+	 * @param dao Dao that is used to retrieve the object
+	 * @param id ID of the object
+	 */
+	void submit(final Dao<? extends Dto> dao, final EID id) {
+		if (executor == null || fileFor(id).exists() || evicted.getIfPresent(id) != null) {
+			return;
+		}
+		executor.execute(() -> render(dao, id));
+	}
+
+	private void render(final Dao<? extends Dto> dao, final EID id) {
+		final IFile target = fileFor(id);
+		if (target.exists()) {
+			return;
+		}
+		final IFile tmpFile = renderDir.secureExpandPathDown(IFile.sanitize(id.getId()) + FILE_EXTENSION + ".tmp");
+		final long start = System.currentTimeMillis();
+		try (final OutputStream out = new BufferedOutputStream(new FileOutputStream(tmpFile))) {
+			dao.getById(id).streamTo(htmlFormat, null, out);
+		} catch (final IOException | StorageException | ObjectWithIdNotFoundException e) {
+			logger.warn("Pre-rendering of report {} failed: {}", id, e.getMessage());
+			tmpFile.delete();
+			return;
+		}
+		try {
+			Files.move(tmpFile.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+			if (evicted.getIfPresent(id) != null) {
+				// deleted while it was rendered
+				evict(id);
+				return;
+			}
+			logger.debug("Pre-rendered report {} in {} ms", id, System.currentTimeMillis() - start);
+		} catch (final IOException e) {
+			logger.warn("Could not move pre-rendered report {}: {}", id, e.getMessage());
+			tmpFile.delete();
+		}
+	}
+
+	/**
+	 * Returns the pre-rendered report or null if the report has not been rendered yet
+	 *
+	 * @param id ID of the rendered object
+	 * @return report file or null
+	 */
+	IFile getRendered(final EID id) {
+		if (executor == null) {
+			return null;
+		}
+		final IFile file = fileFor(id);
+		return file.exists() ? file : null;
+	}
+
+	/**
+	 * Deletes a pre-rendered report, the report of the object is not rendered again
+	 *
+	 * @param id ID of the rendered object
+	 */
+	void evict(final EID id) {
+		evicted.put(id, Boolean.TRUE);
+		final IFile file = fileFor(id);
+		if (file.exists() && !file.delete()) {
+			logger.warn("Could not delete pre-rendered report {}", file.getAbsolutePath());
+		}
+	}
+
+	void release() {
+		if (executor != null) {
+			executor.shutdownNow();
+			try {
+				executor.awaitTermination(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				ExcUtils.suppress(e);
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
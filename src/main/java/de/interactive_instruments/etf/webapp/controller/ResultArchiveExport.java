@@ -0,0 +1,154 @@
+/**
+ * Copyright 2010-2017 interactive instruments GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.interactive_instruments.etf.webapp.controller;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.interactive_instruments.IFile;
+import de.interactive_instruments.UriUtils;
+import de.interactive_instruments.etf.dal.dao.Dao;
+import de.interactive_instruments.etf.dal.dao.PreparedDto;
+import de.interactive_instruments.etf.dal.dto.result.AttachmentDto;
+import de.interactive_instruments.etf.dal.dto.result.TestTaskResultDto;
+import de.interactive_instruments.etf.dal.dto.run.TestRunDto;
+import de.interactive_instruments.etf.dal.dto.run.TestTaskDto;
+import de.interactive_instruments.etf.model.EID;
+import de.interactive_instruments.etf.model.OutputFormat;
+import de.interactive_instruments.etf.webapp.helpers.TestRunFilter;
+import de.interactive_instruments.exceptions.ObjectWithIdNotFoundException;
+import de.interactive_instruments.exceptions.StorageException;
+
+/**
+ * Writes Test Runs, that match a Test Run filter, and optionally their attachments
+ * as ZIP archive directly to an output stream.
+ *
+ * The matching Test Runs are selected page by page with keyset cursors from the Test Run
+ * index, so Test Runs that are added or removed during the export are neither skipped
+ * nor exported twice. Each Test Run is streamed with the output format of the Dao, so
+ * the archive is never held in memory.
+ *
+ * @author J. Herrmann ( herrmann <aT) interactive-instruments (doT> de )
+ */
+final class ResultArchiveExport {
+
+	private static final int PAGE_SIZE = 500;
+
+	private final TestRunIndex testRunIndex;
+	private final Dao<TestRunDto> testRunDao;
+	private final Dao<TestTaskResultDto> testTaskResultDao;
+	private final OutputFormat format;
+	private final String fileExtension;
+	private final boolean includeAttachments;
+	private final Logger logger = LoggerFactory.getLogger(ResultArchiveExport.class);
+
+	ResultArchiveExport(final TestRunIndex testRunIndex, final Dao<TestRunDto> testRunDao,
+			final Dao<TestTaskResultDto> testTaskResultDao, final OutputFormat format, final String fileExtension,
+			final boolean includeAttachments) {
+		this.testRunIndex = testRunIndex;
+		this.testRunDao = testRunDao;
+		this.testTaskResultDao = testTaskResultDao;
+		this.format = format;
+		this.fileExtension = fileExtension;
+		this.includeAttachments = includeAttachments;
+	}
+
+	/**
+	 * Writes the archive
+	 *
+	 * @param filter predicates of the Test Run filter, offset, limit, sort order and cursor
+	 *            are ignored
+	 * @param outputStream target stream, which is finished but not closed
+	 * @return number of exported Test Runs
+	 */
+	int writeTo(final TestRunFilter filter, final OutputStream outputStream)
+			throws IOException, StorageException {
+		testRunIndex.ensureInitialized(testRunDao);
+		final ZipOutputStream zip = new ZipOutputStream(outputStream);
+		int exported = 0;
+		String cursor = "";
+		do {
+			final CursorPage page = testRunIndex.query(new TestRunFilter(0, PAGE_SIZE, filter.search(),
+					filter.status(), filter.testObjectId(), filter.executableTestSuiteId(), filter.from(),
+					filter.to(), TestRunFilter.Sort.START_ASC, cursor));
+			for (final EID id : page.getIds()) {
+				try {
+					writeTestRun(testRunDao.getById(id), zip);
+					exported++;
+				} catch (final ObjectWithIdNotFoundException e) {
+					// deleted in the meantime
+					logger.debug("Skipping deleted Test Run {}", id);
+				}
+			}
+			cursor = page.getNextCursor();
+		} while (cursor != null);
+		zip.finish();
+		zip.flush();
+		return exported;
+	}
+
+	private void writeTestRun(final PreparedDto<TestRunDto> preparedTestRun, final ZipOutputStream zip)
+			throws IOException, StorageException, ObjectWithIdNotFoundException {
+		final TestRunDto testRun = preparedTestRun.getDto();
+		final String runId = testRun.getId().getId();
+		zip.putNextEntry(new ZipEntry("TestRun-" + runId + fileExtension));
+		// The output format may close the stream
+		preparedTestRun.streamTo(format, null, new CloseShieldOutputStream(zip));
+		zip.closeEntry();
+
+		if (includeAttachments && testRun.getTestTasks() != null) {
+			for (final TestTaskDto testTask : testRun.getTestTasks()) {
+				if (testTask.getTestTaskResult() != null) {
+					writeAttachments(runId, testTask.getTestTaskResult().getId(), zip);
+				}
+			}
+		}
+	}
+
+	private void writeAttachments(final String runId, final EID testTaskResultId, final ZipOutputStream zip)
+			throws IOException, StorageException {
+		final TestTaskResultDto testTaskResult;
+		try {
+			testTaskResult = testTaskResultDao.getById(testTaskResultId).getDto();
+		} catch (final ObjectWithIdNotFoundException e) {
+			return;
+		}
+		if (testTaskResult.getAttachments() == null) {
+			return;
+		}
+		for (final AttachmentDto attachment : testTaskResult.getAttachments()) {
+			final URI uri = attachment.getReferencedData();
+			if (uri != null && UriUtils.isFile(uri)) {
+				final File file = new File(uri);
+				if (file.exists()) {
+					zip.putNextEntry(new ZipEntry("attachments/" + runId + "/"
+							+ attachment.getId().getId() + "-" + IFile.sanitize(file.getName())));
+					Files.copy(file.toPath(), zip);
+					zip.closeEntry();
+				}
+			}
+		}
+	}
+}
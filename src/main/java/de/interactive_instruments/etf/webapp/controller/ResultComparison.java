@@ -0,0 +1,433 @@
+/**
+ * Copyright 2010-2017 interactive instruments GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.interactive_instruments.etf.webapp.controller;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import de.interactive_instruments.etf.dal.dao.Dao;
+import de.interactive_instruments.etf.dal.dto.result.TestTaskResultDto;
+import de.interactive_instruments.etf.model.EID;
+import de.interactive_instruments.etf.model.OutputFormat;
+import de.interactive_instruments.exceptions.ExcUtils;
+import de.interactive_instruments.exceptions.ObjectWithIdNotFoundException;
+import de.interactive_instruments.exceptions.StorageException;
+
+/**
+ * Compares the Test Assertion results of two sets of Test Task Results.
+ *
+ * The XML of the results is written to temporary files and read with two StAX readers
+ * in parallel. As the results of the same Executable Test Suites are written in the same
+ * order, most assertions are matched in lockstep; only assertions that are not found at
+ * the same position are kept until their counterpart appears. If too many assertions are
+ * pending, the rest is partitioned into temporary files and matched partition by partition.
+ * Assertions that are referenced multiple times are matched by their occurrence. The object
+ * graphs of the results are never loaded and only changed assertion states are written.
+ *
+ * @author J. Herrmann ( herrmann <aT) interactive-instruments (doT> de )
+ */
+final class ResultComparison {
+
+	private static final String ASSERTION_RESULT = "TestAssertionResult";
+	private static final String RESULTED_FROM = "resultedFrom";
+	private static final String STATUS = "status";
+	private static final String REF = "ref";
+	private static final char KEY_SEPARATOR = '#';
+	// Maximum number of assertions that are kept in memory until their counterpart appears
+	private static final int MAX_PENDING = 100000;
+	private static final int SPILL_PARTITIONS = 32;
+
+	private static final XMLInputFactory inputFactory;
+	// the caller closes the output stream
+	private static final JsonFactory JSON_FACTORY = new JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+	static {
+		inputFactory = XMLInputFactory.newInstance();
+		inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+	}
+
+	private final Dao<TestTaskResultDto> testTaskResultDao;
+	private final OutputFormat xmlFormat;
+
+	ResultComparison(final Dao<TestTaskResultDto> testTaskResultDao, final OutputFormat xmlFormat) {
+		this.testTaskResultDao = testTaskResultDao;
+		this.xmlFormat = xmlFormat;
+	}
+
+	/**
+	 * Reads the assertion results of one or multiple Test Task Results one by one
+	 */
+	private static final class AssertionResultReader implements Closeable {
+		private final Iterator<Path> files;
+		// number of assertion results per reference
+		private final Map<String, Integer> occurrences = new HashMap<>();
+		private InputStream in;
+		private XMLStreamReader reader;
+		private String ref;
+		private String key;
+		private String status;
+
+		private AssertionResultReader(final List<Path> files) {
+			this.files = files.iterator();
+		}
+
+		/**
+		 * Moves to the next assertion result
+		 *
+		 * @return false if there are no more assertion results
+		 */
+		private boolean next() throws IOException, XMLStreamException {
+			while (true) {
+				if (reader == null) {
+					if (!files.hasNext()) {
+						return false;
+					}
+					in = new BufferedInputStream(Files.newInputStream(files.next()));
+					reader = inputFactory.createXMLStreamReader(in);
+				}
+				while (reader.hasNext()) {
+					if (reader.next() == XMLStreamConstants.START_ELEMENT
+							&& ASSERTION_RESULT.equals(reader.getLocalName())) {
+						readAssertionResult();
+						key = ref != null ? ref + KEY_SEPARATOR + occurrences.merge(ref, 1, Integer::sum) : null;
+						return true;
+					}
+				}
+				closeCurrent();
+			}
+		}
+
+		private void readAssertionResult() throws XMLStreamException {
+			ref = null;
+			status = null;
+			int depth = 1;
+			while (depth > 0 && reader.hasNext()) {
+				final int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					depth++;
+					// only direct children, messages may contain nested elements
+					if (depth == 2) {
+						if (RESULTED_FROM.equals(reader.getLocalName())) {
+							ref = reader.getAttributeValue(null, REF);
+						} else if (STATUS.equals(reader.getLocalName())) {
+							status = reader.getElementText().trim();
+							depth--;
+						}
+					}
+				} else if (event == XMLStreamConstants.END_ELEMENT) {
+					depth--;
+				}
+			}
+		}
+
+		private void closeCurrent() throws IOException {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (final XMLStreamException e) {
+					ExcUtils.suppress(e);
+				}
+				reader = null;
+			}
+			if (in != null) {
+				in.close();
+				in = null;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			closeCurrent();
+		}
+	}
+
+	private Path writeToTempFile(final EID testTaskResultId)
+			throws IOException, StorageException, ObjectWithIdNotFoundException {
+		final Path file = Files.createTempFile("etf-comparison-", ".xml");
+		try (final OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+			testTaskResultDao.getById(testTaskResultId).streamTo(xmlFormat, null, out);
+		} catch (IOException | StorageException | ObjectWithIdNotFoundException e) {
+			Files.deleteIfExists(file);
+			throw e;
+		}
+		return file;
+	}
+
+	private void writeToTempFiles(final List<EID> testTaskResultIds, final List<Path> files)
+			throws IOException, StorageException, ObjectWithIdNotFoundException {
+		for (final EID id : testTaskResultIds) {
+			files.add(writeToTempFile(id));
+		}
+	}
+
+	/**
+	 * Writes the changed assertion results as JSON object with the properties 'changed',
+	 * 'unchanged' (number of assertions with the same status), 'onlyInBase' and 'onlyInOther'.
+	 *
+	 * @param baseResultIds Test Task Results that are used as base
+	 * @param otherResultIds Test Task Results that are compared with the base
+	 * @param out output stream for the JSON object
+	 */
+	void compare(final List<EID> baseResultIds, final List<EID> otherResultIds, final OutputStream out)
+			throws IOException, StorageException, ObjectWithIdNotFoundException {
+		final List<Path> baseFiles = new ArrayList<>();
+		final List<Path> otherFiles = new ArrayList<>();
+		try {
+			writeToTempFiles(baseResultIds, baseFiles);
+			writeToTempFiles(otherResultIds, otherFiles);
+			try (final AssertionResultReader base = new AssertionResultReader(baseFiles);
+					final AssertionResultReader other = new AssertionResultReader(otherFiles);
+					final JsonGenerator json = JSON_FACTORY.createGenerator(out)) {
+				json.writeStartObject();
+				json.writeArrayFieldStart("changed");
+				final long unchanged = merge(base, other, json);
+				json.writeNumberField("unchanged", unchanged);
+				json.writeEndObject();
+				json.flush();
+			}
+		} catch (final XMLStreamException e) {
+			throw new IOException("Could not parse result", e);
+		} finally {
+			for (final Path file : baseFiles) {
+				Files.deleteIfExists(file);
+			}
+			for (final Path file : otherFiles) {
+				Files.deleteIfExists(file);
+			}
+		}
+	}
+
+	private static long merge(final AssertionResultReader base, final AssertionResultReader other,
+			final JsonGenerator json) throws IOException, XMLStreamException {
+		// Assertions that could not be matched in lockstep
+		final Map<String, String> pendingBase = new LinkedHashMap<>();
+		final Map<String, String> pendingOther = new LinkedHashMap<>();
+		long unchanged = 0;
+		boolean baseHasNext = base.next();
+		boolean otherHasNext = other.next();
+		while (baseHasNext || otherHasNext) {
+			if (pendingBase.size() + pendingOther.size() > MAX_PENDING) {
+				// The results are ordered too differently, match the rest on disk
+				return unchanged + mergeSpilled(base, baseHasNext, pendingBase, other, otherHasNext, pendingOther, json);
+			}
+			if (baseHasNext && otherHasNext && base.key != null && base.key.equals(other.key)) {
+				unchanged += compareStatus(base.key, base.status, other.status, json);
+			} else {
+				if (baseHasNext && base.key != null) {
+					if (pendingOther.containsKey(base.key)) {
+						unchanged += compareStatus(base.key, base.status, pendingOther.remove(base.key), json);
+					} else {
+						pendingBase.put(base.key, base.status);
+					}
+				}
+				if (otherHasNext && other.key != null) {
+					if (pendingBase.containsKey(other.key)) {
+						unchanged += compareStatus(other.key, pendingBase.remove(other.key), other.status, json);
+					} else {
+						pendingOther.put(other.key, other.status);
+					}
+				}
+			}
+			if (baseHasNext) {
+				baseHasNext = base.next();
+			}
+			if (otherHasNext) {
+				otherHasNext = other.next();
+			}
+		}
+		json.writeEndArray();
+		writeUnmatched("onlyInBase", pendingBase, json);
+		writeUnmatched("onlyInOther", pendingOther, json);
+		return unchanged;
+	}
+
+	/**
+	 * Matches the pending and all remaining assertions with a bounded amount of memory:
+	 * both sides are partitioned by the hash of their keys into temporary files, which
+	 * are then matched partition by partition.
+	 */
+	private static long mergeSpilled(final AssertionResultReader base, final boolean baseHasNext,
+			final Map<String, String> pendingBase, final AssertionResultReader other, final boolean otherHasNext,
+			final Map<String, String> pendingOther, final JsonGenerator json) throws IOException, XMLStreamException {
+		final List<Path> files = new ArrayList<>();
+		try {
+			final List<Path> baseParts = spill(base, baseHasNext, pendingBase, files);
+			pendingBase.clear();
+			final List<Path> otherParts = spill(other, otherHasNext, pendingOther, files);
+			pendingOther.clear();
+			final Path onlyInBase = createTempFile(files);
+			final Path onlyInOther = createTempFile(files);
+			long unchanged = 0;
+			try (final DataOutputStream onlyInBaseOut = openOutput(onlyInBase);
+					final DataOutputStream onlyInOtherOut = openOutput(onlyInOther)) {
+				for (int i = 0; i < SPILL_PARTITIONS; i++) {
+					final Map<String, String> partition = new LinkedHashMap<>();
+					try (final DataInputStream in = openInput(baseParts.get(i))) {
+						for (String[] record; (record = readRecord(in)) != null;) {
+							partition.put(record[0], record[1]);
+						}
+					}
+					try (final DataInputStream in = openInput(otherParts.get(i))) {
+						for (String[] record; (record = readRecord(in)) != null;) {
+							if (partition.containsKey(record[0])) {
+								unchanged += compareStatus(record[0], partition.remove(record[0]), record[1], json);
+							} else {
+								writeRecord(onlyInOtherOut, record[0], record[1]);
+							}
+						}
+					}
+					for (final Map.Entry<String, String> entry : partition.entrySet()) {
+						writeRecord(onlyInBaseOut, entry.getKey(), entry.getValue());
+					}
+				}
+			}
+			json.writeEndArray();
+			writeUnmatched("onlyInBase", onlyInBase, json);
+			writeUnmatched("onlyInOther", onlyInOther, json);
+			return unchanged;
+		} finally {
+			for (final Path file : files) {
+				Files.deleteIfExists(file);
+			}
+		}
+	}
+
+	// Writes the pending and the remaining assertions of a reader to partition files
+	private static List<Path> spill(final AssertionResultReader reader, final boolean hasNext,
+			final Map<String, String> pending, final List<Path> files) throws IOException, XMLStreamException {
+		final List<Path> parts = new ArrayList<>(SPILL_PARTITIONS);
+		final List<DataOutputStream> outs = new ArrayList<>(SPILL_PARTITIONS);
+		try {
+			for (int i = 0; i < SPILL_PARTITIONS; i++) {
+				parts.add(createTempFile(files));
+				outs.add(openOutput(parts.get(i)));
+			}
+			for (final Map.Entry<String, String> entry : pending.entrySet()) {
+				writeRecord(outs.get(partitionOf(entry.getKey())), entry.getKey(), entry.getValue());
+			}
+			for (boolean next = hasNext; next; next = reader.next()) {
+				if (reader.key != null) {
+					writeRecord(outs.get(partitionOf(reader.key)), reader.key, reader.status);
+				}
+			}
+		} finally {
+			for (final DataOutputStream out : outs) {
+				out.close();
+			}
+		}
+		return parts;
+	}
+
+	private static int partitionOf(final String key) {
+		return (key.hashCode() & Integer.MAX_VALUE) % SPILL_PARTITIONS;
+	}
+
+	private static Path createTempFile(final List<Path> files) throws IOException {
+		final Path file = Files.createTempFile("etf-comparison-", ".bin");
+		files.add(file);
+		return file;
+	}
+
+	private static DataOutputStream openOutput(final Path file) throws IOException {
+		return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)));
+	}
+
+	private static DataInputStream openInput(final Path file) throws IOException {
+		return new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+	}
+
+	private static void writeRecord(final DataOutputStream out, final String key, final String status)
+			throws IOException {
+		out.writeUTF(key);
+		out.writeBoolean(status != null);
+		if (status != null) {
+			out.writeUTF(status);
+		}
+	}
+
+	// Returns the key and the status or null at the end of the file
+	private static String[] readRecord(final DataInputStream in) throws IOException {
+		final String key;
+		try {
+			key = in.readUTF();
+		} catch (final EOFException e) {
+			return null;
+		}
+		return new String[]{key, in.readBoolean() ? in.readUTF() : null};
+	}
+
+	// The key of an assertion is its reference and its occurrence in the results
+	private static String refOf(final String key) {
+		return key.substring(0, key.lastIndexOf(KEY_SEPARATOR));
+	}
+
+	private static int compareStatus(final String key, final String baseStatus, final String otherStatus,
+			final JsonGenerator json) throws IOException {
+		if (baseStatus != null && baseStatus.equals(otherStatus)) {
+			return 1;
+		}
+		json.writeStartObject();
+		json.writeStringField("testAssertion", refOf(key));
+		json.writeStringField("base", baseStatus);
+		json.writeStringField("other", otherStatus);
+		json.writeEndObject();
+		return 0;
+	}
+
+	private static void writeUnmatched(final String fieldName, final Map<String, String> unmatched,
+			final JsonGenerator json) throws IOException {
+		json.writeArrayFieldStart(fieldName);
+		for (final Map.Entry<String, String> entry : unmatched.entrySet()) {
+			writeUnmatched(entry.getKey(), entry.getValue(), json);
+		}
+		json.writeEndArray();
+	}
+
+	private static void writeUnmatched(final String fieldName, final Path unmatched, final JsonGenerator json)
+			throws IOException {
+		json.writeArrayFieldStart(fieldName);
+		try (final DataInputStream in = openInput(unmatched)) {
+			for (String[] record; (record = readRecord(in)) != null;) {
+				writeUnmatched(record[0], record[1], json);
+			}
+		}
+		json.writeEndArray();
+	}
+
+	private static void writeUnmatched(final String key, final String status, final JsonGenerator json)
+			throws IOException {
+		json.writeStartObject();
+		json.writeStringField("testAssertion", refOf(key));
+		json.writeStringField("status", status);
+		json.writeEndObject();
+	}
+}
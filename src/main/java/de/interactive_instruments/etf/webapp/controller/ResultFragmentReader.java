@@ -0,0 +1,473 @@
+/**
+ * Copyright 2010-2017 interactive instruments GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.interactive_instruments.etf.webapp.controller;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import de.interactive_instruments.etf.model.EID;
+import de.interactive_instruments.exceptions.ExcUtils;
+import de.interactive_instruments.exceptions.ObjectWithIdNotFoundException;
+
+/**
+ * Reads parts of the XML of a Test Task Result, which has been written to a file,
+ * for the paged HTML report.
+ *
+ * Every read is a single StAX pass that stops as soon as the requested item has been read.
+ * Items that are not needed are skipped without being materialized, so only the requested
+ * Test Cases of one Test Module or the Test Steps of one Test Case are kept in memory. The
+ * overview of a Test Task Result only contains the Test Module results and the number of
+ * their Test Case results.
+ *
+ * @author J. Herrmann ( herrmann <aT) interactive-instruments (doT> de )
+ */
+final class ResultFragmentReader {
+
+	private static final String TASK_RESULT = "TestTaskResult";
+	private static final String MODULE_RESULT = "TestModuleResult";
+	private static final String CASE_RESULT = "TestCaseResult";
+	private static final String STEP_RESULT = "TestStepResult";
+	private static final String ASSERTION_RESULT = "TestAssertionResult";
+	private static final String RESULTED_FROM = "resultedFrom";
+	private static final String STATUS = "status";
+	private static final String MESSAGE = "message";
+	private static final String ARGUMENT = "argument";
+	private static final String ID = "id";
+	private static final String REF = "ref";
+	private static final String TOKEN = "token";
+	private static final String EID_PREFIX = "EID";
+
+	private static final XMLInputFactory inputFactory;
+
+	static {
+		inputFactory = XMLInputFactory.newInstance();
+		inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+	}
+
+	/**
+	 * A result item with its ID, the ID of the Executable Test Suite item
+	 * it resulted from and its status
+	 */
+	static class Item {
+		private String id;
+		private String ref;
+		private String status;
+
+		String getId() {
+			return id;
+		}
+
+		String getRef() {
+			return ref;
+		}
+
+		String getStatus() {
+			return status;
+		}
+	}
+
+	static final class TestModule extends Item {
+		private int testCases;
+
+		int getTestCaseCount() {
+			return testCases;
+		}
+	}
+
+	static final class Overview extends Item {
+		private final List<TestModule> testModules = new ArrayList<>();
+
+		List<TestModule> getTestModules() {
+			return testModules;
+		}
+	}
+
+	static final class TestCasePage {
+		private final List<Item> testCases = new ArrayList<>();
+		private int total;
+
+		List<Item> getTestCases() {
+			return testCases;
+		}
+
+		/**
+		 * @return number of all Test Case results of the Test Module
+		 */
+		int getTotal() {
+			return total;
+		}
+	}
+
+	static final class TestStep extends Item {
+		private final List<TestAssertion> testAssertions = new ArrayList<>();
+
+		List<TestAssertion> getTestAssertions() {
+			return testAssertions;
+		}
+	}
+
+	static final class TestAssertion extends Item {
+		private final List<Message> messages = new ArrayList<>();
+
+		List<Message> getMessages() {
+			return messages;
+		}
+	}
+
+	/**
+	 * A message, which references a translation template, and its arguments
+	 */
+	static final class Message {
+		private final String ref;
+		private final Map<String, String> arguments = new LinkedHashMap<>();
+
+		private Message(final String ref) {
+			this.ref = ref;
+		}
+
+		String getRef() {
+			return ref;
+		}
+
+		Map<String, String> getArguments() {
+			return arguments;
+		}
+	}
+
+	private final Path file;
+	private final Item testTaskResult;
+
+	/**
+	 * Reads the status of the Test Task Result and the ID of the Executable Test Suite,
+	 * which precede the Test Module results
+	 *
+	 * @param file Test Task Result XML
+	 * @param id Test Task Result ID
+	 * @throws IOException if the file could not be read
+	 * @throws ObjectWithIdNotFoundException if the file does not contain a Test Task Result
+	 */
+	ResultFragmentReader(final Path file, final EID id) throws IOException, ObjectWithIdNotFoundException {
+		this.file = file;
+		this.testTaskResult = read(id.getId(), reader -> {
+			if (!next(reader, TASK_RESULT)) {
+				return null;
+			}
+			final Item item = new Item();
+			item.id = idOf(reader, ID);
+			int depth = 1;
+			while (depth > 0 && reader.hasNext()) {
+				final int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					final String name = reader.getLocalName();
+					if (isResultItem(name)) {
+						break;
+					} else if (depth == 1 && STATUS.equals(name)) {
+						item.status = reader.getElementText().trim();
+					} else {
+						if (depth == 1 && RESULTED_FROM.equals(name)) {
+							item.ref = idOf(reader, REF);
+						}
+						depth++;
+					}
+				} else if (event == XMLStreamConstants.END_ELEMENT) {
+					depth--;
+				}
+				if (item.status != null && item.ref != null) {
+					break;
+				}
+			}
+			return item;
+		});
+	}
+
+	Path getFile() {
+		return file;
+	}
+
+	/**
+	 * @return status of the Test Task Result or null if it has no status
+	 */
+	String getStatus() {
+		return testTaskResult.status;
+	}
+
+	/**
+	 * @return ID of the Executable Test Suite or null if it is not referenced
+	 */
+	String getExecutableTestSuiteId() {
+		return testTaskResult.ref;
+	}
+
+	@FunctionalInterface
+	private interface NestedItemReader {
+		/**
+		 * Called at the start element of a nested result item, which must be consumed
+		 */
+		void read(final XMLStreamReader reader) throws XMLStreamException;
+	}
+
+	@FunctionalInterface
+	private interface Pass<T> {
+		/**
+		 * @return the result or null if the requested item was not found
+		 */
+		T read(final XMLStreamReader reader) throws XMLStreamException;
+	}
+
+	private <T> T read(final String id, final Pass<T> pass)
+			throws IOException, ObjectWithIdNotFoundException {
+		try (final InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+			final XMLStreamReader reader = inputFactory.createXMLStreamReader(in);
+			try {
+				final T result = pass.read(reader);
+				if (result == null) {
+					throw new ObjectWithIdNotFoundException(id);
+				}
+				return result;
+			} finally {
+				try {
+					reader.close();
+				} catch (final XMLStreamException e) {
+					ExcUtils.suppress(e);
+				}
+			}
+		} catch (final XMLStreamException e) {
+			throw new IOException("Unable to read the Test Task Result " + file, e);
+		}
+	}
+
+	/**
+	 * Moves to the start element of the next result item with the name, descending into all other elements
+	 *
+	 * @return false if there is no such element
+	 */
+	private static boolean next(final XMLStreamReader reader, final String name) throws XMLStreamException {
+		while (reader.hasNext()) {
+			if (reader.next() == XMLStreamConstants.START_ELEMENT && name.equals(reader.getLocalName())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static void skip(final XMLStreamReader reader) throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0 && reader.hasNext()) {
+			final int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			}
+		}
+	}
+
+	private static boolean isResultItem(final String name) {
+		return MODULE_RESULT.equals(name) || CASE_RESULT.equals(name) || STEP_RESULT.equals(name)
+				|| ASSERTION_RESULT.equals(name);
+	}
+
+	private static String idOf(final XMLStreamReader reader, final String attribute) {
+		final String id = reader.getAttributeValue(null, attribute);
+		return id != null && id.startsWith(EID_PREFIX) ? id.substring(EID_PREFIX.length()) : id;
+	}
+
+	private static boolean matches(final XMLStreamReader reader, final EID id) {
+		return id.getId().equals(idOf(reader, ID));
+	}
+
+	/**
+	 * Reads the reference and the status of the result item at the current start element
+	 * and consumes the element. Nested result items are passed to the nested reader or
+	 * skipped, messages are only read for assertions.
+	 */
+	private static void readItem(final XMLStreamReader reader, final Item item, final NestedItemReader nested)
+			throws XMLStreamException {
+		item.id = idOf(reader, ID);
+		int depth = 1;
+		while (depth > 0 && reader.hasNext()) {
+			final int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				final String name = reader.getLocalName();
+				if (isResultItem(name)) {
+					if (nested != null) {
+						nested.read(reader);
+					} else {
+						skip(reader);
+					}
+				} else if (depth == 1 && STATUS.equals(name)) {
+					item.status = reader.getElementText().trim();
+				} else if (MESSAGE.equals(name) && item instanceof TestAssertion) {
+					((TestAssertion) item).messages.add(readMessage(reader));
+				} else {
+					if (depth == 1 && RESULTED_FROM.equals(name)) {
+						item.ref = idOf(reader, REF);
+					}
+					depth++;
+				}
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			}
+		}
+	}
+
+	private static Message readMessage(final XMLStreamReader reader) throws XMLStreamException {
+		final Message message = new Message(reader.getAttributeValue(null, REF));
+		int depth = 1;
+		while (depth > 0 && reader.hasNext()) {
+			final int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				if (ARGUMENT.equals(reader.getLocalName())) {
+					message.arguments.put(reader.getAttributeValue(null, TOKEN), reader.getElementText());
+				} else {
+					depth++;
+				}
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			}
+		}
+		return message;
+	}
+
+	private static void readTestStep(final XMLStreamReader reader, final List<TestStep> testSteps)
+			throws XMLStreamException {
+		final TestStep testStep = new TestStep();
+		// Invoked Test Steps follow the invoking Test Step
+		testSteps.add(testStep);
+		readItem(reader, testStep, r -> {
+			if (ASSERTION_RESULT.equals(r.getLocalName())) {
+				final TestAssertion testAssertion = new TestAssertion();
+				readItem(r, testAssertion, null);
+				testStep.testAssertions.add(testAssertion);
+			} else if (STEP_RESULT.equals(r.getLocalName())) {
+				readTestStep(r, testSteps);
+			} else {
+				skip(r);
+			}
+		});
+	}
+
+	/**
+	 * Reads the Test Module results of the Test Task Result and counts their Test Case results
+	 *
+	 * @return Test Task Result with its Test Module results
+	 * @throws IOException if the file could not be read
+	 * @throws ObjectWithIdNotFoundException if the file does not contain a Test Task Result
+	 */
+	Overview readOverview() throws IOException, ObjectWithIdNotFoundException {
+		return read(testTaskResult.id, reader -> {
+			if (!next(reader, TASK_RESULT)) {
+				return null;
+			}
+			final Overview overview = new Overview();
+			readItem(reader, overview, r -> {
+				if (MODULE_RESULT.equals(r.getLocalName())) {
+					final TestModule testModule = new TestModule();
+					readItem(r, testModule, r2 -> {
+						if (CASE_RESULT.equals(r2.getLocalName())) {
+							testModule.testCases++;
+						}
+						skip(r2);
+					});
+					overview.testModules.add(testModule);
+				} else {
+					skip(r);
+				}
+			});
+			return overview;
+		});
+	}
+
+	/**
+	 * Reads a page of the Test Case results of a Test Module result
+	 *
+	 * @param testModuleId Test Module result ID
+	 * @param offset index of the first Test Case result
+	 * @param limit maximum number of Test Case results
+	 * @return Test Case results without their Test Step results
+	 * @throws IOException if the file could not be read
+	 * @throws ObjectWithIdNotFoundException if the Test Module result does not exist
+	 */
+	TestCasePage readTestCases(final EID testModuleId, final int offset, final int limit)
+			throws IOException, ObjectWithIdNotFoundException {
+		return read(testModuleId.getId(), reader -> {
+			while (next(reader, MODULE_RESULT)) {
+				if (!matches(reader, testModuleId)) {
+					skip(reader);
+					continue;
+				}
+				final TestCasePage page = new TestCasePage();
+				readItem(reader, new Item(), r -> {
+					if (CASE_RESULT.equals(r.getLocalName())) {
+						final int index = page.total++;
+						if (index >= offset && index - offset < limit) {
+							final Item testCase = new Item();
+							readItem(r, testCase, null);
+							page.testCases.add(testCase);
+							return;
+						}
+					}
+					skip(r);
+				});
+				return page;
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * Reads the Test Step and Test Assertion results of a Test Case result
+	 *
+	 * @param testCaseId Test Case result ID
+	 * @return Test Step results in document order
+	 * @throws IOException if the file could not be read
+	 * @throws ObjectWithIdNotFoundException if the Test Case result does not exist
+	 */
+	List<TestStep> readTestSteps(final EID testCaseId)
+			throws IOException, ObjectWithIdNotFoundException {
+		return read(testCaseId.getId(), reader -> {
+			while (next(reader, CASE_RESULT)) {
+				if (!matches(reader, testCaseId)) {
+					skip(reader);
+					continue;
+				}
+				final List<TestStep> testSteps = new ArrayList<>();
+				readItem(reader, new Item(), r -> {
+					if (STEP_RESULT.equals(r.getLocalName())) {
+						readTestStep(r, testSteps);
+					} else {
+						skip(r);
+					}
+				});
+				return testSteps;
+			}
+			return null;
+		});
+	}
+}
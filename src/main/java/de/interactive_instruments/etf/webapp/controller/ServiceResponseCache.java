@@ -0,0 +1,254 @@
+/**
+ * Copyright 2010-2017 interactive instruments GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.interactive_instruments.etf.webapp.controller;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.bind.DatatypeConverter;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.interactive_instruments.SUtils;
+
+/**
+ * Caches responses of service endpoints, like capabilities documents and feeds, so that
+ * the item hash, the type detection and the label extraction share one response.
+ *
+ * A response is reused without a request within the freshness period. Afterwards it is
+ * revalidated with a conditional request, if the service provided an ETag or a
+ * Last-Modified header, and fetched again otherwise. Entries are keyed by the URI and
+ * the credentials and expire after the time to live.
+ *
+ * Only a bounded prefix of the body is kept in memory, the type detection and the label
+ * extraction only see this prefix. The hash of the whole body is computed while
+ * streaming, if it is requested.
+ *
+ * @author J. Herrmann ( herrmann <aT) interactive-instruments (doT> de )
+ */
+final class ServiceResponseCache {
+
+	private static final int CONNECT_TIMEOUT = 30000;
+	private static final int READ_TIMEOUT = 120000;
+	private static final int BUFFER_SIZE = 65536;
+	// Only the first 8 MB of a response are kept
+	private static final int MAX_PREFIX_SIZE = 8 * 1024 * 1024;
+	private static final long MAX_CACHE_SIZE = 256 * 1024 * 1024;
+
+	/**
+	 * Cached response
+	 */
+	static final class Response {
+		private final byte[] prefix;
+		private final boolean complete;
+		private final String hash;
+		private final String contentType;
+		private final String etag;
+		private final String lastModified;
+		private final long fetched;
+
+		private Response(final byte[] prefix, final boolean complete, final String hash, final String contentType,
+				final String etag, final String lastModified) {
+			this.prefix = prefix;
+			this.complete = complete;
+			this.hash = hash;
+			this.contentType = contentType;
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.fetched = System.currentTimeMillis();
+		}
+
+		private boolean isRevalidatable() {
+			return etag != null || lastModified != null;
+		}
+
+		/**
+		 * @return the first bytes of the response body, bounded by the prefix size
+		 */
+		InputStream openPrefix() {
+			return new ByteArrayInputStream(prefix);
+		}
+
+		/**
+		 * @return true if the prefix contains the whole response body
+		 */
+		boolean isComplete() {
+			return complete;
+		}
+
+		/**
+		 * @return hex encoded hash of the whole response body or null if it was not requested
+		 */
+		String getHash() {
+			return hash;
+		}
+
+		/**
+		 * @return media type without parameters or null
+		 */
+		String getContentType() {
+			return contentType;
+		}
+	}
+
+	private final long freshness;
+	private final Cache<String, Response> responses;
+	private final Logger logger = LoggerFactory.getLogger(ServiceResponseCache.class);
+
+	/**
+	 * @param freshness time in seconds in which a response is reused without a request
+	 * @param timeToLive time in minutes after which a response is removed
+	 */
+	ServiceResponseCache(final long freshness, final long timeToLive) {
+		this.freshness = TimeUnit.SECONDS.toMillis(freshness);
+		this.responses = Caffeine.newBuilder()
+				.expireAfterWrite(timeToLive, TimeUnit.MINUTES)
+				.maximumWeight(MAX_CACHE_SIZE)
+				.<String, Response> weigher((key, response) -> response.prefix.length)
+				.build();
+	}
+
+	private static String key(final URI uri, final String username, final String password) {
+		final MessageDigest digest = FileStats.newDigest();
+		digest.update(String.valueOf(username).getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) '\n');
+		digest.update(String.valueOf(password).getBytes(StandardCharsets.UTF_8));
+		return uri.toString() + '\n' + Base64.getEncoder().encodeToString(digest.digest());
+	}
+
+	/**
+	 * Returns the response of an URI
+	 *
+	 * @param uri HTTP(S) URI
+	 * @param username user name or null
+	 * @param password password or null
+	 * @param hashed true if the whole body must be hashed, otherwise the connection is
+	 *            closed after the prefix has been read
+	 * @return response
+	 * @throws IOException if the URI could not be requested or the response was not successful
+	 */
+	Response get(final URI uri, final String username, final String password, final boolean hashed)
+			throws IOException {
+		final String key = key(uri, username, password);
+		Response cached = responses.getIfPresent(key);
+		if (cached != null && hashed && cached.hash == null) {
+			// The body must be read again to hash it
+			cached = null;
+		}
+		if (cached != null && System.currentTimeMillis() - cached.fetched < freshness) {
+			return cached;
+		}
+		final URLConnection urlConnection = uri.toURL().openConnection();
+		if (!(urlConnection instanceof HttpURLConnection)) {
+			throw new IOException("Unsupported protocol: " + uri);
+		}
+		final HttpURLConnection connection = (HttpURLConnection) urlConnection;
+		try {
+			connection.setConnectTimeout(CONNECT_TIMEOUT);
+			connection.setReadTimeout(READ_TIMEOUT);
+			connection.setInstanceFollowRedirects(true);
+			RemoteDataCache.setBasicAuthorization(connection, username, password);
+			if (cached != null && cached.isRevalidatable()) {
+				if (cached.etag != null) {
+					connection.setRequestProperty("If-None-Match", cached.etag);
+				}
+				if (cached.lastModified != null) {
+					connection.setRequestProperty("If-Modified-Since", cached.lastModified);
+				}
+			}
+			final int code = connection.getResponseCode();
+			if (code == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+				logger.debug("Response of {} not modified", uri);
+				final Response revalidated = new Response(cached.prefix, cached.complete, cached.hash,
+						cached.contentType, cached.etag, cached.lastModified);
+				responses.put(key, revalidated);
+				return revalidated;
+			}
+			if (code != HttpURLConnection.HTTP_OK) {
+				throw new IOException("Unexpected response code " + code + " for " + uri);
+			}
+			final String contentType = emptyToNull(connection.getContentType());
+			final int length = connection.getContentLength();
+			final ByteArrayOutputStream prefix = new ByteArrayOutputStream(
+					length > 0 ? Math.min(length, MAX_PREFIX_SIZE) : BUFFER_SIZE);
+			final MessageDigest digest = hashed ? FileStats.newDigest() : null;
+			final boolean complete = read(connection, prefix, digest);
+			final Response response = new Response(prefix.toByteArray(), complete,
+					digest != null ? DatatypeConverter.printHexBinary(digest.digest()).toLowerCase(Locale.ENGLISH)
+							: null,
+					contentType != null ? contentType.split(";")[0].trim().toLowerCase(Locale.ENGLISH) : null,
+					emptyToNull(connection.getHeaderField("ETag")),
+					emptyToNull(connection.getHeaderField("Last-Modified")));
+			responses.put(key, response);
+			return response;
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	private static String emptyToNull(final String value) {
+		return SUtils.isNullOrEmpty(value) ? null : value;
+	}
+
+	/**
+	 * Copies the prefix of the body and streams the remaining bytes only through the
+	 * digest, if one is passed
+	 *
+	 * @return true if the whole body fits into the prefix
+	 */
+	private static boolean read(final URLConnection connection, final ByteArrayOutputStream prefix,
+			final MessageDigest digest) throws IOException {
+		boolean complete = true;
+		try (final InputStream in = connection.getInputStream()) {
+			final byte[] buffer = new byte[BUFFER_SIZE];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				if (digest != null) {
+					digest.update(buffer, 0, read);
+				}
+				final int kept = Math.min(read, MAX_PREFIX_SIZE - prefix.size());
+				if (kept > 0) {
+					prefix.write(buffer, 0, kept);
+				}
+				if (kept < read) {
+					complete = false;
+					if (digest == null) {
+						break;
+					}
+				}
+			}
+		}
+		return complete;
+	}
+
+	void invalidateAll() {
+		responses.invalidateAll();
+	}
+}
@@ -0,0 +1,188 @@
+/**
+ * Copyright 2010-2017 interactive instruments GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.interactive_instruments.etf.webapp.controller;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+/**
+ * Runs the heavy initialization phases of the controllers in the background, so that
+ * the webapp can answer requests while the phases are executed.
+ *
+ * A phase may depend on other phases by name and is started after all of them
+ * completed. The state of all phases is reported by the {@link StatusController}.
+ *
+ * @author J. Herrmann ( herrmann <aT) interactive-instruments (doT> de )
+ */
+@Service
+public class StartupOrchestrator {
+
+	/**
+	 * Initialization task
+	 */
+	@FunctionalInterface
+	interface Task {
+		void run() throws Exception;
+	}
+
+	enum State {
+		PENDING, RUNNING, DONE, FAILED
+	}
+
+	private static final class Phase {
+		private final String name;
+		private final CompletableFuture<Void> completion = new CompletableFuture<>();
+		private volatile State state = State.PENDING;
+		private volatile long start;
+		private volatile long end;
+		private volatile String error;
+
+		private Phase(final String name) {
+			this.name = name;
+		}
+
+		@Override
+		public String toString() {
+			final StringBuilder builder = new StringBuilder(name).append(": ").append(state);
+			if (state == State.RUNNING) {
+				builder.append(" since ").append(System.currentTimeMillis() - start).append(" ms");
+			} else if (state == State.DONE) {
+				builder.append(" in ").append(end - start).append(" ms");
+			} else if (state == State.FAILED) {
+				builder.append(" (").append(error).append(')');
+			}
+			return builder.toString();
+		}
+	}
+
+	private final Map<String, Phase> phases = new LinkedHashMap<>();
+	private final ExecutorService executor;
+	private final Logger logger = LoggerFactory.getLogger(StartupOrchestrator.class);
+
+	public StartupOrchestrator() {
+		final AtomicInteger threadCount = new AtomicInteger();
+		executor = Executors.newFixedThreadPool(Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors())),
+				r -> {
+					final Thread thread = new Thread(r, "startup-" + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+	}
+
+	private synchronized Phase phase(final String name) {
+		return phases.computeIfAbsent(name, Phase::new);
+	}
+
+	/**
+	 * Starts a phase in the background
+	 *
+	 * @param name phase name
+	 * @param task initialization task
+	 * @param dependencies names of the phases that must be completed first
+	 * @return completion of the phase, which is completed exceptionally if the task or a dependency failed
+	 */
+	CompletableFuture<Void> submit(final String name, final Task task, final String... dependencies) {
+		final Phase phase = phase(name);
+		final CompletableFuture<?>[] required = new CompletableFuture<?>[dependencies.length];
+		for (int i = 0; i < dependencies.length; i++) {
+			required[i] = phase(dependencies[i]).completion;
+		}
+		CompletableFuture.allOf(required).thenRunAsync(() -> {
+			phase.start = System.currentTimeMillis();
+			phase.state = State.RUNNING;
+			try {
+				task.run();
+				phase.end = System.currentTimeMillis();
+				phase.state = State.DONE;
+				logger.info("Startup phase '{}' completed in {} ms", name, phase.end - phase.start);
+				phase.completion.complete(null);
+			} catch (final Exception e) {
+				fail(phase, e);
+			}
+		}, executor).exceptionally(e -> {
+			// a dependency failed
+			fail(phase, e);
+			return null;
+		});
+		return phase.completion;
+	}
+
+	private void fail(final Phase phase, final Throwable e) {
+		if (phase.state == State.FAILED) {
+			return;
+		}
+		phase.end = System.currentTimeMillis();
+		phase.error = e.getMessage();
+		phase.state = State.FAILED;
+		logger.error("Startup phase '{}' failed: ", phase.name, e);
+		phase.completion.completeExceptionally(e);
+	}
+
+	/**
+	 * @param name phase name
+	 * @return true if the phase has been completed successfully
+	 */
+	boolean isDone(final String name) {
+		return phase(name).state == State.DONE;
+	}
+
+	/**
+	 * @return true if no phase is pending or running
+	 */
+	synchronized boolean isCompleted() {
+		for (final Phase phase : phases.values()) {
+			if (phase.state == State.PENDING || phase.state == State.RUNNING) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return true if a phase failed
+	 */
+	synchronized boolean hasFailed() {
+		for (final Phase phase : phases.values()) {
+			if (phase.state == State.FAILED) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return state descriptions of all phases, in the order they have been registered
+	 */
+	synchronized List<String> getPhaseDescriptions() {
+		final List<String> descriptions = new ArrayList<>(phases.size());
+		for (final Phase phase : phases.values()) {
+			descriptions.add(phase.toString());
+		}
+		return descriptions;
+	}
+
+	@PreDestroy
+	private void shutdown() {
+		executor.shutdownNow();
+	}
+}
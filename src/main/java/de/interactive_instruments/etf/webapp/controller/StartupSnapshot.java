@@ -0,0 +1,140 @@
+/**
+ * Copyright 2010-2017 interactive instruments GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.interactive_instruments.etf.webapp.controller;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Response cache, that persists the serialized JSON responses for the Executable Test
+ * Suites and the metadata types across restarts. It does not contain the DTOs, the test
+ * drivers still load and parse the Executable Test Suites on every start, only
+ * serializing the responses is skipped.
+ *
+ * The snapshot is only used if its fingerprint, which is built from the hashes of the
+ * project files, the test drivers and the webapp version, matches. Otherwise it is
+ * discarded and rebuilt while the responses are prepared. As the benefit is small, the
+ * snapshot is disabled by default (etf.startup.snapshot).
+ *
+ * @author J. Herrmann ( herrmann <aT) interactive-instruments (doT> de )
+ */
+final class StartupSnapshot {
+
+	private static final int MAGIC = 0x45544653;
+	private static final int FORMAT_VERSION = 1;
+
+	private final File file;
+	private final String fingerprint;
+	private final Map<String, byte[]> entries = new ConcurrentHashMap<>();
+	private volatile boolean modified;
+	private final Logger logger = LoggerFactory.getLogger(StartupSnapshot.class);
+
+	private StartupSnapshot(final File file, final String fingerprint) {
+		this.file = file;
+		this.fingerprint = fingerprint;
+	}
+
+	/**
+	 * Reads the snapshot file, if it exists and matches the fingerprint
+	 *
+	 * @param file snapshot file
+	 * @param fingerprint expected fingerprint
+	 * @return snapshot, which is empty if the file is missing, invalid or outdated
+	 */
+	static StartupSnapshot open(final File file, final String fingerprint) {
+		final StartupSnapshot snapshot = new StartupSnapshot(file, fingerprint);
+		if (file.exists()) {
+			try (final DataInputStream in = new DataInputStream(
+					new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+				if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || !fingerprint.equals(in.readUTF())) {
+					snapshot.logger.info("Startup snapshot is outdated");
+					return snapshot;
+				}
+				final int count = in.readInt();
+				for (int i = 0; i < count; i++) {
+					final String key = in.readUTF();
+					final byte[] value = new byte[in.readInt()];
+					in.readFully(value);
+					snapshot.entries.put(key, value);
+				}
+				snapshot.logger.info("Startup snapshot with {} responses loaded", count);
+			} catch (final IOException e) {
+				snapshot.entries.clear();
+				snapshot.logger.warn("Ignoring invalid startup snapshot: {}", e.getMessage());
+			}
+		}
+		return snapshot;
+	}
+
+	byte[] get(final String key) {
+		return entries.get(key);
+	}
+
+	void put(final String key, final byte[] value) {
+		entries.put(key, value);
+		modified = true;
+	}
+
+	/**
+	 * Writes the snapshot atomically, if responses have been added
+	 */
+	void store() {
+		if (!modified) {
+			return;
+		}
+		final File tmp = new File(file.getPath() + ".tmp");
+		try {
+			try (final DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tmp))))) {
+				out.writeInt(MAGIC);
+				out.writeInt(FORMAT_VERSION);
+				out.writeUTF(fingerprint);
+				final Map<String, byte[]> copy = new HashMap<>(entries);
+				out.writeInt(copy.size());
+				for (final Map.Entry<String, byte[]> entry : copy.entrySet()) {
+					out.writeUTF(entry.getKey());
+					out.writeInt(entry.getValue().length);
+					out.write(entry.getValue());
+				}
+			}
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			modified = false;
+			logger.info("Startup snapshot with {} responses written", entries.size());
+		} catch (final IOException e) {
+			tmp.delete();
+			logger.warn("Could not write startup snapshot: {}", e.getMessage());
+		}
+	}
+
+	/**
+	 * Deletes the snapshot file, for instance after the projects have been changed at runtime
+	 */
+	void invalidate() {
+		entries.clear();
+		modified = false;
+		file.delete();
+	}
+}
@@ -56,6 +56,9 @@ public class StatusController {
 	@Autowired
 	private EtfConfigController config;
 
+	@Autowired
+	private StartupOrchestrator startup;
+
 	private final static String STATUS_DESCRIPTION = "Status MINOR indicates that "
 			+ "the service encounters an increased workload." +
 			" Status MAJOR indicates that framework internal errors "
@@ -144,6 +147,7 @@ public class StatusController {
 	public void init() throws IOException, JAXBException, MissingPropertyException {
 		tdDir = config.getPropertyAsFile(EtfConfigController.ETF_TESTDATA_DIR);
 		mbean = (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+		watch();
 		logger.info("Status controller initialized!");
 	}
 
@@ -162,6 +166,18 @@ public class StatusController {
 
 	private final static int updateInterval = 20000;
 
+	// while starting, the status is updated more frequently
+	private final static int startingUpdateInterval = 2000;
+
+	private volatile boolean starting = true;
+
+	@Scheduled(fixedDelay = startingUpdateInterval)
+	public void watchStartup() {
+		if (starting) {
+			watch();
+		}
+	}
+
 	@Scheduled(fixedDelay = updateInterval)
 	public void watch() {
 
@@ -193,9 +209,22 @@ public class StatusController {
 			}
 		}
 
+		// Report the initialization phases until all are completed
+		if (!startup.isCompleted()) {
+			statusWarningMessages.addAll(startup.getPhaseDescriptions());
+			if (status != ServiceStatus.MAJOR) {
+				status = ServiceStatus.STARTING;
+			}
+		} else if (startup.hasFailed()) {
+			statusWarningMessages.addAll(startup.getPhaseDescriptions());
+			status = ServiceStatus.MAJOR;
+		}
+
 		final long modified = System.currentTimeMillis();
 		final long expires;
-		if (status == ServiceStatus.GOOD) {
+		if (status == ServiceStatus.STARTING) {
+			expires = modified + startingUpdateInterval;
+		} else if (status == ServiceStatus.GOOD) {
 			expires = modified + updateInterval * 8;
 		} else if (status == ServiceStatus.MINOR) {
 			expires = modified + updateInterval * 4;
@@ -203,6 +232,7 @@ public class StatusController {
 			expires = modified + updateInterval * 2;
 		}
 
+		starting = status == ServiceStatus.STARTING;
 		final ServiceStatus finalStatus = status;
 		serviceStatusHeaders.set(new HttpHeaders() {
 			{
@@ -18,6 +18,8 @@ package de.interactive_instruments.etf.webapp.controller;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.List;
 
 import javax.annotation.PostConstruct;
 import javax.servlet.ServletOutputStream;
@@ -36,8 +38,8 @@ import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
 
 import de.interactive_instruments.etf.dal.dao.Dao;
-import de.interactive_instruments.etf.dal.dao.Filter;
 import de.interactive_instruments.etf.dal.dto.Dto;
+import de.interactive_instruments.etf.model.EID;
 import de.interactive_instruments.etf.model.EidFactory;
 import de.interactive_instruments.etf.model.OutputFormat;
 import de.interactive_instruments.etf.webapp.conversion.EidConverter;
@@ -58,8 +60,15 @@ public class StreamingService {
 
 	private ObjectMapper mapper;
 
+	static final String NEXT_CURSOR_HEADER = "Next-Cursor";
+
+	private final KeysetPager keysetPager = new KeysetPager();
+
 	private Cache<String, byte[]> bigResponseCache = Caffeine.newBuilder().maximumSize(
 			PropertyUtils.getenvOrProperty("ETF_STREAMING_CACHE_SIZE",30)).build();
+	// Next cursors of the cached pages, an empty string for the last page
+	private Cache<String, String> nextCursors = Caffeine.newBuilder().maximumSize(
+			PropertyUtils.getenvOrProperty("ETF_STREAMING_CACHE_SIZE",30)).build();
 
 	@PostConstruct
 	void init() throws Exception {
@@ -67,17 +76,73 @@ public class StreamingService {
 	}
 
 	void asXml2(
-			final Dao<? extends Dto> dao, final HttpServletRequest request, final HttpServletResponse response, final Filter filter)
-			throws IOException, ObjectWithIdNotFoundException, StorageException {
+			final Dao<? extends Dto> dao, final HttpServletRequest request, final HttpServletResponse response,
+			final SimpleFilter filter)
+			throws IOException, ObjectWithIdNotFoundException, StorageException, LocalizableApiError {
 		if (CacheControl.clientNeedsUpdate(dao, request, response)) {
+			final CursorPage page = cursorPage(dao, filter, response);
 			final ServletOutputStream out = response.getOutputStream();
 			response.setContentType(MediaType.TEXT_XML_VALUE);
 			final OutputFormat xml = dao.getOutputFormats()
 					.get(EidFactory.getDefault().createUUID(dao.getDtoType().getSimpleName() + "DsResult2Xml"));
-			dao.getAll(filter).streamTo(xml, null, out);
+			if (page != null) {
+				if (page.getIds().isEmpty()) {
+					out.write(ItemOrder.EMPTY_XML_COLLECTION);
+				} else {
+					try (ByteArrayOutputStream byteCache = new ByteArrayOutputStream()) {
+						dao.getByIds(new LinkedHashSet<>(page.getIds()),
+								new SimpleFilter(0, page.getIds().size(), filter.fields())).streamTo(xml, null, byteCache);
+						ItemOrder.orderXml(byteCache.toByteArray(), page.getIds(), out);
+					}
+				}
+			} else {
+				dao.getAll(filter).streamTo(xml, null, out);
+			}
 		}
 	}
 
+	/**
+	 * Updates the cursor index after an item has been added or replaced
+	 *
+	 * @param dao modified Dao
+	 * @param dto stored item
+	 */
+	void itemStored(final Dao<? extends Dto> dao, final Dto dto) {
+		keysetPager.put(dao, dto);
+	}
+
+	/**
+	 * Updates the cursor index after an item has been deleted
+	 *
+	 * @param dao modified Dao
+	 * @param id ID of the deleted item
+	 */
+	void itemDeleted(final Dao<? extends Dto> dao, final EID id) {
+		keysetPager.remove(dao, id);
+	}
+
+	/**
+	 * Resolves the page of a cursor and sets the cursor of the next page in the response header
+	 *
+	 * @return the page or null if no cursor is set
+	 */
+	private CursorPage cursorPage(final Dao<? extends Dto> dao, final SimpleFilter filter,
+			final HttpServletResponse response) throws StorageException, LocalizableApiError {
+		if (filter.cursor() == null) {
+			return null;
+		}
+		final CursorPage page;
+		try {
+			page = keysetPager.page(dao, filter);
+		} catch (final IllegalArgumentException e) {
+			throw new LocalizableApiError("l.invalid.cursor", false, HttpServletResponse.SC_BAD_REQUEST, e);
+		}
+		if (page.getNextCursor() != null) {
+			response.setHeader(NEXT_CURSOR_HEADER, page.getNextCursor());
+		}
+		return page;
+	}
+
 	void asXml2(
 			final Dao<? extends Dto> dao, final HttpServletRequest request, final HttpServletResponse response, final String id)
 			throws IOException, ObjectWithIdNotFoundException, StorageException {
@@ -90,22 +155,92 @@ public class StreamingService {
 		}
 	}
 
-	private static String keyFor(final Dao<? extends Dto> dao, final Filter filter) {
-		final StringBuilder k = new StringBuilder(dao.getId());
-		k.append(".").append(dao.getLastModificationDate());
-		k.append(".").append(filter.offset());
+	/**
+	 * Streams the objects with the passed IDs in the order of the IDs, used for pages that
+	 * have been selected by predicates which are not supported by the Dao filter.
+	 */
+	void asXml2(
+			final Dao<? extends Dto> dao, final HttpServletRequest request, final HttpServletResponse response,
+			final List<EID> ids)
+			throws IOException, ObjectWithIdNotFoundException, StorageException {
+		if (CacheControl.clientNeedsUpdate(dao, request, response)) {
+			final ServletOutputStream out = response.getOutputStream();
+			response.setContentType(MediaType.TEXT_XML_VALUE);
+			if (ids.isEmpty()) {
+				out.write(ItemOrder.EMPTY_XML_COLLECTION);
+				return;
+			}
+			final OutputFormat xml = dao.getOutputFormats()
+					.get(EidFactory.getDefault().createUUID(dao.getDtoType().getSimpleName() + "DsResult2Xml"));
+			try (ByteArrayOutputStream byteCache = new ByteArrayOutputStream()) {
+				dao.getByIds(new LinkedHashSet<>(ids), new SimpleFilter(0, ids.size())).streamTo(xml, null, byteCache);
+				ItemOrder.orderXml(byteCache.toByteArray(), ids, out);
+			}
+		}
+	}
+
+	private static String keyFor(final Dao<? extends Dto> dao, final SimpleFilter filter) {
+		return dao.getId() + "." + dao.getLastModificationDate() + pageKeyFor(filter);
+	}
+
+	private static String pageKeyFor(final SimpleFilter filter) {
+		final StringBuilder k = new StringBuilder();
+		if (filter.cursor() != null) {
+			k.append(".c").append(filter.cursor());
+		} else {
+			k.append(".").append(filter.offset());
+		}
 		k.append(".").append(filter.limit());
 		k.append(".").append(filter.fields());
 		return k.toString();
 	}
 
-	public void prepareCache(final Dao<? extends Dto> dao, final Filter filter) {
+	/**
+	 * Derives the partial response from a cached complete response of the same page
+	 *
+	 * @return partial response or null if no complete response is cached
+	 */
+	private byte[] projectFromCachedResponse(final Dao<? extends Dto> dao, final SimpleFilter filter) {
+		final byte[] complete = bigResponseCache.getIfPresent(keyFor(dao, filter.withAllFields()));
+		if (complete != null) {
+			try {
+				return JsonProjection.project(mapper, complete, filter.fieldNames());
+			} catch (final IOException e) {
+				ExcUtils.suppress(e);
+			}
+		}
+		return null;
+	}
+
+	public void prepareCache(final Dao<? extends Dto> dao, final SimpleFilter filter) {
+		prepareCache(dao, filter, null);
+	}
+
+	/**
+	 * Prepares the cache with the response from a startup snapshot. If the snapshot does
+	 * not contain the response, the response is created and added to the snapshot.
+	 *
+	 * @param dao Dao
+	 * @param filter filter of the response
+	 * @param snapshot valid startup snapshot or null
+	 */
+	void prepareCache(final Dao<? extends Dto> dao, final SimpleFilter filter, final StartupSnapshot snapshot) {
+		final String snapshotKey = dao.getId() + pageKeyFor(filter);
+		final byte[] restored = snapshot != null ? snapshot.get(snapshotKey) : null;
+		if (restored != null) {
+			bigResponseCache.put(keyFor(dao, filter), restored);
+			return;
+		}
 		try (ByteArrayOutputStream byteCache = new ByteArrayOutputStream()) {
 			try {
 				final OutputFormat json = dao.getOutputFormats().get(
 						EidFactory.getDefault().createUUID(dao.getDtoType().getSimpleName() + "DsResult2Json"));
 				dao.getAll(filter).streamTo(json, null, byteCache);
-				bigResponseCache.put(keyFor(dao, filter), byteCache.toByteArray());
+				final byte[] prepared = byteCache.toByteArray();
+				bigResponseCache.put(keyFor(dao, filter), prepared);
+				if (snapshot != null) {
+					snapshot.put(snapshotKey, prepared);
+				}
 			} catch (StorageException | IOException e) {
 				ExcUtils.suppress(e);
 			}
@@ -115,25 +250,58 @@ public class StreamingService {
 	}
 
 	void asJson2(
-			final Dao<? extends Dto> dao, final HttpServletRequest request, final HttpServletResponse response, final Filter filter)
-			throws IOException, ObjectWithIdNotFoundException, StorageException {
+			final Dao<? extends Dto> dao, final HttpServletRequest request, final HttpServletResponse response,
+			final SimpleFilter filter)
+			throws IOException, ObjectWithIdNotFoundException, StorageException, LocalizableApiError {
 		if (CacheControl.clientNeedsUpdate(dao, request, response)) {
-			final ServletOutputStream out = response.getOutputStream();
-			response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
-
 			// Check if response is in cache
 			final String k = keyFor(dao, filter);
 			byte[] preparedResponse = bigResponseCache.getIfPresent(k);
+			if (preparedResponse == null && !"*".equals(filter.fields())) {
+				preparedResponse = projectFromCachedResponse(dao, filter);
+				if (preparedResponse != null) {
+					bigResponseCache.put(k, preparedResponse);
+				}
+			}
+			// The page is only resolved, if the response or its next cursor is not cached
+			final String cachedNextCursor = filter.cursor() != null && preparedResponse != null
+					? nextCursors.getIfPresent(k)
+					: null;
+			final CursorPage page;
+			if (cachedNextCursor != null) {
+				page = null;
+				if (!cachedNextCursor.isEmpty()) {
+					response.setHeader(NEXT_CURSOR_HEADER, cachedNextCursor);
+				}
+			} else {
+				page = cursorPage(dao, filter, response);
+			}
+			final ServletOutputStream out = response.getOutputStream();
+			response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+
 			if (preparedResponse == null) {
 				// save in cache
 				try (ByteArrayOutputStream byteCache = new ByteArrayOutputStream()) {
 					final OutputFormat json = dao.getOutputFormats()
 							.get(EidFactory.getDefault().createUUID(dao.getDtoType().getSimpleName() + "DsResult2Json"));
-					dao.getAll(filter).streamTo(json, null, byteCache);
-					preparedResponse = byteCache.toByteArray();
+					if (page != null) {
+						if (!page.getIds().isEmpty()) {
+							dao.getByIds(new LinkedHashSet<>(page.getIds()),
+									new SimpleFilter(0, page.getIds().size(), filter.fields())).streamTo(json, null, byteCache);
+							preparedResponse = ItemOrder.orderJson(mapper, byteCache.toByteArray(), page.getIds());
+						} else {
+							preparedResponse = ItemOrder.EMPTY_JSON_COLLECTION;
+						}
+					} else {
+						dao.getAll(filter).streamTo(json, null, byteCache);
+						preparedResponse = byteCache.toByteArray();
+					}
 					bigResponseCache.put(k, preparedResponse);
 				}
 			}
+			if (page != null) {
+				nextCursors.put(k, page.getNextCursor() != null ? page.getNextCursor() : "");
+			}
 			try (ByteArrayInputStream byteStream = new ByteArrayInputStream(preparedResponse)) {
 				IOUtils.copy(byteStream, out);
 			}
@@ -152,6 +320,30 @@ public class StreamingService {
 		}
 	}
 
+	/**
+	 * Streams the objects with the passed IDs in the order of the IDs, used for pages that
+	 * have been selected by predicates which are not supported by the Dao filter.
+	 */
+	void asJson2(
+			final Dao<? extends Dto> dao, final HttpServletRequest request, final HttpServletResponse response,
+			final List<EID> ids)
+			throws IOException, ObjectWithIdNotFoundException, StorageException {
+		if (CacheControl.clientNeedsUpdate(dao, request, response)) {
+			final ServletOutputStream out = response.getOutputStream();
+			response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+			if (ids.isEmpty()) {
+				out.write(ItemOrder.EMPTY_JSON_COLLECTION);
+				return;
+			}
+			final OutputFormat json = dao.getOutputFormats()
+					.get(EidFactory.getDefault().createUUID(dao.getDtoType().getSimpleName() + "DsResult2Json"));
+			try (ByteArrayOutputStream byteCache = new ByteArrayOutputStream()) {
+				dao.getByIds(new LinkedHashSet<>(ids), new SimpleFilter(0, ids.size())).streamTo(json, null, byteCache);
+				out.write(ItemOrder.orderJson(mapper, byteCache.toByteArray(), ids));
+			}
+		}
+	}
+
 	void asJson2(
 			final Dto dto, final HttpServletResponse response)
 			throws IOException, ObjectWithIdNotFoundException, StorageException {
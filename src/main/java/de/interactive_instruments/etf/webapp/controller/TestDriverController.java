@@ -17,9 +17,13 @@ package de.interactive_instruments.etf.webapp.controller;
 
 import static de.interactive_instruments.etf.EtfConstants.ETF_DATA_STORAGE_NAME;
 
-import java.util.Collection;
-import java.util.Date;
-import java.util.Set;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BooleanSupplier;
 import java.util.stream.Collectors;
 
 import javax.annotation.PostConstruct;
@@ -35,6 +39,8 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RestController;
 
+import de.interactive_instruments.IFile;
+import de.interactive_instruments.etf.EtfConstants;
 import de.interactive_instruments.etf.component.ComponentInfo;
 import de.interactive_instruments.etf.component.ComponentLoadingException;
 import de.interactive_instruments.etf.dal.dao.*;
@@ -68,10 +74,27 @@ public class TestDriverController implements PreparedDtoResolver<ExecutableTestS
 	@Autowired
 	private DataStorageService dataStorageService;
 
-	private TestDriverManager driverManager;
+	@Autowired
+	private StartupOrchestrator startup;
+
+	static final String ETS_PREPARATION_PHASE = "Executable Test Suite preparation";
+	static final String METADATA_PHASE = "Metadata types";
+	static final String TEST_DRIVER_PHASE = "Test Drivers";
+	static final String SNAPSHOT_PHASE = "Startup snapshot";
+
+	// set after all test drivers have been loaded
+	private volatile TestDriverManager driverManager;
 	private MetadataTypeLoader metadataTypeLoader;
 	private Dao<ExecutableTestSuiteDto> etsDao;
 	private Dao<TestObjectTypeDto> testObjectTypesDao;
+	private EtsSynchronizer etsSynchronizer;
+	private volatile StartupSnapshot startupSnapshot;
+	// all loaded ETS, replaced after each (re)import
+	private volatile EtsCatalogue catalogue = EtsCatalogue.EMPTY;
+	// Test Runs are created with the read lock, the test drivers reload with the write lock
+	private final ReadWriteLock reloadLock = new ReentrantReadWriteLock();
+	// set by the Test Run controller
+	private volatile BooleanSupplier activeTestRuns = () -> false;
 	private final Logger logger = LoggerFactory.getLogger(TestDriverController.class);
 
 	private static final Filter FILTER_GET_ALL = new Filter() {
@@ -92,28 +115,95 @@ public class TestDriverController implements PreparedDtoResolver<ExecutableTestS
 	public void init()
 			throws ConfigurationException, InvalidStateTransitionException, InitializationException, StorageException {
 
-		// Metadata need to be initialized first
-		metadataTypeLoader = new MetadataTypeLoader(dataStorageService.getDataStorage());
-		metadataTypeLoader.getConfigurationProperties().setPropertiesFrom(etfConfig, true);
-		metadataTypeLoader.init();
-
 		etsDao = dataStorageService.getDataStorage().getDao(ExecutableTestSuiteDto.class);
-		// Delete existing ETS
+		testObjectTypesDao = dataStorageService.getDataStorage().getDao(TestObjectTypeDto.class);
+		final IFile etsStateDir = etfConfig.getPropertyAsFile(EtfConstants.ETF_DATASOURCE_DIR).expandPath("ets");
+		etsStateDir.ensureDir();
+		etsSynchronizer = new EtsSynchronizer(etfConfig.getPropertyAsFile(EtfConstants.ETF_PROJECTS_DIR).toPath(),
+				etsStateDir.secureExpandPathDown("projects.manifest"), etsDao, FILTER_GET_ALL);
+
+		// Delete only the ETS that changed since the last start
+		startup.submit(ETS_PREPARATION_PHASE, () -> {
+			try {
+				etsSynchronizer.prepare();
+			} catch (Exception e) {
+				logger.warn("Failed to clean Executable Test Suites ", e);
+			}
+		});
+		// Metadata need to be initialized first. Not run concurrently with the preparation,
+		// as both write to the data storage.
+		startup.submit(METADATA_PHASE, () -> {
+			metadataTypeLoader = new MetadataTypeLoader(dataStorageService.getDataStorage());
+			metadataTypeLoader.getConfigurationProperties().setPropertiesFrom(etfConfig, true);
+			metadataTypeLoader.init();
+		}, ETS_PREPARATION_PHASE);
+		startup.submit(TEST_DRIVER_PHASE, this::loadTestDrivers, ETS_PREPARATION_PHASE, METADATA_PHASE);
+		startup.submit(SNAPSHOT_PHASE, () -> {
+			if (startupSnapshot != null) {
+				startupSnapshot.store();
+			}
+		}, EtsController.ETS_CACHE_PHASE, MetaTypeController.METADATA_CACHE_PHASE);
+	}
+
+	/**
+	 * Opens the cache of the serialized responses, which is only valid if neither the
+	 * projects, nor the test drivers, nor the webapp have been changed
+	 */
+	private void openStartupSnapshot(final IFile etsStateDir) {
+		if (!"true".equals(etfConfig.getProperty(EtfConfigController.ETF_STARTUP_SNAPSHOT))) {
+			return;
+		}
+		final String projectsDigest = etsSynchronizer.getDigest();
+		if (projectsDigest == null) {
+			return;
+		}
 		try {
-			final PreparedDtoCollection<ExecutableTestSuiteDto> all = etsDao.getAll(FILTER_GET_ALL);
-			((WriteDao) etsDao).deleteAll(all.keySet());
-		} catch (Exception e) {
-			logger.warn("Failed to clean Executable Test Suites ", e);
+			final String testDriversDigest = testDriversDigest(etsStateDir);
+			startupSnapshot = StartupSnapshot.open(etsStateDir.secureExpandPathDown("startup.snapshot"),
+					etfConfig.getVersion() + ":" + projectsDigest + ":" + testDriversDigest);
+		} catch (final IOException e) {
+			logger.warn("Startup snapshot not available: {}", e.getMessage());
 		}
+	}
+
+	/**
+	 * Hashes the test drivers directory. Like the projects directory, only files whose size
+	 * or modification time changed since the last start are hashed again.
+	 */
+	private String testDriversDigest(final IFile etsStateDir) throws IOException {
+		final Path testDriversDir = etfConfig.getPropertyAsFile(EtfConstants.ETF_TESTDRIVERS_DIR).toPath();
+		final IFile manifestFile = etsStateDir.secureExpandPathDown("testdrivers.manifest");
+		ProjectsManifest previous = null;
+		try {
+			previous = ProjectsManifest.load(testDriversDir, manifestFile);
+		} catch (final IOException e) {
+			logger.warn("Ignoring unreadable test drivers manifest: {}", e.getMessage());
+		}
+		final ProjectsManifest current = ProjectsManifest.scan(testDriversDir, previous);
+		current.store(manifestFile);
+		return current.digest();
+	}
+
+	/**
+	 * @return snapshot of the prepared responses, null if disabled or outdated at runtime
+	 */
+	StartupSnapshot getStartupSnapshot() {
+		return startupSnapshot;
+	}
 
+	private void loadTestDrivers() throws ConfigurationException, InvalidStateTransitionException,
+			InitializationException, StorageException, ComponentLoadingException {
 		// Initialize test driver
-		driverManager = TestDriverManager.getDefault();
-		driverManager.getConfigurationProperties().setPropertiesFrom(etfConfig, true);
-		driverManager.getConfigurationProperties().setProperty(ETF_DATA_STORAGE_NAME, "default");
-		driverManager.init();
-		driverManager.loadAll();
+		final TestDriverManager manager = TestDriverManager.getDefault();
+		manager.getConfigurationProperties().setPropertiesFrom(etfConfig, true);
+		manager.getConfigurationProperties().setProperty(ETF_DATA_STORAGE_NAME, "default");
+		manager.init();
+		manager.loadAll();
+		etsSynchronizer.commit();
+		refreshExecutableTestSuites();
+		openStartupSnapshot(etfConfig.getPropertyAsFile(EtfConstants.ETF_DATASOURCE_DIR).expandPath("ets"));
+		driverManager = manager;
 
-		testObjectTypesDao = dataStorageService.getDataStorage().getDao(TestObjectTypeDto.class);
 		logger.info("Test Driver service initialized");
 		if (driverManager.getTestDriverInfo().isEmpty()) {
 			logger.warn("No Test Driver loaded");
@@ -122,21 +212,132 @@ public class TestDriverController implements PreparedDtoResolver<ExecutableTestS
 				logger.info("Loaded Test Driver {} - {} ({})", componentInfo.getName(),
 						componentInfo.getVersion(), componentInfo.getId());
 			}
-			if (getExecutableTestSuites().size() == 0) {
+			final int etsCount = catalogue.size();
+			if (etsCount == 0) {
 				logger.warn("No Executable Test Suites loaded");
 			} else {
-				logger.info("{} Executable Test Suites loaded", getExecutableTestSuites().size());
+				logger.info("{} Executable Test Suites loaded", etsCount);
+			}
+		}
+
+		if ("true".equals(etfConfig.getProperty(EtfConfigController.ETF_PROJECTS_WATCH))) {
+			try {
+				etsSynchronizer.watch(Long.valueOf(etfConfig.getProperty(EtfConfigController.ETF_PROJECTS_WATCH_DELAY)),
+						() -> {
+							if (!lockForReload()) {
+								logger.info("Reloading Executable Test Suites deferred until no Test Runs are active");
+								return false;
+							}
+							try {
+								synchronizeExecutableTestSuites();
+							} catch (final Exception e) {
+								logger.error("Reloading Executable Test Suites failed: ", e);
+							} finally {
+								reloadLock.writeLock().unlock();
+							}
+							return true;
+						});
+			} catch (final IOException e) {
+				logger.warn("Projects directory can not be watched: {}", e.getMessage());
 			}
 		}
+	}
 
+	/**
+	 * Fails if the test drivers are still being loaded
+	 *
+	 * @throws LocalizableApiError with status 503 if the test drivers are not loaded yet
+	 */
+	void ensureLoaded() throws LocalizableApiError {
+		if (driverManager == null) {
+			throw new LocalizableApiError("l.service.starting", false, 503);
+		}
 	}
 
 	@PreDestroy
 	private void shutdown() {
-		driverManager.release();
+		etsSynchronizer.release();
+		if (driverManager != null) {
+			driverManager.release();
+		}
+	}
+
+	/**
+	 * Sets the check for active Test Runs, while Test Runs are active the test drivers
+	 * are not reloaded
+	 *
+	 * @param activeTestRuns returns true if Test Runs are active
+	 */
+	void setActiveTestRunsCheck(final BooleanSupplier activeTestRuns) {
+		this.activeTestRuns = activeTestRuns;
+	}
+
+	/**
+	 * Returns the lock that must be held while a Test Run is created and submitted, so
+	 * the test drivers are not reloaded in between
+	 *
+	 * @return shared lock
+	 */
+	Lock testRunCreationLock() {
+		return reloadLock.readLock();
+	}
+
+	/**
+	 * Acquires the exclusive reload lock, if no Test Run is being created or active
+	 *
+	 * @return true if the lock has been acquired and must be released after the reload
+	 */
+	private boolean lockForReload() {
+		if (!reloadLock.writeLock().tryLock()) {
+			return false;
+		}
+		if (activeTestRuns.getAsBoolean()) {
+			reloadLock.writeLock().unlock();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Deletes the ETS, whose files have been modified, and lets the test drivers import them
+	 * again. Nothing is imported if the projects directory has not been modified. Must be
+	 * called with the reload lock.
+	 *
+	 * @return true if the ETS have been reloaded
+	 */
+	private synchronized boolean synchronizeExecutableTestSuites()
+			throws IOException, StorageException, ConfigurationException, ComponentLoadingException {
+		if (etsSynchronizer.prepare() == 0) {
+			return false;
+		}
+		if (startupSnapshot != null) {
+			startupSnapshot.invalidate();
+			startupSnapshot = null;
+		}
+		driverManager.loadAll();
+		etsSynchronizer.commit();
+		refreshExecutableTestSuites();
+		logger.info("{} Executable Test Suites loaded", catalogue.size());
+		return true;
+	}
+
+	/**
+	 * Rebuilds the ETS catalogue, after the ETS have been (re)imported
+	 */
+	private void refreshExecutableTestSuites() throws StorageException {
+		catalogue = EtsCatalogue.build(etsDao.getAll(FILTER_GET_ALL).asCollection());
+	}
+
+	/**
+	 * @return catalogue of all loaded ETS
+	 */
+	EtsCatalogue getCatalogue() {
+		return catalogue;
 	}
 
-	TestRun create(TestRunDto testRunDto) throws IncompleteDtoException, TestRunInitializationException {
+	TestRun create(TestRunDto testRunDto)
+			throws IncompleteDtoException, TestRunInitializationException, LocalizableApiError {
+		ensureLoaded();
 		testRunDto.setStartTimestamp(new Date());
 		testRunDto.setDefaultLang(LocaleContextHolder.getLocale().getLanguage());
 		testRunDto.ensureBasicValidity();
@@ -147,11 +348,18 @@ public class TestDriverController implements PreparedDtoResolver<ExecutableTestS
 	}
 
 	Collection<ExecutableTestSuiteDto> getExecutableTestSuites() throws ConfigurationException, StorageException {
-		return etsDao.getAll(FILTER_GET_ALL).asCollection();
+		return catalogue.getExecutableTestSuites();
 	}
 
+	/**
+	 * Returns an Executable Test Suite for a Test Run
+	 *
+	 * @param id ID of the Executable Test Suite
+	 * @return a copy, that is not shared with other Test Runs
+	 */
 	ExecutableTestSuiteDto getExecutableTestSuiteById(final EID id) throws StorageException, ObjectWithIdNotFoundException {
-		return etsDao.getById(id).getDto();
+		final EtsCatalogue.Entry entry = catalogue.get(id);
+		return entry != null ? entry.copyOfExecutableTestSuite() : etsDao.getById(id).getDto();
 	}
 
 	@Override
@@ -171,24 +379,34 @@ public class TestDriverController implements PreparedDtoResolver<ExecutableTestS
 	}
 
 	public Collection<ComponentDto> getTestDriverInfo() {
+		if (driverManager == null) {
+			return Collections.emptyList();
+		}
 		return driverManager.getTestDriverInfo().stream().map(ComponentDto::new).collect(Collectors.toList());
 	}
 
 	@RequestMapping(value = {MetaTypeController.COMPONENTS_URL}, params = "action=reload", method = RequestMethod.GET)
 	public ResponseEntity<String> reloadAll() throws LocalizableApiError {
-		if (!driverManager.getTestDriverInfo().isEmpty()) {
-			return new ResponseEntity("Operation not permitted if a test driver has already been loaded!",
-					HttpStatus.FORBIDDEN);
-		} else {
-			try {
+		ensureLoaded();
+		if (!lockForReload()) {
+			throw new LocalizableApiError("l.reload.testruns.active", false, HttpStatus.CONFLICT.value());
+		}
+		try {
+			if (driverManager.getTestDriverInfo().isEmpty()) {
 				driverManager.loadAll();
-			} catch (ConfigurationException e) {
-				new LocalizableApiError(e);
-			} catch (ComponentLoadingException e) {
-				new LocalizableApiError(e);
+				etsSynchronizer.commit();
+				refreshExecutableTestSuites();
+			} else {
+				synchronizeExecutableTestSuites();
 			}
-			return new ResponseEntity("OK", HttpStatus.NO_CONTENT);
+		} catch (ComponentLoadingException e) {
+			throw new LocalizableApiError(e);
+		} catch (ConfigurationException | IOException | StorageException e) {
+			throw new LocalizableApiError(false, 500, e);
+		} finally {
+			reloadLock.writeLock().unlock();
 		}
+		return new ResponseEntity("OK", HttpStatus.NO_CONTENT);
 	}
 
 }
@@ -47,6 +47,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.propertyeditors.CustomDateEditor;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.web.bind.WebDataBinder;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
@@ -97,12 +98,17 @@ public class TestObjectController implements PreparedDtoResolver<TestObjectDto>
 
 	public static final String PATH = "testobjects";
 	private final static String TESTOBJECTS_URL = WebAppConstants.API_BASE_URL + "/TestObjects";
+	private final static String UPLOADS_URL = TESTOBJECTS_URL + "/Uploads";
 	// 7 minutes for adding resources
 	private static final long T_CREATION_WINDOW = 7;
 	private IFile testDataDir;
 	private IFile tmpUploadDir;
 	private final Logger logger = LoggerFactory.getLogger(TestObjectController.class);
 	private FileStorage fileStorage;
+	private ChunkedUploads chunkedUploads;
+	private BlobStore blobStore;
+	// 6 hours
+	private static final long BLOB_SWEEP_INTERVAL = 6 * 60 * 60 * 1000;
 	private FileContentFilterHolder baseFilter;
 	private WriteDao<TestObjectDto> testObjectDao;
 	private final Cache<EID, TestObjectDto> transientTestObjects = Caffeine.newBuilder().expireAfterWrite(
@@ -122,6 +128,8 @@ public class TestObjectController implements PreparedDtoResolver<TestObjectDto>
 	@PreDestroy
 	private void shutdown() {
 		testObjectDao.release();
+		fileStorage.release();
+		chunkedUploads.release();
 	}
 
 	private static class GmlAtomFilter implements FileContentFilterHolder {
@@ -155,7 +163,23 @@ public class TestObjectController implements PreparedDtoResolver<TestObjectDto>
 		baseFilter = new GmlAtomFilter();
 
 		// TODO provide file storages for each Test Object Type
-		fileStorage = new FileStorage(testDataDir, tmpUploadDir, baseFilter);
+		final ParallelDownloader downloader = new ParallelDownloader(
+				Integer.valueOf(etfConfig.getProperty(EtfConfigController.ETF_TESTDATA_DOWNLOAD_CONNECTIONS_PER_HOST)),
+				Integer.valueOf(etfConfig.getProperty(EtfConfigController.ETF_TESTDATA_DOWNLOAD_RETRIES)));
+		if ("true".equals(etfConfig.getProperty(EtfConfigController.ETF_TESTDATA_DEDUPLICATION))) {
+			blobStore = new BlobStore(testDataDir.secureExpandPathDown(BlobStore.DIR_NAME));
+		}
+		final RemoteDataCache remoteDataCache;
+		if ("true".equals(etfConfig.getProperty(EtfConfigController.ETF_TESTDATA_DOWNLOAD_CACHE))) {
+			remoteDataCache = new RemoteDataCache(testDataDir.secureExpandPathDown(RemoteDataCache.DIR_NAME));
+		} else {
+			remoteDataCache = null;
+		}
+		fileStorage = new FileStorage(testDataDir, tmpUploadDir, baseFilter,
+				Integer.valueOf(etfConfig.getProperty(EtfConfigController.ETF_TESTDATA_UPLOAD_THREADS)), downloader,
+				blobStore, remoteDataCache);
+		chunkedUploads = new ChunkedUploads(tmpUploadDir,
+				Long.valueOf(etfConfig.getProperty(EtfConfigController.ETF_TESTDATA_UPLOAD_SESSION_EXPIRATION)));
 
 		logger.info("TMP_HTTP_UPLOADS: " + tmpUploadDir.getAbsolutePath());
 
@@ -164,6 +188,16 @@ public class TestObjectController implements PreparedDtoResolver<TestObjectDto>
 		logger.info("Test Object controller initialized!");
 	}
 
+	@Scheduled(fixedDelay = BLOB_SWEEP_INTERVAL, initialDelay = BLOB_SWEEP_INTERVAL)
+	public void sweepBlobs() {
+		if (blobStore != null) {
+			final long freed = blobStore.sweep();
+			if (freed > 0) {
+				logger.info("Removed unused test data, freed {}", FileUtils.byteCountToDisplaySize(freed));
+			}
+		}
+	}
+
 	Collection<TestObjectDto> getTestObjects() throws StorageException {
 		return testObjectDao.getAll(null).asCollection();
 	}
@@ -219,8 +253,8 @@ public class TestObjectController implements PreparedDtoResolver<TestObjectDto>
 					throw new LocalizableApiError("l.rejected.private.subnet.access", false, 403);
 				}
 			}
-			hash = UriUtils.hashFromContent(serviceEndpoint,
-					Credentials.fromProperties(testObject.properties()));
+			// The response prefix is reused by the classification of the service endpoint
+			hash = testObjectTypeController.serviceResponse(serviceEndpoint, testObject, true).getHash();
 		} catch (IllegalArgumentException | IOException e) {
 			throw new LocalizableApiError("l.invalid.url", e);
 		}
@@ -231,7 +265,8 @@ public class TestObjectController implements PreparedDtoResolver<TestObjectDto>
 	}
 
 	private TestObjectDto createWithFileResources(final TestObjectDto testObject,
-			final Collection<List<MultipartFile>> uploadFiles) throws IOException, LocalizableApiError {
+			final Collection<? extends FileStorage.UploadSource> uploadFiles, final ParallelDownloader.Progress progress)
+			throws IOException, LocalizableApiError {
 		// Regex
 		final String regex = testObject.properties().getProperty("regex");
 		final MultiFileFilter combinedFileFilter;
@@ -247,6 +282,8 @@ public class TestObjectController implements PreparedDtoResolver<TestObjectDto>
 		final IFile testObjectDir;
 		final URI resURI = testObject.getResourceByName("data");
 		final String resourceName;
+		// Files that are stored by the file storage are hashed while they are written
+		final FileStats v;
 		if (resURI != null) {
 			if (UriUtils.isFile(resURI)) {
 				// Relative path in test object directory
@@ -254,18 +291,28 @@ public class TestObjectController implements PreparedDtoResolver<TestObjectDto>
 						resURI.getPath());
 				testObjectDir.expectDirIsReadable();
 				resourceName = "data";
+				final FileHashVisitor visitor = new FileHashVisitor(combinedFileFilter);
+				Files.walkFileTree(testObjectDir.toPath(), EnumSet.of(FileVisitOption.FOLLOW_LINKS), 5, visitor);
+				v = new FileStats(visitor.getFileCount(), visitor.getSize(), visitor.getEmptyFiles(),
+						visitor.getSkippedFiles(), visitor.getHash());
 			} else {
 				// URL
 				final Credentials credentials = Credentials.fromProperties(testObject.properties());
 				final FileStorage.DownloadCmd downloadCmd = fileStorage.download(
-						testObject, additionalRegexFilter, credentials, resURI);
-				testObjectDir = downloadCmd.download();
+						testObject, additionalRegexFilter, credentials, resURI).conditional(
+								testObject.properties().getProperty("username"),
+								testObject.properties().getProperty("password"), regex);
+				testObjectDir = downloadCmd.download(progress != null ? progress
+						: (uri, completed, total) -> logger.info(
+								"Downloaded {} ({}/{}) for Test Object {}", uri, completed, total, testObject.getId()));
 				resourceName = "download." + testObject.getResourcesSize();
+				v = downloadCmd.getStats();
 			}
 		} else if (uploadFiles != null && !uploadFiles.isEmpty()) {
 			final FileStorage.UploadCmd uploadCmd = this.fileStorage.upload(testObject, additionalRegexFilter, uploadFiles);
 			testObjectDir = uploadCmd.upload();
 			resourceName = "upload." + testObject.getResourcesSize();
+			v = uploadCmd.getStats();
 		} else {
 			throw new LocalizableApiError("l.testobject.required", false, 400);
 		}
@@ -273,9 +320,6 @@ public class TestObjectController implements PreparedDtoResolver<TestObjectDto>
 		// Add new resource
 		testObject.addResource(new ResourceDto(resourceName, testObjectDir.toURI()));
 
-		final FileHashVisitor v = new FileHashVisitor(combinedFileFilter);
-		Files.walkFileTree(new File(testObject.getResourceByName(resourceName)).toPath(),
-				EnumSet.of(FileVisitOption.FOLLOW_LINKS), 5, v);
 		if (v.getFileCount() == 0) {
 			if (regex != null && !regex.isEmpty()) {
 				throw new LocalizableApiError("l.testObject.regex.null.selection", false, 400, regex);
@@ -309,6 +353,17 @@ public class TestObjectController implements PreparedDtoResolver<TestObjectDto>
 	// Main entry point for Test Run contoller
 	public void initResourcesAndAdd(final TestObjectDto testObject)
 			throws StorageException, IOException, ObjectWithIdNotFoundException, LocalizableApiError {
+		initResourcesAndAdd(testObject, null);
+	}
+
+	/**
+	 * Prepares the resources of a Test Object and adds it
+	 *
+	 * @param testObject Test Object
+	 * @param progress receives the progress of the downloaded test data, or null
+	 */
+	public void initResourcesAndAdd(final TestObjectDto testObject, final ParallelDownloader.Progress progress)
+			throws StorageException, IOException, ObjectWithIdNotFoundException, LocalizableApiError {
 
 		// If the ID is null, the Test Object references external data
 		if (testObject.getId() == null) {
@@ -324,7 +379,7 @@ public class TestObjectController implements PreparedDtoResolver<TestObjectDto>
 				createWithUrlResources(testObject);
 			} else {
 				// Download referenced files if there is a "data" resource
-				createWithFileResources(testObject, null);
+				createWithFileResources(testObject, null, progress);
 			}
 			testObject.setAuthor("unknown");
 		}
@@ -343,6 +398,7 @@ public class TestObjectController implements PreparedDtoResolver<TestObjectDto>
 		testObject.properties().setProperty("data.downloadable", "false");
 
 		testObjectDao.add(testObject);
+		streaming.itemStored(testObjectDao, testObject);
 	}
 
 	//
@@ -361,7 +417,8 @@ public class TestObjectController implements PreparedDtoResolver<TestObjectDto>
 		if (files != null && files.length != 0) {
 			Arrays.sort(files);
 			for (final File file : files) {
-				if (file.isDirectory()) {
+				// Skip internal directories like the blob store
+				if (file.isDirectory() && !file.getName().startsWith(".")) {
 					testDataDirs.add(file.getName());
 				}
 			}
@@ -386,10 +443,11 @@ public class TestObjectController implements PreparedDtoResolver<TestObjectDto>
 	public void listTestObjectsJson(
 			@ApiParam(value = OFFSET_DESCRIPTION) @RequestParam(required = false, defaultValue = "0") int offset,
 			@ApiParam(value = LIMIT_DESCRIPTION) @RequestParam(required = false, defaultValue = "0") int limit,
+			@ApiParam(value = CURSOR_DESCRIPTION) @RequestParam(value = "cursor", required = false) String cursor,
 			HttpServletRequest request,
 			HttpServletResponse response)
-			throws StorageException, ConfigurationException, IOException, ObjectWithIdNotFoundException {
-		streaming.asJson2(testObjectDao, request, response, new SimpleFilter(offset, limit));
+			throws StorageException, ConfigurationException, IOException, ObjectWithIdNotFoundException, LocalizableApiError {
+		streaming.asJson2(testObjectDao, request, response, new SimpleFilter(offset, limit, "*", cursor));
 	}
 
 	@ApiOperation(value = "Get multiple Test Objects as XML", notes = TEST_OBJECT_DESCRIPTION, tags = {
@@ -401,9 +459,10 @@ public class TestObjectController implements PreparedDtoResolver<TestObjectDto>
 	public void listTestObjectXml(
 			@RequestParam(required = false, defaultValue = "0") int offset,
 			@RequestParam(required = false, defaultValue = "0") int limit,
+			@ApiParam(value = CURSOR_DESCRIPTION) @RequestParam(value = "cursor", required = false) String cursor,
 			HttpServletRequest request,
-			HttpServletResponse response) throws IOException, StorageException, ObjectWithIdNotFoundException {
-		streaming.asXml2(testObjectDao, request, response, new SimpleFilter(offset, limit));
+			HttpServletResponse response) throws IOException, StorageException, ObjectWithIdNotFoundException, LocalizableApiError {
+		streaming.asXml2(testObjectDao, request, response, new SimpleFilter(offset, limit, "*", cursor));
 	}
 
 	@ApiOperation(value = "Get Test Object as XML", notes = TEST_OBJECT_DESCRIPTION, tags = {
@@ -434,6 +493,7 @@ public class TestObjectController implements PreparedDtoResolver<TestObjectDto>
 		final ResponseEntity<String> exists = exists(id);
 		if (!HttpStatus.NOT_FOUND.equals(exists.getStatusCode())) {
 			this.testObjectDao.delete(EidConverter.toEid(id));
+			streaming.itemDeleted(testObjectDao, EidConverter.toEid(id));
 		}
 		return exists;
 	}
@@ -490,6 +550,14 @@ public class TestObjectController implements PreparedDtoResolver<TestObjectDto>
 			}
 		}
 
+		TestObjectUpload(final TestObjectDto testObject, final List<ChunkedUploads.PartialFile> files) {
+			this.testObject = new SimpleTestObject(testObject);
+			this.files = new ArrayList<>(files.size());
+			for (final ChunkedUploads.PartialFile file : files) {
+				this.files.add(new UploadMetadata(file.getOriginalFilename(), file.getSize(), null));
+			}
+		}
+
 		TestObjectUpload(final TestObjectDto testObject, final Collection<List<MultipartFile>> multipartFiles) {
 			this.testObject = new SimpleTestObject(testObject);
 			this.files = new ArrayList<>();
@@ -519,12 +587,21 @@ public class TestObjectController implements PreparedDtoResolver<TestObjectDto>
 	@RequestMapping(value = {TESTOBJECTS_URL}, params = "action=upload", method = RequestMethod.POST)
 	public TestObjectUpload uploadData(
 			@ApiIgnore final MultipartHttpServletRequest request) throws LocalizableApiError {
+		final TestObjectDto testObject = createTransientTestObject(
+				FileStorage.sources(request.getMultiFileMap().values()), request.getRemoteAddr());
+		final TestObjectUpload testObjectUpload = new TestObjectUpload(testObject, request.getMultiFileMap().values());
+		testObject.setLabel(testObjectUpload.getNameForUpload());
+		return testObjectUpload;
+	}
+
+	private TestObjectDto createTransientTestObject(final Collection<? extends FileStorage.UploadSource> uploadFiles,
+			final String remoteAddr) throws LocalizableApiError {
 		final TestObjectDto testObject = new TestObjectDto();
 		testObject.setId(EidFactory.getDefault().createRandomId());
 
 		try {
 			// Create from upload
-			createWithFileResources(testObject, request.getMultiFileMap().values());
+			createWithFileResources(testObject, uploadFiles, null);
 
 			testObjectTypeController.checkAndResolveTypes(testObject);
 		} catch (StorageException e) {
@@ -536,12 +613,99 @@ public class TestObjectController implements PreparedDtoResolver<TestObjectDto>
 		}
 
 		testObject.setLastUpdateDateNow();
-		testObject.setLastEditor(request.getRemoteAddr());
+		testObject.setLastEditor(remoteAddr);
 
 		this.transientTestObjects.put(testObject.getId(), testObject);
-		final TestObjectUpload testObjectUpload = new TestObjectUpload(testObject, request.getMultiFileMap().values());
-		testObject.setLabel(testObjectUpload.getNameForUpload());
-		return testObjectUpload;
+		return testObject;
+	}
+
+	@ApiOperation(value = "Start a chunked upload", notes = "Creates an upload session for large files. "
+			+ "The files are sent in chunks to the session, which is completed with a request "
+			+ "that creates a TEMPORARY Test Object like the MULTIPART upload interface does. "
+			+ "Sessions that are not used for a while are discarded with all received data.", tags = {
+					TEST_OBJECTS_TAG_NAME}, produces = "application/json")
+	@ApiResponses(value = {
+			@ApiResponse(code = 201, message = "Upload session created")
+	})
+	@RequestMapping(value = {UPLOADS_URL}, method = RequestMethod.POST)
+	@ResponseStatus(HttpStatus.CREATED)
+	public Map<String, Object> createUploadSession() throws LocalizableApiError {
+		try {
+			return chunkedUploads.create();
+		} catch (IOException e) {
+			throw new LocalizableApiError(e);
+		}
+	}
+
+	@ApiOperation(value = "Get the status of a chunked upload", notes = "Returns the size, the number of received "
+			+ "bytes and the missing byte ranges of each file, so that missing chunks can be sent again.", tags = {
+					TEST_OBJECTS_TAG_NAME}, produces = "application/json")
+	@ApiResponses(value = {
+			@ApiResponse(code = 200, message = "Upload session status"),
+			@ApiResponse(code = 404, message = "Upload session not found", response = RestExceptionHandler.ApiError.class)
+	})
+	@RequestMapping(value = {UPLOADS_URL + "/{sessionId}"}, method = RequestMethod.GET)
+	public Map<String, Object> uploadSessionStatus(
+			@ApiParam(value = "ID of the upload session", required = true) @PathVariable String sessionId)
+			throws LocalizableApiError {
+		return chunkedUploads.status(sessionId);
+	}
+
+	@ApiOperation(value = "Upload a chunk of a file", notes = "The request body contains the bytes of the chunk, "
+			+ "which are written at the passed offset. Chunks may be sent in parallel and in any order. "
+			+ "A failed chunk can be sent again.", tags = {TEST_OBJECTS_TAG_NAME}, produces = "application/json")
+	@ApiResponses(value = {
+			@ApiResponse(code = 200, message = "Chunk received"),
+			@ApiResponse(code = 400, message = "Chunk does not fit into the file", response = RestExceptionHandler.ApiError.class),
+			@ApiResponse(code = 404, message = "Upload session not found", response = RestExceptionHandler.ApiError.class)
+	})
+	@RequestMapping(value = {UPLOADS_URL + "/{sessionId}/{fileName:.+}"}, method = RequestMethod.PUT)
+	public Map<String, Object> uploadChunk(
+			@ApiParam(value = "ID of the upload session", required = true) @PathVariable String sessionId,
+			@ApiParam(value = "Name of the file", required = true) @PathVariable String fileName,
+			@ApiParam(value = "Byte offset of the chunk", required = true) @RequestParam(value = "offset") long offset,
+			@ApiParam(value = "Total size of the file in bytes", required = true) @RequestParam(value = "size") long size,
+			@ApiIgnore final HttpServletRequest request) throws LocalizableApiError {
+		try {
+			return chunkedUploads.write(sessionId, fileName, size, offset, request.getInputStream());
+		} catch (IOException e) {
+			throw new LocalizableApiError(e);
+		}
+	}
+
+	@ApiOperation(value = "Complete a chunked upload", notes = "Creates a TEMPORARY Test Object from the files of "
+			+ "the upload session. The session is discarded afterwards.", tags = {
+					TEST_OBJECTS_TAG_NAME}, produces = "application/json")
+	@ApiResponses(value = {
+			@ApiResponse(code = 200, message = "Temporary Test Object created", response = TestObjectUpload.class),
+			@ApiResponse(code = 400, message = "File upload failed", response = RestExceptionHandler.ApiError.class),
+			@ApiResponse(code = 404, message = "Upload session not found", response = RestExceptionHandler.ApiError.class),
+			@ApiResponse(code = 409, message = "Files are incomplete", response = RestExceptionHandler.ApiError.class)
+	})
+	@RequestMapping(value = {UPLOADS_URL + "/{sessionId}"}, params = "action=complete", method = RequestMethod.POST)
+	public TestObjectUpload completeUploadSession(
+			@ApiParam(value = "ID of the upload session", required = true) @PathVariable String sessionId,
+			@ApiIgnore final HttpServletRequest request) throws LocalizableApiError {
+		final List<ChunkedUploads.PartialFile> files = chunkedUploads.complete(sessionId);
+		try {
+			final TestObjectDto testObject = createTransientTestObject(files, request.getRemoteAddr());
+			final TestObjectUpload testObjectUpload = new TestObjectUpload(testObject, files);
+			testObject.setLabel(testObjectUpload.getNameForUpload());
+			return testObjectUpload;
+		} finally {
+			chunkedUploads.discard(sessionId);
+		}
+	}
+
+	@ApiOperation(value = "Cancel a chunked upload", tags = {TEST_OBJECTS_TAG_NAME})
+	@ApiResponses(value = {
+			@ApiResponse(code = 204, message = "Upload session discarded")
+	})
+	@RequestMapping(value = {UPLOADS_URL + "/{sessionId}"}, method = RequestMethod.DELETE)
+	@ResponseStatus(HttpStatus.NO_CONTENT)
+	public void discardUploadSession(
+			@ApiParam(value = "ID of the upload session", required = true) @PathVariable String sessionId) {
+		chunkedUploads.discard(sessionId);
 	}
 
 	/*
@@ -18,32 +18,25 @@ package de.interactive_instruments.etf.webapp.controller;
 import static de.interactive_instruments.etf.webapp.SwaggerConfig.SERVICE_CAP_TAG_NAME;
 import static de.interactive_instruments.etf.webapp.dto.DocumentationConstants.*;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URI;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
+import java.util.Collections;
+import java.util.concurrent.ForkJoinPool;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import javax.xml.XMLConstants;
-import javax.xml.namespace.NamespaceContext;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.namespace.QName;
 import javax.xml.transform.TransformerConfigurationException;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpression;
-import javax.xml.xpath.XPathFactory;
 
 import de.interactive_instruments.etf.webapp.helpers.SimpleFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
-import org.w3c.dom.Document;
 
-import de.interactive_instruments.Credentials;
-import de.interactive_instruments.IFile;
 import de.interactive_instruments.SUtils;
 import de.interactive_instruments.UriUtils;
 import de.interactive_instruments.etf.dal.dao.Dao;
@@ -51,6 +44,7 @@ import de.interactive_instruments.etf.dal.dto.capabilities.ComponentDto;
 import de.interactive_instruments.etf.dal.dto.capabilities.ResourceDto;
 import de.interactive_instruments.etf.dal.dto.capabilities.TestObjectDto;
 import de.interactive_instruments.etf.dal.dto.capabilities.TestObjectTypeDto;
+import de.interactive_instruments.etf.model.EID;
 import de.interactive_instruments.etf.webapp.WebAppConstants;
 import de.interactive_instruments.etf.webapp.conversion.EidConverter;
 import de.interactive_instruments.exceptions.ObjectWithIdNotFoundException;
@@ -74,196 +68,198 @@ public class TestObjectTypeController {
 	@Autowired
 	private StreamingService streaming;
 
+	@Autowired
+	private EtfConfigController etfConfig;
+
 	private Dao<TestObjectTypeDto> testObjectTypeDao;
+	// in minutes
+	private static final long SERVICE_RESPONSE_TTL = 60;
+	private ServiceResponseCache serviceResponses;
+
+	private static final EID FILE_TYPE_ID = EidConverter.toEid("EID5a60dded-0cb0-4977-9b06-16c6c2321d2e");
+	private static final String WFS_20_NS = "http://www.opengis.net/wfs/2.0";
+	private static final String OWS_11_NS = "http://www.opengis.net/ows/1.1";
+	private static final String ATOM_NS = "http://www.w3.org/2005/Atom";
+	private static final XmlTypeDetection.Detector WFS_20_DETECTOR = new XmlTypeDetection.Detector(
+			EidConverter.toEid("EID9b6ef734-981e-4d60-aa81-d6730a1c6389"),
+			new QName[]{new QName(WFS_20_NS, "WFS_Capabilities")},
+			new QName[]{new QName(OWS_11_NS, "ServiceIdentification"), new QName(OWS_11_NS, "Title")},
+			new QName[]{new QName(OWS_11_NS, "ServiceIdentification"), new QName(OWS_11_NS, "Abstract")});
+	private static final XmlTypeDetection.Detector FEED_DETECTOR = new XmlTypeDetection.Detector(
+			EidConverter.toEid("EID49d881ae-b115-4b91-aabe-31d5791bce52"),
+			new QName[]{new QName(ATOM_NS, "feed")},
+			new QName[]{new QName(ATOM_NS, "title")},
+			new QName[]{new QName(ATOM_NS, "subtitle")});
+	private final XmlTypeDetection detection = new XmlTypeDetection();
+	private volatile TypeDetectorRegistry detectorRegistry;
+	// modification date of the Test Object Type DAO, when the detectors were compiled
+	private volatile long detectorsCompiled = -1;
+	private ForkJoinPool fileDetectionPool;
+	// Test Object properties, which are evaluated by the test drivers
+	static final String TYPE_HISTOGRAM_PROPERTY = "typeHistogram";
+	static final String TYPE_HISTOGRAM_CHECKED_FILES_PROPERTY = "typeHistogramCheckedFiles";
+	static final String MAJORITY_TYPE_PROPERTY = "majorityType";
+	private final Logger logger = LoggerFactory.getLogger(TestObjectTypeController.class);
 	private final static String TEST_OBJECT_TYPES_URL = WebAppConstants.API_BASE_URL + "/TestObjectTypes";
 
 	private final static String TEST_OBJECT_TYPE_DESCRIPTION = "The Test Object model is described in the "
 			+ "[XML schema documentation](https://services.interactive-instruments.de/etf/schemadoc/capabilities_xsd.html#TestObjectType) "
 			+ ETF_ITEM_COLLECTION_DESCRIPTION;
 
-	private static class TypeCheck {
-		private List<String> filenameExtensions;
-		private List<String> mimeTypes;
-		private String detectionExpression;
+	@PostConstruct
+	private void init() throws IOException, TransformerConfigurationException, StorageException {
+		testObjectTypeDao = dataStorageService.getDao(TestObjectTypeDto.class);
+		serviceResponses = new ServiceResponseCache(
+				Long.valueOf(etfConfig.getProperty(EtfConfigController.ETF_TESTOBJECT_SERVICE_CACHE_FRESHNESS)),
+				SERVICE_RESPONSE_TTL);
+		fileDetectionPool = new ForkJoinPool(
+				Integer.valueOf(etfConfig.getProperty(EtfConfigController.ETF_TESTOBJECT_TYPE_DETECTION_THREADS)));
+		compileDetectors();
+	}
 
-		TypeCheck(TestObjectTypeDto dto) {
-			detectionExpression = dto.getDetectionExpression();
-			mimeTypes = dto.getMimeTypes();
-			filenameExtensions = dto.getFilenameExtensions();
+	@PreDestroy
+	private void shutdown() {
+		if (fileDetectionPool != null) {
+			fileDetectionPool.shutdownNow();
 		}
+	}
 
-		boolean accept(final ResourceDto resource) throws IOException {
-			final URI uri = resource.getUri();
-			if (UriUtils.isFile(uri)) {
-				final IFile file = new IFile(uri);
-				if (file.isDirectory()) {
-					// check each file
-				} else {
-					// check single file
-				}
-			} else {
-				if (UriUtils.getContentLength(uri) > 300000000) {
-					// File is too large
-					return false;
-				}
-				final UriUtils.ContentAndType contentAndType = UriUtils.load(uri, null, false);
+	/**
+	 * Compiles the detection properties of all Test Object Types
+	 */
+	synchronized void compileDetectors() throws StorageException {
+		final long modified = testObjectTypeDao.getLastModificationDate();
+		detectorRegistry = TypeDetectorRegistry.compile(Collections.singletonList(FEED_DETECTOR),
+				testObjectTypeDao.getAll(null).asCollection(), detection);
+		detectorsCompiled = modified;
+	}
 
+	/**
+	 * Returns the compiled detection properties. The detectors are compiled again, if Test
+	 * Object Types have been added or changed since, for instance by loading the test drivers
+	 * or synchronizing the Executable Test Suites.
+	 *
+	 * @return registry with the compiled detection properties of all Test Object Types
+	 */
+	TypeDetectorRegistry getDetectorRegistry() throws StorageException {
+		if (detectorsCompiled != testObjectTypeDao.getLastModificationDate()) {
+			synchronized (this) {
+				if (detectorsCompiled != testObjectTypeDao.getLastModificationDate()) {
+					compileDetectors();
+				}
 			}
-			return false;
 		}
+		return detectorRegistry;
 	}
 
-	@PostConstruct
-	private void init() throws IOException, TransformerConfigurationException, StorageException {
-		testObjectTypeDao = dataStorageService.getDao(TestObjectTypeDto.class);
+	/**
+	 * Returns the response of a service endpoint. The response of the service endpoint URI
+	 * is shared by the hash computation and the classification, the WFS capabilities
+	 * request is a separate request.
+	 *
+	 * @param uri service URI
+	 * @param dto Test Object with the credential properties
+	 * @param hashed true if the whole body must be hashed
+	 * @return response
+	 * @throws IOException if the service could not be requested
+	 */
+	ServiceResponseCache.Response serviceResponse(final URI uri, final TestObjectDto dto, final boolean hashed)
+			throws IOException {
+		return serviceResponses.get(uri, dto.properties().getProperty("username"),
+				dto.properties().getProperty("password"), hashed);
 	}
 
 	public void checkAndResolveTypes(final TestObjectDto dto) throws StorageException, ObjectWithIdNotFoundException {
-		final List<TestObjectTypeDto> checkedTypes = new ArrayList<>();
-
 		for (final ResourceDto resourceDto : dto.getResourceCollection()) {
 			final URI resource = resourceDto.getUri();
 			if (UriUtils.isFile(resource)) {
 				// File
-				dto.setTestObjectType(testObjectTypeDao.getById(
-						EidConverter.toEid("EID5a60dded-0cb0-4977-9b06-16c6c2321d2e")).getDto());
+				dto.setTestObjectType(testObjectTypeDao.getById(FILE_TYPE_ID).getDto());
+				detectFileTypes(dto, new File(resource));
 			} else {
 
 				dto.setRemoteResource(resource);
 
-				// TODO put into detectors v2.0.1
 				// WFS
 				try {
-					final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-					factory.setNamespaceAware(true);
-					final Credentials credentials = Credentials.fromProperties(dto.properties());
 					final URI reqURI = new URI(
 							UriUtils.withoutQueryParameters(resource.toString()) + "?service=wfs&request=GetCapabilities");
-					final DocumentBuilder builder = factory.newDocumentBuilder();
-					final Document doc = builder.parse(UriUtils.openStream(reqURI, credentials));
-
-					final XPathFactory xPathfactory = XPathFactory.newInstance();
-					final XPath xpath = xPathfactory.newXPath();
-
-					xpath.setNamespaceContext(new NamespaceContext() {
-						public String getNamespaceURI(String prefix) {
-							if (prefix == null) {
-								throw new NullPointerException("Null prefix");
-							} else if ("wfs".equals(prefix)) {
-								return "http://www.opengis.net/wfs/2.0";
-							} else if ("ows".equals(prefix)) {
-								return "http://www.opengis.net/ows/1.1";
-							}
-							return XMLConstants.NULL_NS_URI;
-						}
-
-						// This method isn't necessary for XPath processing.
-						public String getPrefix(String uri) {
-							throw new UnsupportedOperationException();
-						}
-
-						// This method isn't necessary for XPath processing either.
-						public Iterator getPrefixes(String uri) {
-							throw new UnsupportedOperationException();
-						}
-					});
-					final XPathExpression wfsTitle = xpath.compile("/wfs:WFS_Capabilities/ows:ServiceIdentification/ows:Title");
-					final XPathExpression description = xpath
-							.compile("/wfs:WFS_Capabilities/ows:ServiceIdentification/ows:Abstract");
-
-					final String titleStr = (String) wfsTitle.evaluate(doc, XPathConstants.STRING);
-					final String descriptionStr = (String) description.evaluate(doc, XPathConstants.STRING);
-
-					boolean webService = false;
-					if (!SUtils.isNullOrEmpty(titleStr)) {
-						dto.setLabel(titleStr);
-						webService = true;
-					}
-					if (!SUtils.isNullOrEmpty(descriptionStr)) {
-						dto.setDescription(descriptionStr);
-						webService = true;
-					}
-
-					if (webService) {
+					final XmlTypeDetection.Result result = detection.detect(
+							serviceResponse(reqURI, dto, false).openPrefix(),
+							Collections.singletonList(WFS_20_DETECTOR));
+					if (result != null && setLabelAndDescription(dto, result)) {
 						// Web service
-						dto.setTestObjectType(testObjectTypeDao.getById(
-								EidConverter.toEid("EID9b6ef734-981e-4d60-aa81-d6730a1c6389")).getDto());
-						// EidConverter.toEid("EID88311f83-818c-46ed-8a9a-cec4f3707365")).getDto());
+						dto.setTestObjectType(testObjectTypeDao.getById(result.getTypeId()).getDto());
 						return;
 					}
 				} catch (Exception e) {
 					// fallback: file
-					dto.setTestObjectType(testObjectTypeDao.getById(
-							EidConverter.toEid("EID5a60dded-0cb0-4977-9b06-16c6c2321d2e")).getDto());
+					dto.setTestObjectType(testObjectTypeDao.getById(FILE_TYPE_ID).getDto());
 				}
 
-				// Service Feed
+				// Service Feed or another type, classified in one pass
 				try {
-					final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-					factory.setNamespaceAware(true);
-					final Credentials credentials = Credentials.fromProperties(dto.properties());
-					final URI reqURI = resource;
-					final DocumentBuilder builder = factory.newDocumentBuilder();
-					final Document doc = builder.parse(UriUtils.openStream(reqURI, credentials));
-
-					final XPathFactory xPathfactory = XPathFactory.newInstance();
-					final XPath xpath = xPathfactory.newXPath();
-
-					xpath.setNamespaceContext(new NamespaceContext() {
-						public String getNamespaceURI(String prefix) {
-							if (prefix == null) {
-								throw new NullPointerException("Null prefix");
-							} else if ("atom".equals(prefix)) {
-								return "http://www.w3.org/2005/Atom";
-							}
-							return XMLConstants.NULL_NS_URI;
+					final ServiceResponseCache.Response response = serviceResponse(resource, dto, false);
+					final String path = resource.getPath();
+					final XmlTypeDetection.Result result = getDetectorRegistry().classify(
+							path != null ? path.substring(path.lastIndexOf('/') + 1) : null,
+							response.getContentType(), response.openPrefix(), false);
+					if (result != null && result.getTypeId().equals(FEED_DETECTOR.getTypeId())) {
+						if (setLabelAndDescription(dto, result)) {
+							// Service Feed
+							dto.setTestObjectType(testObjectTypeDao.getById(result.getTypeId()).getDto());
+						} else {
+							// file
+							dto.setTestObjectType(testObjectTypeDao.getById(FILE_TYPE_ID).getDto());
 						}
-
-						// This method isn't necessary for XPath processing.
-						public String getPrefix(String uri) {
-							throw new UnsupportedOperationException();
-						}
-
-						// This method isn't necessary for XPath processing either.
-						public Iterator getPrefixes(String uri) {
-							throw new UnsupportedOperationException();
-						}
-					});
-					final XPathExpression feedTitle = xpath.compile("/atom:feed/atom:title");
-					final XPathExpression feedDescription = xpath
-							.compile("/atom:feed/atom:subtitle");
-
-					final String titleStr = (String) feedTitle.evaluate(doc, XPathConstants.STRING);
-					final String descriptionStr = (String) feedDescription.evaluate(doc, XPathConstants.STRING);
-
-					boolean serviceFeed = false;
-					if (!SUtils.isNullOrEmpty(titleStr)) {
-						dto.setLabel(titleStr);
-						serviceFeed = true;
-					}
-					if (!SUtils.isNullOrEmpty(descriptionStr)) {
-						dto.setDescription(descriptionStr);
-						serviceFeed = true;
-					}
-
-					if (serviceFeed) {
-						// Service Feed
-						dto.setTestObjectType(testObjectTypeDao.getById(
-								EidConverter.toEid("EID49d881ae-b115-4b91-aabe-31d5791bce52")).getDto());
+					} else if (result != null) {
+						dto.setTestObjectType(testObjectTypeDao.getById(result.getTypeId()).getDto());
 					} else {
 						// file
-						dto.setTestObjectType(testObjectTypeDao.getById(
-								EidConverter.toEid("EID5a60dded-0cb0-4977-9b06-16c6c2321d2e")).getDto());
+						dto.setTestObjectType(testObjectTypeDao.getById(FILE_TYPE_ID).getDto());
 					}
 				} catch (Exception e) {
 					// fallback: file
-					dto.setTestObjectType(testObjectTypeDao.getById(
-							EidConverter.toEid("EID5a60dded-0cb0-4977-9b06-16c6c2321d2e")).getDto());
+					dto.setTestObjectType(testObjectTypeDao.getById(FILE_TYPE_ID).getDto());
 				}
+			}
+		}
+	}
 
-				// TODO END
+	/**
+	 * Stores the histogram of the detected file types in the Test Object properties,
+	 * so drivers can skip files of irrelevant types
+	 */
+	private void detectFileTypes(final TestObjectDto dto, final File dir) {
+		if (!dir.isDirectory()) {
+			return;
+		}
+		try {
+			final FileTypeHistogram histogram = FileTypeHistogram.compute(dir.toPath(), getDetectorRegistry(),
+					fileDetectionPool);
+			dto.properties().setProperty(TYPE_HISTOGRAM_PROPERTY, histogram.toPropertyValue());
+			dto.properties().setProperty(TYPE_HISTOGRAM_CHECKED_FILES_PROPERTY,
+					String.valueOf(histogram.getCheckedFiles()));
+			final String majorityType = histogram.getMajorityType();
+			if (majorityType != null) {
+				dto.properties().setProperty(MAJORITY_TYPE_PROPERTY, majorityType);
 			}
+		} catch (final IOException | StorageException e) {
+			logger.warn("Could not detect the file types of Test Object {}: {}", dto.getId(), e.getMessage());
+		}
+	}
+
+	private static boolean setLabelAndDescription(final TestObjectDto dto, final XmlTypeDetection.Result result) {
+		boolean found = false;
+		if (!SUtils.isNullOrEmpty(result.getLabel())) {
+			dto.setLabel(result.getLabel());
+			found = true;
+		}
+		if (!SUtils.isNullOrEmpty(result.getDescription())) {
+			dto.setDescription(result.getDescription());
+			found = true;
 		}
+		return found;
 	}
 
 	//
@@ -286,10 +282,11 @@ public class TestObjectTypeController {
 	public void listTestObjectTypesJson(
 			@ApiParam(value = OFFSET_DESCRIPTION) @RequestParam(required = false, defaultValue = "0") int offset,
 			@ApiParam(value = LIMIT_DESCRIPTION) @RequestParam(required = false, defaultValue = "0") int limit,
+			@ApiParam(value = CURSOR_DESCRIPTION) @RequestParam(value = "cursor", required = false) String cursor,
 			HttpServletRequest request,
 			HttpServletResponse response)
-			throws StorageException, ConfigurationException, IOException, ObjectWithIdNotFoundException {
-		streaming.asJson2(testObjectTypeDao, request, response, new SimpleFilter(offset, limit));
+			throws StorageException, ConfigurationException, IOException, ObjectWithIdNotFoundException, LocalizableApiError {
+		streaming.asJson2(testObjectTypeDao, request, response, new SimpleFilter(offset, limit, "*", cursor));
 	}
 
 	@ApiOperation(value = "Get multiple Test Object Types as XML", notes = TEST_OBJECT_TYPE_DESCRIPTION, tags = {
@@ -299,9 +296,10 @@ public class TestObjectTypeController {
 	})
 	@RequestMapping(value = {TEST_OBJECT_TYPES_URL + " .xml"}, method = RequestMethod.GET)
 	public void listTestObjectTypesXml(@RequestParam(required = false, defaultValue = "0") int offset,
-			@RequestParam(required = false, defaultValue = "0") int limit, HttpServletRequest request,
-			HttpServletResponse response) throws IOException, StorageException, ObjectWithIdNotFoundException {
-		streaming.asXml2(testObjectTypeDao, request, response, new SimpleFilter(offset, limit));
+			@RequestParam(required = false, defaultValue = "0") int limit,
+			@RequestParam(value = "cursor", required = false) String cursor, HttpServletRequest request,
+			HttpServletResponse response) throws IOException, StorageException, ObjectWithIdNotFoundException, LocalizableApiError {
+		streaming.asXml2(testObjectTypeDao, request, response, new SimpleFilter(offset, limit, "*", cursor));
 	}
 
 	@ApiOperation(value = "Get Test Object Type as XML", notes = TEST_OBJECT_TYPE_DESCRIPTION, tags = {
@@ -20,30 +20,52 @@ import static de.interactive_instruments.etf.webapp.SwaggerConfig.TEST_RUNS_TAG_
 import static de.interactive_instruments.etf.webapp.WebAppConstants.API_BASE_URL;
 import static de.interactive_instruments.etf.webapp.dto.DocumentationConstants.*;
 
-import java.io.FileInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletContext;
-import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.xml.transform.TransformerConfigurationException;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
 import de.interactive_instruments.etf.dal.dto.Dto;
 import de.interactive_instruments.etf.dal.dto.result.TestResultStatus;
 import de.interactive_instruments.etf.model.EID;
+import de.interactive_instruments.etf.model.EidFactory;
 import de.interactive_instruments.etf.webapp.helpers.SimpleFilter;
+import de.interactive_instruments.etf.webapp.helpers.TestRunFilter;
 import io.swagger.annotations.ApiResponse;
 import io.swagger.annotations.ApiResponses;
-import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.i18n.LocaleContextHolder;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -59,11 +81,14 @@ import de.interactive_instruments.etf.dal.dao.WriteDao;
 import de.interactive_instruments.etf.dal.dto.result.AttachmentDto;
 import de.interactive_instruments.etf.dal.dto.result.TestTaskResultDto;
 import de.interactive_instruments.etf.dal.dto.run.TestRunDto;
+import de.interactive_instruments.etf.dal.dto.test.ExecutableTestSuiteDto;
 import de.interactive_instruments.etf.dal.dto.run.TestTaskDto;
 import de.interactive_instruments.etf.model.OutputFormat;
 import de.interactive_instruments.etf.testdriver.TestRun;
 import de.interactive_instruments.etf.webapp.conversion.EidConverter;
 import de.interactive_instruments.etf.webapp.helpers.CacheControl;
+import de.interactive_instruments.etf.webapp.helpers.FileResponse;
+import de.interactive_instruments.exceptions.ExcUtils;
 import de.interactive_instruments.exceptions.InitializationException;
 import de.interactive_instruments.exceptions.InvalidStateTransitionException;
 import de.interactive_instruments.exceptions.ObjectWithIdNotFoundException;
@@ -94,22 +119,60 @@ public class TestResultController {
 	@Autowired
 	private StreamingService streaming;
 
+	@Autowired
+	private StartupOrchestrator startup;
+
+	@Autowired
+	private ApplicationContext applicationContext;
+
 	private IFile reportDir;
 	private IFile stylesheetFile;
 	private Dao<TestRunDto> testRunDao;
 	private Dao<TestTaskResultDto> testTaskResultDao;
 	private OutputFormat testRunHtmlReportFormat;
+	private ReportPreRenderer preRenderer;
+	private final LogFollower logFollower = new LogFollower();
+	// XML of the results shown in the paged report views, which is read on demand for each fragment
+	private static final int PAGED_REPORT_MAX_RESULT_FILES = 16;
+	private final Cache<EID, ResultFragmentReader> pagedReportFiles = Caffeine.newBuilder()
+			.maximumSize(PAGED_REPORT_MAX_RESULT_FILES)
+			.expireAfterAccess(10, TimeUnit.MINUTES)
+			.<EID, ResultFragmentReader> removalListener((eid, reader, cause) -> {
+				if (reader != null) {
+					try {
+						Files.deleteIfExists(reader.getFile());
+					} catch (final IOException e) {
+						ExcUtils.suppress(e);
+					}
+				}
+			}).build();
+	private final Cache<EID, PagedHtmlReport.EtsText> pagedReportEtsTexts = Caffeine.newBuilder()
+			.maximumSize(PAGED_REPORT_MAX_RESULT_FILES)
+			.expireAfterAccess(10, TimeUnit.MINUTES).build();
+	private Dao<ExecutableTestSuiteDto> etsDao;
+	private OutputFormat testTaskResultXmlFormat;
+	private final TestRunIndex testRunIndex = new TestRunIndex();
+	private TestRunStatistics statistics;
 	private final static String TEST_RUNS_URL = API_BASE_URL + "/TestRuns";
 	private final static String TEST_TASKS_URL = API_BASE_URL + "/TestTaskResults";
 
-	// TODO report comparison output format
-	// private XslReportTransformer comparisonTransformer;
+	private ResultComparison comparison;
 	private final Logger logger = LoggerFactory.getLogger(TestResultController.class);;
 
 	private final static String TEST_RUN_DESCRIPTION = "The Test Run model is described in the "
 			+ "[XML schema documentation](https://services.interactive-instruments.de/etf/schemadoc/run_xsd.html#TestRun). "
 			+ ETF_ITEM_COLLECTION_DESCRIPTION;
 
+	private final static String SEARCH_DESCRIPTION = "Only Test Runs whose label contains this text, case insensitive";
+	private final static String STATUS_DESCRIPTION = "Only Test Runs with this result status";
+	private final static String TEST_OBJECT_FILTER_DESCRIPTION = "Only Test Runs that tested this Test Object. "
+			+ EID_DESCRIPTION;
+	private final static String ETS_FILTER_DESCRIPTION = "Only Test Runs that executed this Executable Test Suite. "
+			+ EID_DESCRIPTION;
+	private final static String FROM_DESCRIPTION = "Only Test Runs started at or after this time in milliseconds since the epoch";
+	private final static String TO_DESCRIPTION = "Only Test Runs started at or before this time in milliseconds since the epoch";
+	private final static String SORT_DESCRIPTION = "Sort order, a leading '-' sorts in descending order. Default is '-startTimestamp'";
+
 	private final static String TEST_TASK_RESULT_NOTE = " Note: a Test Run consists of one or multiple Test Task Results. "
 			+ "A Test Task Result represents the result of the execution of one single Test Suite. "
 			+ "Use the Test Run interface to get all results of a Test Run and the Test Task Result interfaces to get only one single result. ";
@@ -139,13 +202,31 @@ public class TestResultController {
 			}
 		}
 
-		streaming.prepareCache(testRunDao, new SimpleFilter());
+		preRenderer = new ReportPreRenderer(reportDir.expandPath("html"), testRunHtmlReportFormat,
+				Integer.valueOf(etfConfig.getProperty(EtfConfigController.ETF_REPORT_PRERENDER_THREADS)));
+
+		final IFile statisticsDir = etfConfig.getPropertyAsFile(EtfConstants.ETF_DATASOURCE_DIR).expandPath("statistics");
+		statisticsDir.ensureDir();
+		statistics = new TestRunStatistics(statisticsDir.secureExpandPathDown("testruns.journal"), testRunDao);
+
+		etsDao = dataStorageService.getDao(ExecutableTestSuiteDto.class);
+
+		testTaskResultXmlFormat = testTaskResultDao.getOutputFormats().get(
+				EidFactory.getDefault().createUUID(testTaskResultDao.getDtoType().getSimpleName() + "DsResult2Xml"));
+		comparison = new ResultComparison(testTaskResultDao, testTaskResultXmlFormat);
+
+		startup.submit("Test Run cache", () -> streaming.prepareCache(testRunDao, new SimpleFilter()));
+		startup.submit("Test Run statistics", statistics::load);
 
 		logger.info("Result controller initialized!");
 	}
 
 	@PreDestroy
 	private void shutdown() {
+		preRenderer.release();
+		logFollower.release();
+		pagedReportFiles.invalidateAll();
+		statistics.release();
 		testRunDao.release();
 		// testTaskResultDao.release();
 	}
@@ -159,10 +240,76 @@ public class TestResultController {
 			}
 		}
 		((WriteDao<TestRunDto>) testRunDao).add(dto);
+		testRunIndex.put(dto);
+		streaming.itemStored(testRunDao, dto);
 	}
 
 	public void updateTestRun(final TestRun testRunDto) throws ObjectWithIdNotFoundException, StorageException {
 		((WriteDao<TestRunDto>) testRunDao).replace(testRunDto.getResult());
+		testRunIndex.put(testRunDto.getResult());
+		streaming.itemStored(testRunDao, testRunDto.getResult());
+		statistics.update(testRunDto.getResult());
+	}
+
+	/**
+	 * Removes a deleted Test Run from the listing index and the statistics
+	 *
+	 * @param testRunId Test Run ID
+	 */
+	void testRunDeleted(final EID testRunId) {
+		testRunIndex.remove(testRunId);
+		streaming.itemDeleted(testRunDao, testRunId);
+		statistics.remove(testRunId);
+	}
+
+	/**
+	 * Queues the rendering of the HTML reports of a completed Test Run and its Test Task Results
+	 *
+	 * @param testRun completed Test Run
+	 */
+	void preRenderReports(final TestRun testRun) {
+		final TestRunDto testRunDto = testRun.getResult();
+		preRenderer.submit(testRunDao, testRunDto.getId());
+		if (testRunDto.getTestTasks() != null) {
+			for (final TestTaskDto testTaskDto : testRunDto.getTestTasks()) {
+				if (testTaskDto.getTestTaskResult() != null) {
+					preRenderer.submit(testTaskResultDao, testTaskDto.getTestTaskResult().getId());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Deletes the pre-rendered HTML reports of a Test Run and its Test Task Results
+	 *
+	 * @param testRunId Test Run ID
+	 */
+	void removePreRenderedReports(final EID testRunId) {
+		preRenderer.evict(testRunId);
+		try {
+			final TestRunDto testRunDto = testRunDao.getById(testRunId).getDto();
+			if (testRunDto.getTestTasks() != null) {
+				for (final TestTaskDto testTaskDto : testRunDto.getTestTasks()) {
+					if (testTaskDto.getTestTaskResult() != null) {
+						preRenderer.evict(testTaskDto.getTestTaskResult().getId());
+						pagedReportFiles.invalidate(testTaskDto.getTestTaskResult().getId());
+					}
+				}
+			}
+		} catch (StorageException | ObjectWithIdNotFoundException e) {
+			ExcUtils.suppress(e);
+		}
+	}
+
+	private void streamHtmlReport(final PreparedDto dto, final HttpServletResponse response)
+			throws IOException, StorageException {
+		final IFile preRendered = preRenderer.getRendered(dto.getDtoId());
+		if (preRendered != null) {
+			response.setContentLengthLong(preRendered.length());
+			Files.copy(preRendered.toPath(), response.getOutputStream());
+		} else {
+			dto.streamTo(testRunHtmlReportFormat, null, response.getOutputStream());
+		}
 	}
 
 	private void getByIdHtml(
@@ -173,7 +320,6 @@ public class TestResultController {
 			final HttpServletResponse response) throws LocalizableApiError {
 		if (CacheControl.clientNeedsUpdate(dao, request, response, TimeUnit.SECONDS.toDays(31)))
 			try {
-				final ServletOutputStream out = response.getOutputStream();
 				final PreparedDto dto = dao.getById(EidConverter.toEid(id));
 				if (Objects.equals(download, "true")) {
 					final String reportFileName;
@@ -197,10 +343,10 @@ public class TestResultController {
 					response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
 					response.setContentType(MediaType.TEXT_HTML_VALUE);
 					response.setHeader("Content-Disposition", "attachment; filename=" + IFile.sanitize(reportFileName) + ".html");
-					dto.streamTo(testRunHtmlReportFormat, null, out);
+					streamHtmlReport(dto, response);
 				} else {
 					response.setContentType(MediaType.TEXT_HTML_VALUE);
-					dto.streamTo(testRunHtmlReportFormat, null, out);
+					streamHtmlReport(dto, response);
 				}
 			} catch (final ObjectWithIdNotFoundException e) {
 				response.setStatus(HttpServletResponse.SC_NOT_FOUND);
@@ -212,6 +358,120 @@ public class TestResultController {
 			}
 	}
 
+	@FunctionalInterface
+	private interface PagedReportRead<T> {
+		T read(final ResultFragmentReader reader) throws IOException, ObjectWithIdNotFoundException;
+	}
+
+	/**
+	 * Reads from the XML of a Test Task Result, which is written to a temporary file
+	 * once and kept for subsequent fragment requests
+	 */
+	private <T> T readPagedReport(final EID eid, final PagedReportRead<T> read)
+			throws StorageException, IOException, ObjectWithIdNotFoundException, LocalizableApiError {
+		final ResultFragmentReader cached = pagedReportFiles.getIfPresent(eid);
+		if (cached != null) {
+			try {
+				return read.read(cached);
+			} catch (final NoSuchFileException e) {
+				// evicted while reading, write it again
+				pagedReportFiles.invalidate(eid);
+			}
+		}
+		final Path file = Files.createTempFile("etf-paged-report-", ".xml");
+		final ResultFragmentReader reader;
+		try {
+			try (final OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+				testTaskResultDao.getById(eid).streamTo(testTaskResultXmlFormat, null, out);
+			}
+			reader = new ResultFragmentReader(file, eid);
+			if (TestResultStatus.UNDEFINED.toString().equals(reader.getStatus())) {
+				throw new LocalizableApiError("l.Report.not.finished", false, HttpServletResponse.SC_NOT_ACCEPTABLE);
+			}
+		} catch (IOException | StorageException | ObjectWithIdNotFoundException | LocalizableApiError e) {
+			Files.deleteIfExists(file);
+			throw e;
+		}
+		final ResultFragmentReader concurrent = pagedReportFiles.asMap().putIfAbsent(eid, reader);
+		if (concurrent != null) {
+			// written by a concurrent request in the meantime
+			Files.deleteIfExists(file);
+			return read.read(concurrent);
+		}
+		return read.read(reader);
+	}
+
+	private PagedHtmlReport pagedReport(final ResultFragmentReader reader) {
+		final String etsId = reader.getExecutableTestSuiteId();
+		PagedHtmlReport.EtsText etsText = PagedHtmlReport.EtsText.NONE;
+		if (etsId != null) {
+			final EID eid = EidConverter.toEid(etsId);
+			etsText = pagedReportEtsTexts.getIfPresent(eid);
+			if (etsText == null) {
+				try {
+					etsText = PagedHtmlReport.EtsText.of(etsDao.getById(eid).getDto());
+					pagedReportEtsTexts.put(eid, etsText);
+				} catch (StorageException | ObjectWithIdNotFoundException e) {
+					// The Executable Test Suite may have been removed, the IDs are used as labels
+					logger.debug("Executable Test Suite {} of the paged report not found: {}", etsId, e.getMessage());
+					etsText = PagedHtmlReport.EtsText.NONE;
+				}
+			}
+		}
+		return new PagedHtmlReport(applicationContext, LocaleContextHolder.getLocale(), etsText);
+	}
+
+	private PrintWriter htmlWriter(final HttpServletResponse response) throws IOException {
+		response.setContentType(MediaType.TEXT_HTML_VALUE);
+		response.setCharacterEncoding("UTF-8");
+		return response.getWriter();
+	}
+
+	private static TestResultStatus parseResultStatus(final String status) throws LocalizableApiError {
+		if (SUtils.isNullOrEmpty(status)) {
+			return null;
+		}
+		try {
+			return TestResultStatus.valueOf(status.trim().toUpperCase());
+		} catch (final IllegalArgumentException e) {
+			throw new LocalizableApiError("l.invalid.result.status", false, HttpStatus.BAD_REQUEST.value(), status);
+		}
+	}
+
+	private static TestRunFilter testRunFilter(final int offset, final int limit, final String q, final String status,
+			final String testObject, final String ets, final Long from, final Long to, final String sort,
+			final String cursor) throws LocalizableApiError {
+		final TestRunFilter.Sort sortOrder;
+		try {
+			sortOrder = TestRunFilter.Sort.fromParameter(sort);
+		} catch (final IllegalArgumentException e) {
+			throw new LocalizableApiError("l.invalid.sort.order", false, HttpStatus.BAD_REQUEST.value(), sort);
+		}
+		return new TestRunFilter(offset, limit, q, parseResultStatus(status),
+				!SUtils.isNullOrEmpty(testObject) ? EidConverter.toEid(testObject) : null,
+				!SUtils.isNullOrEmpty(ets) ? EidConverter.toEid(ets) : null,
+				from, to, sortOrder, cursor);
+	}
+
+	/**
+	 * Selects the IDs of the requested page and sets the cursor for the next page
+	 * in the 'Next-Cursor' response header
+	 */
+	private List<EID> queryTestRunIndex(final TestRunFilter filter, final HttpServletResponse response)
+			throws StorageException, LocalizableApiError {
+		testRunIndex.ensureInitialized(testRunDao);
+		final CursorPage page;
+		try {
+			page = testRunIndex.query(filter);
+		} catch (final IllegalArgumentException e) {
+			throw new LocalizableApiError("l.invalid.cursor", false, HttpStatus.BAD_REQUEST.value(), e);
+		}
+		if (page.getNextCursor() != null) {
+			response.setHeader(StreamingService.NEXT_CURSOR_HEADER, page.getNextCursor());
+		}
+		return page.getIds();
+	}
+
 	//
 	// Rest interfaces
 	///////////////////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -221,9 +481,23 @@ public class TestResultController {
 	public void testRunsXml(
 			@ApiParam(value = OFFSET_DESCRIPTION) @RequestParam(required = false, defaultValue = "0") int offset,
 			@ApiParam(value = LIMIT_DESCRIPTION) @RequestParam(required = false, defaultValue = "0") int limit,
+			@ApiParam(value = SEARCH_DESCRIPTION) @RequestParam(value = "q", required = false) String q,
+			@ApiParam(value = STATUS_DESCRIPTION, example = "FAILED") @RequestParam(value = "status", required = false) String status,
+			@ApiParam(value = TEST_OBJECT_FILTER_DESCRIPTION) @RequestParam(value = "testObject", required = false) String testObject,
+			@ApiParam(value = ETS_FILTER_DESCRIPTION) @RequestParam(value = "ets", required = false) String ets,
+			@ApiParam(value = FROM_DESCRIPTION, example = "1483228800000") @RequestParam(value = "from", required = false) Long from,
+			@ApiParam(value = TO_DESCRIPTION, example = "1514764799000") @RequestParam(value = "to", required = false) Long to,
+			@ApiParam(value = SORT_DESCRIPTION, allowableValues = "-startTimestamp,startTimestamp,label,-label") @RequestParam(value = "sort", required = false) String sort,
+			@ApiParam(value = CURSOR_DESCRIPTION) @RequestParam(value = "cursor", required = false) String cursor,
 			HttpServletRequest request,
-			HttpServletResponse response) throws StorageException, IOException, ObjectWithIdNotFoundException {
-		streaming.asXml2(testRunDao, request, response, new SimpleFilter(offset, limit));
+			HttpServletResponse response)
+			throws StorageException, IOException, ObjectWithIdNotFoundException, LocalizableApiError {
+		final TestRunFilter filter = testRunFilter(offset, limit, q, status, testObject, ets, from, to, sort, cursor);
+		if (filter.isUnrestricted()) {
+			streaming.asXml2(testRunDao, request, response, new SimpleFilter(offset, limit));
+		} else {
+			streaming.asXml2(testRunDao, request, response, queryTestRunIndex(filter, response));
+		}
 	}
 
 	@ApiOperation(value = "Get a single Test Result as XML", notes = TEST_RUN_DESCRIPTION, tags = {TEST_RESULTS_TAG_NAME})
@@ -242,9 +516,23 @@ public class TestResultController {
 	public void testRunsJson(
 			@ApiParam(value = OFFSET_DESCRIPTION) @RequestParam(required = false, defaultValue = "0") int offset,
 			@ApiParam(value = LIMIT_DESCRIPTION) @RequestParam(required = false, defaultValue = "0") int limit,
+			@ApiParam(value = SEARCH_DESCRIPTION) @RequestParam(value = "q", required = false) String q,
+			@ApiParam(value = STATUS_DESCRIPTION, example = "FAILED") @RequestParam(value = "status", required = false) String status,
+			@ApiParam(value = TEST_OBJECT_FILTER_DESCRIPTION) @RequestParam(value = "testObject", required = false) String testObject,
+			@ApiParam(value = ETS_FILTER_DESCRIPTION) @RequestParam(value = "ets", required = false) String ets,
+			@ApiParam(value = FROM_DESCRIPTION, example = "1483228800000") @RequestParam(value = "from", required = false) Long from,
+			@ApiParam(value = TO_DESCRIPTION, example = "1514764799000") @RequestParam(value = "to", required = false) Long to,
+			@ApiParam(value = SORT_DESCRIPTION, allowableValues = "-startTimestamp,startTimestamp,label,-label") @RequestParam(value = "sort", required = false) String sort,
+			@ApiParam(value = CURSOR_DESCRIPTION) @RequestParam(value = "cursor", required = false) String cursor,
 			HttpServletRequest request,
-			HttpServletResponse response) throws IOException, StorageException, ObjectWithIdNotFoundException {
-		streaming.asJson2(testRunDao, request, response, new SimpleFilter(offset, limit));
+			HttpServletResponse response)
+			throws IOException, StorageException, ObjectWithIdNotFoundException, LocalizableApiError {
+		final TestRunFilter filter = testRunFilter(offset, limit, q, status, testObject, ets, from, to, sort, cursor);
+		if (filter.isUnrestricted()) {
+			streaming.asJson2(testRunDao, request, response, new SimpleFilter(offset, limit));
+		} else {
+			streaming.asJson2(testRunDao, request, response, queryTestRunIndex(filter, response));
+		}
 	}
 
 	@ApiOperation(value = "Get a single Test Result as JSON", notes = "Transforms one Test Run to JSON. "
@@ -275,20 +563,235 @@ public class TestResultController {
 		getByIdHtml(testRunDao, id, download, request, response);
 	}
 
-	@ApiOperation(value = "Get a Test Run's log by ID", notes = "Retrieves all messages that were logged during a Test Run.", tags = {
+	@ApiOperation(value = "Export multiple Test Results as ZIP archive", notes = "Streams all Test Runs that match the "
+			+ "criteria as ZIP archive. Each Test Run is written as separate XML or JSON file. If 'attachments' is set, "
+			+ "the file based attachments of the Test Task Results are added to the 'attachments/{Test Run ID}/' "
+			+ "folder. Timestamps are milliseconds since the epoch and are compared with the start time of a Test Run. "
+			+ TEST_RUN_DESCRIPTION, produces = "application/zip", tags = {TEST_RESULTS_TAG_NAME})
+	@ApiResponses(value = {
+			@ApiResponse(code = 200, message = "Archive", response = Void.class),
+			@ApiResponse(code = 400, message = "Invalid export parameter", response = Void.class),
+	})
+	@RequestMapping(value = {TEST_RUNS_URL + ".zip"}, method = RequestMethod.GET, produces = "application/zip")
+	public void exportTestRuns(
+			@ApiParam(value = "Format of the Test Run files", allowableValues = "xml,json", defaultValue = "xml") @RequestParam(value = "format", required = false, defaultValue = "xml") String format,
+			@ApiParam(value = "Only Test Runs started at or after this time", example = "1483228800000") @RequestParam(value = "from", required = false) Long from,
+			@ApiParam(value = "Only Test Runs started at or before this time", example = "1514764799000") @RequestParam(value = "to", required = false) Long to,
+			@ApiParam(value = "Only Test Runs that executed this Executable Test Suite. "
+					+ EID_DESCRIPTION, example = EID_EXAMPLE) @RequestParam(value = "ets", required = false) String ets,
+			@ApiParam(value = "Only Test Runs that tested this Test Object. "
+					+ EID_DESCRIPTION, example = EID_EXAMPLE) @RequestParam(value = "testObject", required = false) String testObject,
+			@ApiParam(value = "Only Test Runs with this result status", example = "FAILED") @RequestParam(value = "status", required = false) String status,
+			@ApiParam(value = "Add attachments", allowableValues = "true,false", defaultValue = "false") @RequestParam(value = "attachments", required = false, defaultValue = "false") boolean attachments,
+			HttpServletResponse response) throws StorageException, IOException, LocalizableApiError {
+
+		final String extension;
+		final OutputFormat outputFormat;
+		if ("xml".equalsIgnoreCase(format)) {
+			extension = ".xml";
+			outputFormat = testRunDao.getOutputFormats()
+					.get(EidFactory.getDefault().createUUID(testRunDao.getDtoType().getSimpleName() + "DsResult2Xml"));
+		} else if ("json".equalsIgnoreCase(format)) {
+			extension = ".json";
+			outputFormat = testRunDao.getOutputFormats()
+					.get(EidFactory.getDefault().createUUID(testRunDao.getDtoType().getSimpleName() + "DsResult2Json"));
+		} else {
+			throw new LocalizableApiError("l.invalid.export.format", false, HttpStatus.BAD_REQUEST.value(), format);
+		}
+		final TestRunFilter filter = testRunFilter(0, 0, null, status, testObject, ets, from, to, null, null);
+
+		response.setContentType("application/zip");
+		response.setHeader("Content-Disposition", "attachment; filename=TestRuns.zip");
+		CacheControl.setCache(0, response);
+		final int exported = new ResultArchiveExport(testRunIndex, testRunDao, testTaskResultDao, outputFormat,
+				extension, attachments).writeTo(filter, response.getOutputStream());
+		logger.debug("Exported {} Test Runs", exported);
+	}
+
+	@ApiOperation(value = "Get Test Run statistics", notes = "Counts the Test Tasks of completed Test Runs, grouped by "
+			+ "the dimensions in the 'groupBy' parameter: 'day' (start day of the Test Run in UTC), 'ets' (Executable "
+			+ "Test Suite ID), 'testObjectType' (Test Object Type ID) and 'status' (result status). "
+			+ "The counters are maintained incrementally, so the costs do not depend on the number of Test Runs.", tags = {
+			TEST_RESULTS_TAG_NAME})
+	@ApiResponses(value = {
+			@ApiResponse(code = 200, message = "Statistics"),
+			@ApiResponse(code = 400, message = "Invalid parameter", response = Void.class),
+	})
+	@RequestMapping(value = {TEST_RUNS_URL + "/Statistics"}, method = RequestMethod.GET, produces = "application/json")
+	public List<Map<String, Object>> testRunStatistics(
+			@ApiParam(value = "Only count Test Runs of the last n days, including today. Ignored if 'from' is set", example = "30") @RequestParam(value = "days", required = false) Integer days,
+			@ApiParam(value = "First day (yyyy-MM-dd)", example = "2017-01-01") @RequestParam(value = "from", required = false) String from,
+			@ApiParam(value = "Last day (yyyy-MM-dd)", example = "2017-12-31") @RequestParam(value = "to", required = false) String to,
+			@ApiParam(value = ETS_FILTER_DESCRIPTION) @RequestParam(value = "ets", required = false) String ets,
+			@ApiParam(value = "Only count Test Runs of this Test Object Type. "
+					+ EID_DESCRIPTION) @RequestParam(value = "testObjectType", required = false) String testObjectType,
+			@ApiParam(value = "Comma separated list of dimensions", example = "ets,status", defaultValue = "ets,status") @RequestParam(value = "groupBy", required = false, defaultValue = "ets,status") String groupBy,
+			HttpServletResponse response) throws StorageException, LocalizableApiError {
+		final Set<TestRunStatistics.Dimension> dimensions = new LinkedHashSet<>();
+		final LocalDate fromDay;
+		final LocalDate toDay;
+		try {
+			for (final String dimension : groupBy.split(",")) {
+				if (!dimension.trim().isEmpty()) {
+					dimensions.add(TestRunStatistics.Dimension.fromParameter(dimension));
+				}
+			}
+			if (!SUtils.isNullOrEmpty(from)) {
+				fromDay = LocalDate.parse(from.trim());
+			} else if (days != null && days > 0) {
+				fromDay = LocalDate.now(ZoneOffset.UTC).minusDays(days - 1);
+			} else {
+				fromDay = null;
+			}
+			toDay = !SUtils.isNullOrEmpty(to) ? LocalDate.parse(to.trim()) : null;
+		} catch (final IllegalArgumentException | DateTimeParseException e) {
+			throw new LocalizableApiError("l.invalid.statistics.parameter", false, HttpStatus.BAD_REQUEST.value(), e,
+					e.getMessage());
+		}
+		CacheControl.setCache(0, response);
+		return statistics.query(fromDay, toDay,
+				!SUtils.isNullOrEmpty(ets) ? EidConverter.toEid(ets) : null,
+				!SUtils.isNullOrEmpty(testObjectType) ? EidConverter.toEid(testObjectType) : null,
+				dimensions);
+	}
+
+	@ApiOperation(value = "Rebuild Test Run statistics", notes = "Recounts all persisted Test Runs. "
+			+ "Only required if the persisted statistics are out of sync with the Test Runs.", tags = {
+			TEST_RESULTS_TAG_NAME})
+	@ApiResponses(value = {
+			@ApiResponse(code = 204, message = "Statistics rebuilt", response = Void.class),
+	})
+	@RequestMapping(value = {TEST_RUNS_URL + "/Statistics"}, params = "action=rebuild", method = RequestMethod.POST)
+	public ResponseEntity rebuildTestRunStatistics() throws StorageException {
+		statistics.rebuild();
+		return new ResponseEntity(HttpStatus.NO_CONTENT);
+	}
+
+	private List<EID> testTaskResultIdsOf(final EID testRunId) throws StorageException, ObjectWithIdNotFoundException {
+		final TestRunDto testRunDto = testRunDao.getById(testRunId).getDto();
+		final List<EID> ids = new ArrayList<>();
+		if (testRunDto.getTestTasks() != null) {
+			for (final TestTaskDto testTaskDto : testRunDto.getTestTasks()) {
+				if (testTaskDto.getTestTaskResult() != null) {
+					ids.add(testTaskDto.getTestTaskResult().getId());
+				}
+			}
+		}
+		return ids;
+	}
+
+	private void compareResults(final List<EID> baseResultIds, final List<EID> otherResultIds,
+			final HttpServletResponse response) throws IOException, StorageException, ObjectWithIdNotFoundException,
+			LocalizableApiError {
+		if ("false".equals(etfConfig.getProperty(EtfConfigController.ETF_REPORT_COMPARISON))) {
+			throw new LocalizableApiError("l.report.comparison.disabled", false, HttpServletResponse.SC_FORBIDDEN);
+		}
+		response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+		comparison.compare(baseResultIds, otherResultIds, response.getOutputStream());
+	}
+
+	private final static String COMPARISON_DESCRIPTION = "Compares the status of all Test Assertion results and returns "
+			+ "the changed ones in 'changed', with the status in the base result and in the other result. Assertions that "
+			+ "only exist in one of the results are listed in 'onlyInBase' and 'onlyInOther'. 'unchanged' is the number "
+			+ "of assertions with the same status. The comparison must be enabled with the 'etf.report.comparison' "
+			+ "configuration property.";
+
+	@ApiOperation(value = "Compare two Test Runs", notes = COMPARISON_DESCRIPTION, tags = {TEST_RESULTS_TAG_NAME})
+	@ApiResponses(value = {
+			@ApiResponse(code = 200, message = "Comparison"),
+			@ApiResponse(code = 403, message = "Comparison disabled", response = Void.class),
+			@ApiResponse(code = 404, message = "Test Run does not exist", response = Void.class),
+	})
+	@RequestMapping(value = {TEST_RUNS_URL + "/{id}/Comparison"}, method = RequestMethod.GET, produces = "application/json")
+	public void compareTestRuns(
+			@ApiParam(value = "ID of the base Test Run. "
+					+ EID_DESCRIPTION, example = EID_EXAMPLE, required = true) @PathVariable String id,
+			@ApiParam(value = "ID of the Test Run that is compared with the base Test Run. "
+					+ EID_DESCRIPTION, example = EID_EXAMPLE, required = true) @RequestParam(value = "with") String with,
+			HttpServletResponse response) throws IOException, StorageException, LocalizableApiError {
+		try {
+			compareResults(testTaskResultIdsOf(EidConverter.toEid(id)), testTaskResultIdsOf(EidConverter.toEid(with)),
+					response);
+		} catch (final ObjectWithIdNotFoundException e) {
+			throw new LocalizableApiError(e);
+		}
+	}
+
+	@ApiOperation(value = "Compare two Test Task Results", notes = COMPARISON_DESCRIPTION + TEST_TASK_RESULT_NOTE, tags = {
+			TEST_RESULTS_TAG_NAME})
+	@ApiResponses(value = {
+			@ApiResponse(code = 200, message = "Comparison"),
+			@ApiResponse(code = 403, message = "Comparison disabled", response = Void.class),
+			@ApiResponse(code = 404, message = "Test Task Result does not exist", response = Void.class),
+	})
+	@RequestMapping(value = {TEST_TASKS_URL + "/{id}/Comparison"}, method = RequestMethod.GET, produces = "application/json")
+	public void compareTestTaskResults(
+			@ApiParam(value = "ID of the base Test Task Result. "
+					+ EID_DESCRIPTION, example = EID_EXAMPLE, required = true) @PathVariable String id,
+			@ApiParam(value = "ID of the Test Task Result that is compared with the base Test Task Result. "
+					+ EID_DESCRIPTION, example = EID_EXAMPLE, required = true) @RequestParam(value = "with") String with,
+			HttpServletResponse response) throws IOException, StorageException, LocalizableApiError {
+		try {
+			compareResults(Collections.singletonList(EidConverter.toEid(id)),
+					Collections.singletonList(EidConverter.toEid(with)), response);
+		} catch (final ObjectWithIdNotFoundException e) {
+			throw new LocalizableApiError(e);
+		}
+	}
+
+	private final static long MAX_LOG_FOLLOW_TIME = TimeUnit.MINUTES.toMillis(30);
+
+	@ApiOperation(value = "Get a Test Run's log by ID", notes = "Retrieves all messages that were logged during a Test Run. "
+			+ "Without parameters the complete log is returned and HTTP range requests are supported. "
+			+ "With the 'offset' or 'tail' parameter only the bytes from the offset or the last lines are returned. "
+			+ "The 'Log-Offset' response header contains the byte offset of the first returned byte, so that a "
+			+ "client can resume by adding the number of received bytes to this offset. "
+			+ "With 'follow=true' the connection is kept open and appended lines are streamed until the "
+			+ "Test Run finishes.", tags = {
 			TEST_RESULTS_TAG_NAME})
 	@RequestMapping(value = {TEST_RUNS_URL + "/{id}/log"}, method = RequestMethod.GET, produces = "text/plain")
 	public void testRunLog(
 			@ApiParam(value = "Test Run ID. "
 					+ EID_DESCRIPTION, example = EID_EXAMPLE, required = true) @PathVariable String id,
+			@ApiParam(value = "Byte offset from where to resume", example = "4096") @RequestParam(value = "offset", required = false) Long offset,
+			@ApiParam(value = "Number of last lines to return. Ignored if an offset is set", example = "100") @RequestParam(value = "tail", required = false) Integer tail,
+			@ApiParam(value = "Stream appended lines until the Test Run finishes", allowableValues = "true,false", defaultValue = "false") @RequestParam(value = "follow", required = false, defaultValue = "false") boolean follow,
+			HttpServletRequest request,
 			HttpServletResponse response) throws StorageException, IOException, LocalizableApiError {
 		try {
-			final TestRunDto dto = testRunDao.getById(EidConverter.toEid(id)).getDto();
+			final EID eid = EidConverter.toEid(id);
+			final TestRunDto dto = testRunDao.getById(eid).getDto();
 			if (dto.getLogPath() != null) {
+				final File logFile = new File(dto.getLogPath());
+				if (!logFile.exists()) {
+					response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+					return;
+				}
+				// The log file grows as long as the Test Run is running
+				CacheControl.setCache(0, response);
+				if (offset == null && tail == null && !follow) {
+					FileResponse.send(logFile, MediaType.TEXT_PLAIN_VALUE, request, response);
+					return;
+				}
+				final LogTailer tailer = new LogTailer(logFile);
+				final long start;
+				if (offset != null) {
+					start = Math.min(Math.max(offset, 0), logFile.length());
+				} else if (tail != null) {
+					start = tailer.offsetOfLastLines(tail);
+				} else {
+					start = 0;
+				}
 				response.setContentType(MediaType.TEXT_PLAIN_VALUE);
-				final ServletOutputStream out = response.getOutputStream();
-				// FIXME log path
-				IOUtils.copy(new FileInputStream(dto.getLogPath()), out);
+				response.setHeader("Log-Offset", String.valueOf(start));
+				if (follow) {
+					// The request thread is released, appended lines are written by the log follower
+					final AsyncContext context = request.startAsync(request, response);
+					context.setTimeout(MAX_LOG_FOLLOW_TIME);
+					logFollower.follow(context, tailer, start, () -> testRunController.isRunning(eid));
+				} else {
+					tailer.copyFrom(start, response.getOutputStream());
+				}
 			}
 		} catch (ObjectWithIdNotFoundException e) {
 			throw new LocalizableApiError(e);
@@ -311,17 +814,22 @@ public class TestResultController {
 
 	@ApiOperation(value = "Get a Test Result's attachment by ID", notes =
 			"Get an attachment which was saved during a Test Run. The mime type can not be predicted, "
-			+ "but text/plain will be used as fallback if the mime type could not be detected during the test run.", tags = {
+			+ "but text/plain will be used as fallback if the mime type could not be detected during the test run. "
+			+ "Attachments that are stored as files support HTTP range and conditional requests.", tags = {
 					TEST_RESULTS_TAG_NAME})
 	@ApiResponses(value = {
 			@ApiResponse(code = 204, message = "Attachment exists", response = Void.class),
+			@ApiResponse(code = 206, message = "Partial attachment content", response = Void.class),
+			@ApiResponse(code = 304, message = "Attachment not modified", response = Void.class),
 			@ApiResponse(code = 404, message = "Attachment does not exist", response = Void.class),
+			@ApiResponse(code = 416, message = "Requested range not satisfiable", response = Void.class),
 	})
 	@RequestMapping(value = {
 			API_BASE_URL + "/TestTaskResults/{id}/Attachments/{attachmentId}"}, method = RequestMethod.GET)
 	public void getAttachmentById(
 			@PathVariable String id,
 			@PathVariable String attachmentId,
+			HttpServletRequest request,
 			HttpServletResponse response) throws ObjectWithIdNotFoundException, StorageException, IOException {
 
 		final TestTaskResultDto testTaskResultDto = testTaskResultDao.getById(EidConverter.toEid(id)).getDto();
@@ -330,12 +838,19 @@ public class TestResultController {
 			throw new ObjectWithIdNotFoundException(attachmentId);
 		}
 
-		if (SUtils.isNullOrEmpty(attachmentDto.getMimeType())) {
-			response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+		final String mimeType = SUtils.isNullOrEmpty(attachmentDto.getMimeType()) ? MediaType.TEXT_PLAIN_VALUE
+				: attachmentDto.getMimeType();
+		final URI referencedData = attachmentDto.getReferencedData();
+		if (UriUtils.isFile(referencedData)) {
+			final File file = new File(referencedData);
+			if (!file.exists()) {
+				throw new ObjectWithIdNotFoundException(attachmentId);
+			}
+			FileResponse.send(file, mimeType, request, response);
 		} else {
-			response.setContentType(attachmentDto.getMimeType());
+			response.setContentType(mimeType);
+			UriUtils.stream(referencedData, response.getOutputStream());
 		}
-		UriUtils.stream(attachmentDto.getReferencedData(), response.getOutputStream());
 	}
 
 
@@ -393,6 +908,92 @@ public class TestResultController {
 	}
 
 
+	@ApiOperation(value = "Generate a paged HTML Test Report from a single Test Task within a Test Run",
+			notes = "Returns a HTML page with an overview of the Test Module results. The results of the Test Modules "
+					+ "and Test Cases are loaded on demand, when they are expanded in the browser. Use this interface "
+					+ "instead of the complete report for results with many Test Cases. "
+					+ TEST_TASK_RESULT_NOTE, produces = "text/html",
+			tags = {TEST_RESULTS_TAG_NAME})
+	@ApiResponses(value = {
+			@ApiResponse(code = 200, message = "Test Task exists", response = Void.class),
+			@ApiResponse(code = 404, message = "Test Task does not exist", response = Void.class),
+			@ApiResponse(code = 406, message = "Test Task not finished yet", response = Void.class),
+	})
+	@RequestMapping(value = {TEST_TASKS_URL + "/{id}/report.html"}, method = RequestMethod.GET)
+	public void testTaskResultPagedHtml(
+			@ApiParam(value = "Test Task ID. "
+					+ EID_DESCRIPTION, example = EID_EXAMPLE, required = true) @PathVariable String id,
+			HttpServletRequest request,
+			HttpServletResponse response)
+			throws StorageException, IOException, ObjectWithIdNotFoundException, LocalizableApiError {
+		if (CacheControl.clientNeedsUpdate(testTaskResultDao, request, response, TimeUnit.SECONDS.toDays(31))) {
+			readPagedReport(EidConverter.toEid(id), reader -> {
+				pagedReport(reader).writeShell(reader.readOverview(), htmlWriter(response));
+				return null;
+			});
+		}
+	}
+
+	@ApiOperation(value = "Get the HTML fragment of a Test Module result",
+			notes = "Returns the Test Case results of one Test Module as HTML fragment, which is used by the paged HTML report. "
+					+ TEST_TASK_RESULT_NOTE, produces = "text/html",
+			tags = {TEST_RESULTS_TAG_NAME})
+	@ApiResponses(value = {
+			@ApiResponse(code = 200, message = "Test Module result exists", response = Void.class),
+			@ApiResponse(code = 404, message = "Test Task or Test Module result does not exist", response = Void.class),
+			@ApiResponse(code = 406, message = "Test Task not finished yet", response = Void.class),
+	})
+	@RequestMapping(value = {TEST_TASKS_URL + "/{id}/TestModuleResults/{moduleId}.html"}, method = RequestMethod.GET)
+	public void testModuleResultHtmlFragment(
+			@ApiParam(value = "Test Task ID. "
+					+ EID_DESCRIPTION, example = EID_EXAMPLE, required = true) @PathVariable String id,
+			@ApiParam(value = "Test Module result ID. "
+					+ EID_DESCRIPTION, example = EID_EXAMPLE, required = true) @PathVariable String moduleId,
+			@ApiParam(value = OFFSET_DESCRIPTION) @RequestParam(required = false, defaultValue = "0") int offset,
+			@ApiParam(value = "The maximum number of Test Case results to return.") @RequestParam(required = false, defaultValue = "0") int limit,
+			HttpServletRequest request,
+			HttpServletResponse response)
+			throws StorageException, IOException, ObjectWithIdNotFoundException, LocalizableApiError {
+		if (CacheControl.clientNeedsUpdate(testTaskResultDao, request, response, TimeUnit.SECONDS.toDays(31))) {
+			final EID testModuleId = EidConverter.toEid(moduleId);
+			final int start = offset > 0 ? offset : 0;
+			final int pageSize = limit > 0 ? limit : PagedHtmlReport.DEFAULT_PAGE_SIZE;
+			readPagedReport(EidConverter.toEid(id), reader -> {
+				pagedReport(reader).writeTestModule(testModuleId.getId(),
+						reader.readTestCases(testModuleId, start, pageSize), start, pageSize, htmlWriter(response));
+				return null;
+			});
+		}
+	}
+
+	@ApiOperation(value = "Get the HTML fragment of a Test Case result",
+			notes = "Returns the Test Step and Test Assertion results of one Test Case as HTML fragment, "
+					+ "which is used by the paged HTML report. "
+					+ TEST_TASK_RESULT_NOTE, produces = "text/html",
+			tags = {TEST_RESULTS_TAG_NAME})
+	@ApiResponses(value = {
+			@ApiResponse(code = 200, message = "Test Case result exists", response = Void.class),
+			@ApiResponse(code = 404, message = "Test Task or Test Case result does not exist", response = Void.class),
+			@ApiResponse(code = 406, message = "Test Task not finished yet", response = Void.class),
+	})
+	@RequestMapping(value = {TEST_TASKS_URL + "/{id}/TestCaseResults/{testCaseId}.html"}, method = RequestMethod.GET)
+	public void testCaseResultHtmlFragment(
+			@ApiParam(value = "Test Task ID. "
+					+ EID_DESCRIPTION, example = EID_EXAMPLE, required = true) @PathVariable String id,
+			@ApiParam(value = "Test Case result ID. "
+					+ EID_DESCRIPTION, example = EID_EXAMPLE, required = true) @PathVariable String testCaseId,
+			HttpServletRequest request,
+			HttpServletResponse response)
+			throws StorageException, IOException, ObjectWithIdNotFoundException, LocalizableApiError {
+		if (CacheControl.clientNeedsUpdate(testTaskResultDao, request, response, TimeUnit.SECONDS.toDays(31))) {
+			final EID testCaseEid = EidConverter.toEid(testCaseId);
+			readPagedReport(EidConverter.toEid(id), reader -> {
+				pagedReport(reader).writeTestCase(reader.readTestSteps(testCaseEid), htmlWriter(response));
+				return null;
+			});
+		}
+	}
+
 	@ApiOperation(value = "Check if the Test Task exists", notes = "Checks if a Test Task has been completed and saved. "
 			+TEST_TASK_RESULT_NOTE,
 			tags = {TEST_RESULTS_TAG_NAME})
@@ -25,6 +25,7 @@ import java.net.URISyntaxException;
 import java.text.ParseException;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
@@ -202,6 +203,8 @@ public class TestRunController implements TestRunEventListener {
 		// 7,5 minutes
 		timer.scheduleAtFixedRate(timedExpiredItemsRemover, 450000, 450000);
 
+		testDriverController.setActiveTestRunsCheck(this::hasActiveTestRuns);
+
 		logger.info("Test Run controller initialized!");
 	}
 
@@ -213,12 +216,42 @@ public class TestRunController implements TestRunEventListener {
 		}
 	}
 
+	/**
+	 * Checks if a Test Run is still running and will produce new log messages
+	 *
+	 * @param eid Test Run ID
+	 * @return true if the Test Run has not been completed yet
+	 */
+	boolean isRunning(final EID eid) {
+		try {
+			return !taskPoolRegistry.getTaskById(eid).getProgress().getState().isCompletedFailedCanceledOrFinalizing();
+		} catch (ObjectWithIdNotFoundException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return true if at least one Test Run has not been completed yet
+	 */
+	private boolean hasActiveTestRuns() {
+		for (final TestRun testRun : taskPoolRegistry.getTasks()) {
+			if (!testRun.getProgress().getState().isCompletedFailedCanceledOrFinalizing()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	void addMetaData(final Model model) {
 		model.addAttribute("testRuns", taskPoolRegistry.getTasks());
 		model.addAttribute("testDriversInfo", testDriverController.getTestDriverInfo());
 	}
 
 	private void initAndSubmit(TestRunDto testRunDto) throws LocalizableApiError {
+		testDriverController.ensureLoaded();
+		// The test drivers must not be reloaded until the Test Run is registered
+		final Lock creationLock = testDriverController.testRunCreationLock();
+		creationLock.lock();
 		try {
 			final TestRun testRun = testDriverController.create(testRunDto);
 			Objects.requireNonNull(testRun, "Test Driver created invalid TestRun").addTestRunEventListener(this);
@@ -241,6 +274,8 @@ public class TestRunController implements TestRunEventListener {
 			throw new LocalizableApiError(
 					"l.internal.testrun.initialization.error",
 					true, 500, e);
+		} finally {
+			creationLock.unlock();
 		}
 	}
 
@@ -258,6 +293,7 @@ public class TestRunController implements TestRunEventListener {
 		if (current.isCompleted()) {
 			try {
 				testResultController.updateTestRun(testRun);
+				testResultController.preRenderReports(testRun);
 			} catch (StorageException | ObjectWithIdNotFoundException e) {
 				final String identifier = testRun != null ? testRun.getLabel() : "";
 				logger.error("Test Run " + identifier + " could not be updated");
@@ -386,15 +422,19 @@ public class TestRunController implements TestRunEventListener {
 			if (taskPoolRegistry.contains(eid)) {
 				responseHeaders.set("action", "canceled");
 				taskPoolRegistry.cancelTask(eid);
+				testResultController.removePreRenderedReports(eid);
 				try {
 					((WriteDao) testRunDao).delete(eid);
 				} catch (ObjectWithIdNotFoundException | StorageException ignore) {
 					ExcUtils.suppress(ignore);
 				}
+				testResultController.testRunDeleted(eid);
 				return new ResponseEntity(responseHeaders, HttpStatus.NO_CONTENT);
 			} else if (testRunDao.exists(EidConverter.toEid(id))) {
 				responseHeaders.set("action", "deleted");
+				testResultController.removePreRenderedReports(eid);
 				((WriteDao) testRunDao).delete(eid);
+				testResultController.testRunDeleted(eid);
 				return new ResponseEntity(responseHeaders, HttpStatus.NO_CONTENT);
 			}
 		} catch (ObjectWithIdNotFoundException e) {
@@ -480,7 +520,8 @@ public class TestRunController implements TestRunEventListener {
 		taskPoolRegistry.removeDone();
 
 		try {
-			final TestRunDto testRunDto = testRunRequest.toTestRun(testObjectController, testDriverController);
+			final TestRunDto testRunDto = testRunRequest.toTestRun(testObjectController,
+					testDriverController::getExecutableTestSuiteById);
 
 			final TestObjectDto tO = testRunDto.getTestObjects().get(0);
 
@@ -495,7 +536,10 @@ public class TestRunController implements TestRunEventListener {
 			}
 
 			tO.setAuthor(request.getRemoteAddr());
-			testObjectController.initResourcesAndAdd(tO);
+			// The Test Run is registered after its test data has been prepared,
+			// so the download progress is logged with the Test Run ID
+			testObjectController.initResourcesAndAdd(tO, (uri, completed, total) -> logger.info(
+					"Test Run {}: downloaded test data {} ({}/{})", testRunDto.getId(), uri, completed, total));
 
 			// this will save the Dto
 			initAndSubmit(testRunDto);
@@ -0,0 +1,240 @@
+/**
+ * Copyright 2010-2017 interactive instruments GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.interactive_instruments.etf.webapp.controller;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.interactive_instruments.SUtils;
+import de.interactive_instruments.etf.dal.dao.Dao;
+import de.interactive_instruments.etf.dal.dto.capabilities.TestObjectDto;
+import de.interactive_instruments.etf.dal.dto.result.TestResultStatus;
+import de.interactive_instruments.etf.dal.dto.run.TestRunDto;
+import de.interactive_instruments.etf.dal.dto.run.TestTaskDto;
+import de.interactive_instruments.etf.model.EID;
+import de.interactive_instruments.etf.webapp.conversion.EidConverter;
+import de.interactive_instruments.etf.webapp.helpers.SimpleFilter;
+import de.interactive_instruments.etf.webapp.helpers.TestRunFilter;
+import de.interactive_instruments.exceptions.StorageException;
+
+/**
+ * In-memory index of the Test Run properties that are used to filter, sort and
+ * search Test Run listings.
+ *
+ * The Dao filter only supports offset and limit, so the predicates are evaluated
+ * against this index and only the IDs of the requested page are queried from the Dao.
+ * Pages are addressed with keyset cursors (sort key + ID) which remain stable while
+ * new Test Runs are added.
+ *
+ * @author J. Herrmann ( herrmann <aT) interactive-instruments (doT> de )
+ */
+final class TestRunIndex {
+
+	private static final int REBUILD_PAGE_SIZE = 1000;
+	private static final char CURSOR_SEPARATOR = '\n';
+
+	static final class Entry {
+		private final EID id;
+		private final String label;
+		private final long start;
+		private final TestResultStatus status;
+		private final Set<EID> testObjectIds;
+		private final Set<EID> executableTestSuiteIds;
+
+		private Entry(final EID id, final String label, final long start, final TestResultStatus status,
+				final Set<EID> testObjectIds, final Set<EID> executableTestSuiteIds) {
+			this.id = id;
+			this.label = label;
+			this.start = start;
+			this.status = status;
+			this.testObjectIds = testObjectIds;
+			this.executableTestSuiteIds = executableTestSuiteIds;
+		}
+
+		private static Entry of(final TestRunDto testRun) {
+			final Set<EID> testObjectIds = new HashSet<>();
+			if (testRun.getTestObjects() != null) {
+				for (final TestObjectDto testObject : testRun.getTestObjects()) {
+					testObjectIds.add(testObject.getId());
+				}
+			}
+			final Set<EID> etsIds = new HashSet<>();
+			if (testRun.getTestTasks() != null) {
+				for (final TestTaskDto testTask : testRun.getTestTasks()) {
+					if (testTask.getExecutableTestSuite() != null) {
+						etsIds.add(testTask.getExecutableTestSuite().getId());
+					}
+				}
+			}
+			TestResultStatus status = null;
+			if (testRun.getTestResultStatus() != null) {
+				try {
+					status = TestResultStatus.valueOf(testRun.getTestResultStatus());
+				} catch (final IllegalArgumentException ignore) {
+					// not finished or unknown
+				}
+			}
+			return new Entry(testRun.getId(),
+					testRun.getLabel() != null ? testRun.getLabel().toLowerCase(Locale.ENGLISH) : "",
+					testRun.getStartTimestamp() != null ? testRun.getStartTimestamp().getTime() : 0,
+					status, testObjectIds, etsIds);
+		}
+
+		private boolean matches(final TestRunFilter filter) {
+			return (filter.search() == null || label.contains(filter.search()))
+					&& (filter.status() == null || filter.status() == status)
+					&& (filter.testObjectId() == null || testObjectIds.contains(filter.testObjectId()))
+					&& (filter.executableTestSuiteId() == null
+							|| executableTestSuiteIds.contains(filter.executableTestSuiteId()))
+					&& start >= filter.from() && start <= filter.to();
+		}
+
+		EID getId() {
+			return id;
+		}
+	}
+
+	private static final Comparator<Entry> BY_START = Comparator.<Entry> comparingLong(e -> e.start)
+			.thenComparing(e -> e.id.getId());
+	private static final Comparator<Entry> BY_LABEL = Comparator.<Entry, String> comparing(e -> e.label)
+			.thenComparing(e -> e.id.getId());
+
+	private final Map<EID, Entry> entries = new ConcurrentHashMap<>();
+	private final NavigableSet<Entry> byStart = new ConcurrentSkipListSet<>(BY_START);
+	private volatile boolean initialized;
+	private final Logger logger = LoggerFactory.getLogger(TestRunIndex.class);
+
+	/**
+	 * Loads all Test Runs, if the index has not been initialized yet
+	 *
+	 * @param dao Test Run Dao
+	 */
+	void ensureInitialized(final Dao<TestRunDto> dao) throws StorageException {
+		if (!initialized) {
+			synchronized (this) {
+				if (!initialized) {
+					final long start = System.currentTimeMillis();
+					for (int offset = 0;; offset += REBUILD_PAGE_SIZE) {
+						final Collection<TestRunDto> page = dao.getAll(
+								new SimpleFilter(offset, REBUILD_PAGE_SIZE)).asCollection();
+						for (final TestRunDto testRun : page) {
+							put(testRun);
+						}
+						if (page.size() < REBUILD_PAGE_SIZE) {
+							break;
+						}
+					}
+					initialized = true;
+					logger.info("Indexed {} Test Runs in {} ms", entries.size(), System.currentTimeMillis() - start);
+				}
+			}
+		}
+	}
+
+	synchronized void put(final TestRunDto testRun) {
+		final Entry entry = Entry.of(testRun);
+		final Entry previous = entries.put(entry.id, entry);
+		if (previous != null) {
+			byStart.remove(previous);
+		}
+		byStart.add(entry);
+	}
+
+	synchronized void remove(final EID id) {
+		final Entry previous = entries.remove(id);
+		if (previous != null) {
+			byStart.remove(previous);
+		}
+	}
+
+	/**
+	 * Returns the IDs of the Test Runs on the requested page
+	 *
+	 * @param filter Test Run filter
+	 * @return page
+	 * @throws IllegalArgumentException if the cursor is invalid
+	 */
+	CursorPage query(final TestRunFilter filter) {
+		final Entry after = !SUtils.isNullOrEmpty(filter.cursor()) ? decodeCursor(filter.cursor(), filter.sort())
+				: null;
+		final Iterator<Entry> it;
+		switch (filter.sort()) {
+		case START_ASC:
+			it = (after != null ? byStart.tailSet(after, false) : byStart).iterator();
+			break;
+		case START_DESC:
+			it = (after != null ? byStart.headSet(after, false) : byStart).descendingIterator();
+			break;
+		default:
+			// Label orders are not kept and sorted on demand
+			final Comparator<Entry> order = filter.sort() == TestRunFilter.Sort.LABEL_ASC ? BY_LABEL
+					: BY_LABEL.reversed();
+			it = entries.values().stream()
+					.filter(e -> after == null || order.compare(e, after) > 0)
+					.filter(e -> e.matches(filter))
+					.sorted(order).iterator();
+		}
+
+		final List<EID> ids = new ArrayList<>(filter.limit());
+		int skip = filter.cursor() == null ? filter.offset() : 0;
+		Entry last = null;
+		boolean more = false;
+		while (it.hasNext()) {
+			final Entry entry = it.next();
+			if (!entry.matches(filter)) {
+				continue;
+			}
+			if (skip > 0) {
+				skip--;
+				continue;
+			}
+			if (ids.size() == filter.limit()) {
+				more = true;
+				break;
+			}
+			ids.add(entry.id);
+			last = entry;
+		}
+		return new CursorPage(ids, more ? encodeCursor(last, filter.sort()) : null);
+	}
+
+	private static String encodeCursor(final Entry entry, final TestRunFilter.Sort sort) {
+		final String key = sort == TestRunFilter.Sort.START_ASC || sort == TestRunFilter.Sort.START_DESC
+				? String.valueOf(entry.start)
+				: entry.label;
+		final String cursor = sort.name() + CURSOR_SEPARATOR + entry.id.getId() + CURSOR_SEPARATOR + key;
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static Entry decodeCursor(final String cursor, final TestRunFilter.Sort sort) {
+		final String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+		final String[] parts = decoded.split(String.valueOf(CURSOR_SEPARATOR), 3);
+		if (parts.length != 3 || !sort.name().equals(parts[0])) {
+			throw new IllegalArgumentException("Cursor does not match the sort order");
+		}
+		final EID id = EidConverter.toEid(parts[1]);
+		if (sort == TestRunFilter.Sort.START_ASC || sort == TestRunFilter.Sort.START_DESC) {
+			return new Entry(id, "", Long.parseLong(parts[2]), null,
+					Collections.emptySet(), Collections.emptySet());
+		}
+		return new Entry(id, parts[2], 0, null, Collections.emptySet(), Collections.emptySet());
+	}
+}
@@ -0,0 +1,392 @@
+/**
+ * Copyright 2010-2017 interactive instruments GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.interactive_instruments.etf.webapp.controller;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.interactive_instruments.IFile;
+import de.interactive_instruments.etf.dal.dao.Dao;
+import de.interactive_instruments.etf.dal.dto.capabilities.TestObjectTypeDto;
+import de.interactive_instruments.etf.dal.dto.run.TestRunDto;
+import de.interactive_instruments.etf.dal.dto.run.TestTaskDto;
+import de.interactive_instruments.etf.model.EID;
+import de.interactive_instruments.etf.webapp.helpers.SimpleFilter;
+import de.interactive_instruments.exceptions.StorageException;
+
+/**
+ * Counts Test Tasks by day, Executable Test Suite, Test Object Type and result status.
+ *
+ * The counters are updated incrementally when a Test Run is completed or deleted. The
+ * contributions of each Test Run are remembered, so that an update or a deletion
+ * only changes the affected counters. Changes are appended to a journal in the data
+ * directory, which is replayed and compacted in a startup phase. If the journal does not
+ * exist, the counters are rebuilt from all persisted Test Runs.
+ *
+ * @author J. Herrmann ( herrmann <aT) interactive-instruments (doT> de )
+ */
+final class TestRunStatistics {
+
+	enum Dimension {
+		DAY("day"), ETS("executableTestSuite"), TEST_OBJECT_TYPE("testObjectType"), STATUS("status");
+
+		private final String label;
+
+		Dimension(final String label) {
+			this.label = label;
+		}
+
+		static Dimension fromParameter(final String parameter) {
+			switch (parameter.trim()) {
+			case "day":
+				return DAY;
+			case "ets":
+				return ETS;
+			case "testObjectType":
+				return TEST_OBJECT_TYPE;
+			case "status":
+				return STATUS;
+			default:
+				throw new IllegalArgumentException("Unknown dimension: " + parameter);
+			}
+		}
+	}
+
+	private static final int REBUILD_PAGE_SIZE = 1000;
+	private static final String UNKNOWN = "-";
+	private static final char SEP = '\t';
+
+	private final IFile journalFile;
+	private final Dao<TestRunDto> testRunDao;
+	// day, ETS ID, Test Object Type ID and status separated with tabs
+	private final Map<String, Long> counters = new HashMap<>();
+	private final Map<String, List<String>> contributions = new HashMap<>();
+	// Test Run ID -> keys, or null for deleted Test Runs
+	private final Map<String, List<String>> changesWhileLoading = new LinkedHashMap<>();
+	private final CountDownLatch loadedLatch = new CountDownLatch(1);
+	private Writer journal;
+	private boolean loaded;
+	private final Logger logger = LoggerFactory.getLogger(TestRunStatistics.class);
+
+	TestRunStatistics(final IFile journalFile, final Dao<TestRunDto> testRunDao) {
+		this.journalFile = journalFile;
+		this.testRunDao = testRunDao;
+	}
+
+	private static String keyFor(final LocalDate day, final String etsId, final String testObjectTypeId,
+			final String status) {
+		return day.toString() + SEP + etsId + SEP + testObjectTypeId + SEP + status;
+	}
+
+	private static List<String> keysOf(final TestRunDto testRun) {
+		if (testRun.getTestTasks() == null) {
+			return Collections.emptyList();
+		}
+		final LocalDate day = Instant.ofEpochMilli(
+				testRun.getStartTimestamp() != null ? testRun.getStartTimestamp().getTime() : 0)
+				.atZone(ZoneOffset.UTC).toLocalDate();
+		final List<String> keys = new ArrayList<>(testRun.getTestTasks().size());
+		for (final TestTaskDto testTask : testRun.getTestTasks()) {
+			final String etsId = testTask.getExecutableTestSuite() != null
+					? testTask.getExecutableTestSuite().getId().getId()
+					: UNKNOWN;
+			String status = null;
+			if (testTask.getTestTaskResult() != null && testTask.getTestTaskResult().getResultStatus() != null) {
+				status = testTask.getTestTaskResult().getResultStatus().toString();
+			} else if (testRun.getTestResultStatus() != null) {
+				status = testRun.getTestResultStatus();
+			}
+			final List<TestObjectTypeDto> types = testTask.getTestObject() != null
+					? testTask.getTestObject().getTestObjectTypes()
+					: null;
+			if (types == null || types.isEmpty()) {
+				keys.add(keyFor(day, etsId, UNKNOWN, status != null ? status : UNKNOWN));
+			} else {
+				for (final TestObjectTypeDto type : types) {
+					keys.add(keyFor(day, etsId, type.getId().getId(), status != null ? status : UNKNOWN));
+				}
+			}
+		}
+		return keys;
+	}
+
+	private void apply(final String testRunId, final List<String> keys) {
+		final List<String> previous = keys != null ? contributions.put(testRunId, keys)
+				: contributions.remove(testRunId);
+		if (previous != null) {
+			for (final String key : previous) {
+				counters.computeIfPresent(key, (k, v) -> v > 1 ? v - 1 : null);
+			}
+		}
+		if (keys != null) {
+			for (final String key : keys) {
+				counters.merge(key, 1L, Long::sum);
+			}
+		}
+	}
+
+	private void append(final String line) {
+		try {
+			if (journal == null) {
+				journal = new BufferedWriter(new OutputStreamWriter(
+						new FileOutputStream(journalFile, true), StandardCharsets.UTF_8));
+			}
+			journal.write(line);
+			journal.write('\n');
+			journal.flush();
+		} catch (final IOException e) {
+			logger.error("Could not write statistics journal: {}", e.getMessage());
+		}
+	}
+
+	/**
+	 * Loads the counters from the journal or recounts all persisted Test Runs, if the
+	 * journal does not exist or can not be read. Runs as startup phase: Test Runs that are
+	 * completed or deleted in the meantime are kept and applied after loading, queries
+	 * wait until the counters are loaded.
+	 */
+	void load() {
+		final long start = System.currentTimeMillis();
+		Map<String, List<String>> loadedContributions = null;
+		if (journalFile.exists()) {
+			try {
+				loadedContributions = readJournal();
+			} catch (final IOException e) {
+				logger.error("Could not read statistics journal, rebuilding statistics: {}", e.getMessage());
+			}
+		}
+		if (loadedContributions == null) {
+			try {
+				loadedContributions = recount();
+			} catch (final StorageException e) {
+				logger.error("Could not rebuild Test Run statistics, the statistics must be rebuilt manually: {}",
+						e.getMessage());
+				loadedContributions = Collections.emptyMap();
+			}
+		}
+		install(loadedContributions);
+		logger.info("Loaded Test Run statistics of {} Test Runs in {} ms", loadedContributions.size(),
+				System.currentTimeMillis() - start);
+	}
+
+	private Map<String, List<String>> readJournal() throws IOException {
+		final Map<String, List<String>> journalContributions = new HashMap<>();
+		try (final BufferedReader reader = Files.newBufferedReader(journalFile.toPath(), StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				final String[] parts = line.split("\\|", -1);
+				if (parts.length >= 2 && "+".equals(parts[0])) {
+					journalContributions.put(parts[1], Arrays.asList(parts).subList(2, parts.length));
+				} else if (parts.length == 2 && "-".equals(parts[0])) {
+					journalContributions.remove(parts[1]);
+				}
+			}
+		}
+		return journalContributions;
+	}
+
+	private Map<String, List<String>> recount() throws StorageException {
+		final Map<String, List<String>> recounted = new HashMap<>();
+		for (int offset = 0;; offset += REBUILD_PAGE_SIZE) {
+			final Collection<TestRunDto> page = testRunDao.getAll(
+					new SimpleFilter(offset, REBUILD_PAGE_SIZE)).asCollection();
+			for (final TestRunDto testRun : page) {
+				if (testRun.getTestResultStatus() != null) {
+					recounted.put(testRun.getId().getId(), keysOf(testRun));
+				}
+			}
+			if (page.size() < REBUILD_PAGE_SIZE) {
+				break;
+			}
+		}
+		return recounted;
+	}
+
+	// Replaces the counters and applies the changes that have been received while loading
+	private synchronized void install(final Map<String, List<String>> loadedContributions) {
+		counters.clear();
+		contributions.clear();
+		for (final Map.Entry<String, List<String>> contribution : loadedContributions.entrySet()) {
+			apply(contribution.getKey(), contribution.getValue());
+		}
+		for (final Map.Entry<String, List<String>> change : changesWhileLoading.entrySet()) {
+			apply(change.getKey(), change.getValue());
+		}
+		changesWhileLoading.clear();
+		loaded = true;
+		compact();
+		loadedLatch.countDown();
+	}
+
+	private void awaitLoaded() {
+		try {
+			loadedLatch.await();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Rewrites the journal with one entry per Test Run
+	 */
+	private void compact() {
+		closeJournal();
+		final File tmpFile = new File(journalFile.getPath() + ".tmp");
+		try (final Writer writer = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(tmpFile), StandardCharsets.UTF_8))) {
+			for (final Map.Entry<String, List<String>> contribution : contributions.entrySet()) {
+				writer.write(addLine(contribution.getKey(), contribution.getValue()));
+				writer.write('\n');
+			}
+		} catch (final IOException e) {
+			logger.error("Could not compact statistics journal: {}", e.getMessage());
+			tmpFile.delete();
+			return;
+		}
+		try {
+			Files.move(tmpFile.toPath(), journalFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+		} catch (final IOException e) {
+			logger.error("Could not replace statistics journal: {}", e.getMessage());
+		}
+	}
+
+	private static String addLine(final String testRunId, final List<String> keys) {
+		final StringBuilder line = new StringBuilder("+|").append(testRunId);
+		for (final String key : keys) {
+			line.append('|').append(key);
+		}
+		return line.toString();
+	}
+
+	private void closeJournal() {
+		if (journal != null) {
+			try {
+				journal.close();
+			} catch (final IOException ignore) {
+				// closed anyway
+			}
+			journal = null;
+		}
+	}
+
+	/**
+	 * Recounts all persisted Test Runs
+	 */
+	synchronized void rebuild() throws StorageException {
+		final long start = System.currentTimeMillis();
+		final Map<String, List<String>> recounted = recount();
+		install(recounted);
+		logger.info("Rebuilt Test Run statistics from {} Test Runs in {} ms", recounted.size(),
+				System.currentTimeMillis() - start);
+	}
+
+	/**
+	 * Counts a completed Test Run, replaces the counts if the Test Run has already been counted
+	 *
+	 * @param testRun completed Test Run
+	 */
+	synchronized void update(final TestRunDto testRun) {
+		final List<String> keys = keysOf(testRun);
+		if (!loaded) {
+			changesWhileLoading.put(testRun.getId().getId(), keys);
+			return;
+		}
+		apply(testRun.getId().getId(), keys);
+		append(addLine(testRun.getId().getId(), keys));
+	}
+
+	/**
+	 * Removes the counts of a deleted Test Run
+	 *
+	 * @param testRunId Test Run ID
+	 */
+	synchronized void remove(final EID testRunId) {
+		if (!loaded) {
+			changesWhileLoading.put(testRunId.getId(), null);
+			return;
+		}
+		if (contributions.containsKey(testRunId.getId())) {
+			apply(testRunId.getId(), null);
+			append("-|" + testRunId.getId());
+		}
+	}
+
+	/**
+	 * Sums up the counters in the day range, grouped by the passed dimensions
+	 *
+	 * @param from first day, inclusive
+	 * @param to last day, inclusive
+	 * @param etsId only count this Executable Test Suite or null
+	 * @param testObjectTypeId only count this Test Object Type or null
+	 * @param groupBy dimensions to group by
+	 * @return one row per group with the dimension values and the 'count'
+	 */
+	List<Map<String, Object>> query(final LocalDate from, final LocalDate to, final EID etsId,
+			final EID testObjectTypeId, final Set<Dimension> groupBy) {
+		awaitLoaded();
+		synchronized (this) {
+			return group(from, to, etsId, testObjectTypeId, groupBy);
+		}
+	}
+
+	private List<Map<String, Object>> group(final LocalDate from, final LocalDate to, final EID etsId,
+			final EID testObjectTypeId, final Set<Dimension> groupBy) {
+		final Map<List<String>, Long> groups = new TreeMap<>(Comparator.comparing(Object::toString));
+		for (final Map.Entry<String, Long> counter : counters.entrySet()) {
+			final String[] dims = counter.getKey().split(String.valueOf(SEP), -1);
+			final LocalDate day = LocalDate.parse(dims[0]);
+			if ((from != null && day.isBefore(from)) || (to != null && day.isAfter(to))
+					|| (etsId != null && !etsId.getId().equals(dims[1]))
+					|| (testObjectTypeId != null && !testObjectTypeId.getId().equals(dims[2]))) {
+				continue;
+			}
+			final List<String> group = new ArrayList<>(groupBy.size());
+			for (final Dimension dimension : groupBy) {
+				group.add(dims[dimension.ordinal()]);
+			}
+			groups.merge(group, counter.getValue(), Long::sum);
+		}
+		final List<Map<String, Object>> rows = new ArrayList<>(groups.size());
+		for (final Map.Entry<List<String>, Long> group : groups.entrySet()) {
+			final Map<String, Object> row = new LinkedHashMap<>();
+			int i = 0;
+			for (final Dimension dimension : groupBy) {
+				final String value = group.getKey().get(i++);
+				row.put(dimension.label, dimension == Dimension.ETS || dimension == Dimension.TEST_OBJECT_TYPE
+						? (UNKNOWN.equals(value) ? null : value)
+						: value);
+			}
+			row.put("count", group.getValue());
+			rows.add(row);
+		}
+		return rows;
+	}
+
+	synchronized void release() {
+		closeJournal();
+	}
+}
@@ -0,0 +1,206 @@
+/**
+ * Copyright 2010-2017 interactive instruments GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.interactive_instruments.etf.webapp.controller;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.io.input.CloseShieldInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.interactive_instruments.SUtils;
+import de.interactive_instruments.etf.dal.dto.capabilities.TestObjectTypeDto;
+import de.interactive_instruments.etf.model.EID;
+
+/**
+ * Ordered decision chain that classifies resources with the detection properties of the
+ * Test Object Types.
+ *
+ * The file name extensions, MIME types and detection expressions of all types are compiled
+ * once. A resource is first pre-filtered by its name and MIME type, which does not require
+ * its content. The detection expressions of the remaining types are then evaluated together
+ * in one pass over a bounded prefix of the content, so adding a type does not add requests
+ * or reads.
+ *
+ * The registry is immutable and can be shared between threads.
+ *
+ * @author J. Herrmann ( herrmann <aT) interactive-instruments (doT> de )
+ */
+final class TypeDetectorRegistry {
+
+	// Maximum number of bytes that are read to evaluate the detection expressions
+	static final int MAX_PREFIX_LENGTH = 1024 * 1024;
+
+	private static final class Entry {
+		private final EID typeId;
+		private final Set<String> extensions;
+		private final Set<String> mimeTypes;
+		private final XmlTypeDetection.Detector detector;
+
+		private Entry(final EID typeId, final Set<String> extensions, final Set<String> mimeTypes,
+				final XmlTypeDetection.Detector detector) {
+			this.typeId = typeId;
+			this.extensions = extensions;
+			this.mimeTypes = mimeTypes;
+			this.detector = detector;
+		}
+
+		private boolean hasPreFilter() {
+			return !extensions.isEmpty() || !mimeTypes.isEmpty();
+		}
+
+		// True if the name and the MIME type do not contradict the type
+		private boolean passes(final String extension, final String mimeType) {
+			return (extensions.isEmpty() || extension == null || extensions.contains(extension))
+					&& (mimeTypes.isEmpty() || mimeType == null || mimeTypes.contains(mimeType));
+		}
+
+		// True if the name or the MIME type confirms the type
+		private boolean confirms(final String extension, final String mimeType) {
+			return (extension != null && extensions.contains(extension))
+					|| (mimeType != null && mimeTypes.contains(mimeType));
+		}
+	}
+
+	private final List<Entry> entries;
+	private final XmlTypeDetection detection;
+
+	private TypeDetectorRegistry(final List<Entry> entries, final XmlTypeDetection detection) {
+		this.entries = entries;
+		this.detection = detection;
+	}
+
+	/**
+	 * Compiles the detection properties
+	 *
+	 * @param builtInDetectors detectors that take precedence over the Test Object Types
+	 * @param types Test Object Types
+	 * @param detection detection engine
+	 * @return registry
+	 */
+	static TypeDetectorRegistry compile(final List<XmlTypeDetection.Detector> builtInDetectors,
+			final Collection<TestObjectTypeDto> types, final XmlTypeDetection detection) {
+		final Logger logger = LoggerFactory.getLogger(TypeDetectorRegistry.class);
+		final List<Entry> withExpression = new ArrayList<>();
+		final List<Entry> preFilterOnly = new ArrayList<>();
+		for (final XmlTypeDetection.Detector detector : builtInDetectors) {
+			withExpression.add(new Entry(detector.getTypeId(), Collections.emptySet(), Collections.emptySet(),
+					detector));
+		}
+		final List<TestObjectTypeDto> sortedTypes = new ArrayList<>(types);
+		sortedTypes.sort(Comparator.comparing(t -> t.getId().getId()));
+		for (final TestObjectTypeDto type : sortedTypes) {
+			XmlTypeDetection.Detector detector = null;
+			if (!SUtils.isNullOrEmpty(type.getDetectionExpression())) {
+				try {
+					detector = XmlTypeDetection.Detector.compile(type.getId(), type.getDetectionExpression());
+				} catch (final IllegalArgumentException e) {
+					logger.debug("Detection expression of Test Object Type {} is not used: {}",
+							type.getId(), e.getMessage());
+				}
+			}
+			final Entry entry = new Entry(type.getId(), normalizeExtensions(type.getFilenameExtensions()),
+					normalize(type.getMimeTypes()), detector);
+			if (detector != null) {
+				withExpression.add(entry);
+			} else if (entry.hasPreFilter()) {
+				preFilterOnly.add(entry);
+			}
+		}
+		// Content based decisions are more specific than name based decisions
+		final List<Entry> entries = new ArrayList<>(withExpression);
+		entries.addAll(preFilterOnly);
+		logger.info("Compiled {} Test Object Type detectors, {} with detection expressions",
+				entries.size(), withExpression.size());
+		return new TypeDetectorRegistry(Collections.unmodifiableList(entries), detection);
+	}
+
+	private static Set<String> normalize(final List<String> values) {
+		if (values == null || values.isEmpty()) {
+			return Collections.emptySet();
+		}
+		final Set<String> normalized = new HashSet<>();
+		for (final String value : values) {
+			if (!SUtils.isNullOrEmpty(value)) {
+				normalized.add(value.trim().toLowerCase(Locale.ENGLISH));
+			}
+		}
+		return normalized;
+	}
+
+	private static Set<String> normalizeExtensions(final List<String> values) {
+		final Set<String> extensions = new HashSet<>();
+		for (final String extension : normalize(values)) {
+			extensions.add(extension.startsWith(".") ? extension.substring(1) : extension);
+		}
+		return extensions;
+	}
+
+	private static String extension(final String name) {
+		if (name == null) {
+			return null;
+		}
+		final int index = name.lastIndexOf('.');
+		return index != -1 && index < name.length() - 1 ? name.substring(index + 1).toLowerCase(Locale.ENGLISH) : null;
+	}
+
+	/**
+	 * Classifies a resource
+	 *
+	 * @param name file name or last path segment of the resource, or null
+	 * @param mimeType MIME type of the resource or null
+	 * @param content content of the resource, of which at most {@link #MAX_PREFIX_LENGTH} bytes
+	 *                are read and which is not closed, or null if the content is not available
+	 * @param nameBased true if a type without detection expression may be determined by the
+	 *                  name or MIME type alone, otherwise these are only used as pre-filters
+	 * @return detection result or null if no type matches. The result does not contain a
+	 *         label or description, if the type has been determined by the name or MIME type.
+	 * @throws IOException if the content could not be read
+	 */
+	XmlTypeDetection.Result classify(final String name, final String mimeType, final InputStream content,
+			final boolean nameBased) throws IOException {
+		final String extension = extension(name);
+		final String normalizedMimeType = mimeType != null ? mimeType.toLowerCase(Locale.ENGLISH) : null;
+		final List<XmlTypeDetection.Detector> detectors = new ArrayList<>();
+		Entry confirmedByName = null;
+		for (final Entry entry : entries) {
+			if (entry.passes(extension, normalizedMimeType)) {
+				if (entry.detector != null) {
+					detectors.add(entry.detector);
+				} else if (nameBased && confirmedByName == null && entry.confirms(extension, normalizedMimeType)) {
+					confirmedByName = entry;
+				}
+			}
+		}
+		if (!detectors.isEmpty() && content != null) {
+			try {
+				final XmlTypeDetection.Result result = detection.detect(new BoundedInputStream(
+						new CloseShieldInputStream(content), MAX_PREFIX_LENGTH), detectors);
+				if (result != null) {
+					return result;
+				}
+			} catch (final XMLStreamException e) {
+				// not XML
+			}
+		}
+		return confirmedByName != null ? XmlTypeDetection.Result.of(confirmedByName.typeId) : null;
+	}
+}
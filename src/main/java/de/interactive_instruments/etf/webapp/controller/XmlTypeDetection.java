@@ -0,0 +1,327 @@
+/**
+ * Copyright 2010-2017 interactive instruments GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.interactive_instruments.etf.webapp.controller;
+
+import java.io.InputStream;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import de.interactive_instruments.etf.model.EID;
+
+/**
+ * Detects the type of XML documents with a streaming parser.
+ *
+ * Only the root element and the elements at the beginning of the document are read:
+ * the detection stops as soon as the detector with the highest priority is satisfied,
+ * if the root element does not match any detector or after a maximum number of elements.
+ * Large documents are therefore neither parsed completely nor held in memory as DOM.
+ *
+ * Detectors are immutable and can be shared between threads. Documents may be passed
+ * truncated: a parsing error after the root element ends the detection.
+ *
+ * @author J. Herrmann ( herrmann <aT) interactive-instruments (doT> de )
+ */
+final class XmlTypeDetection {
+
+	private static final int MAX_ELEMENTS = 5000;
+	// Step of a simple path expression: '*[local-name()='name']', 'prefix:name' or 'name'
+	private static final Pattern LOCAL_NAME_STEP = Pattern.compile("\\*\\[local-name\\(\\)\\s*=\\s*['\"]([^'\"]+)['\"]\\]");
+	private static final Pattern NAME_STEP = Pattern.compile("(?:[\\w.-]+:)?([\\w.-]+)");
+
+	/**
+	 * Detector for one type.
+	 *
+	 * The path must exist in the document, starting with the root element. The optional label and
+	 * description paths are relative to the root element and their text is extracted. Names
+	 * without namespace match elements with any namespace.
+	 */
+	static final class Detector {
+		private final EID typeId;
+		private final QName[] path;
+		private final QName[] labelPath;
+		private final QName[] descriptionPath;
+
+		Detector(final EID typeId, final QName[] path, final QName[] labelPath, final QName[] descriptionPath) {
+			if (path.length == 0) {
+				throw new IllegalArgumentException("Empty detection path");
+			}
+			this.typeId = typeId;
+			this.path = path.clone();
+			this.labelPath = labelPath != null ? labelPath.clone() : null;
+			this.descriptionPath = descriptionPath != null ? descriptionPath.clone() : null;
+		}
+
+		/**
+		 * Compiles a detection expression, which must be a simple absolute path
+		 * like '/*[local-name()='FeatureCollection']' or '/wfs:FeatureCollection/wfs:member'.
+		 * Prefixes are ignored and only the local names are compared.
+		 *
+		 * @param typeId ID of the detected type
+		 * @param expression detection expression
+		 * @return detector
+		 * @throws IllegalArgumentException if the expression is not a simple path
+		 */
+		static Detector compile(final EID typeId, final String expression) {
+			final String trimmed = expression != null ? expression.trim() : "";
+			if (!trimmed.startsWith("/") || trimmed.startsWith("//")) {
+				throw new IllegalArgumentException("Not an absolute path: " + expression);
+			}
+			final String[] steps = trimmed.substring(1).split("/");
+			final QName[] path = new QName[steps.length];
+			for (int i = 0; i < steps.length; i++) {
+				final Matcher localName = LOCAL_NAME_STEP.matcher(steps[i].trim());
+				final Matcher name = NAME_STEP.matcher(steps[i].trim());
+				if (localName.matches()) {
+					path[i] = new QName(localName.group(1));
+				} else if (name.matches()) {
+					path[i] = new QName(name.group(1));
+				} else {
+					throw new IllegalArgumentException("Unsupported step '" + steps[i] + "' in " + expression);
+				}
+			}
+			return new Detector(typeId, path, null, null);
+		}
+
+		EID getTypeId() {
+			return typeId;
+		}
+	}
+
+	/**
+	 * Detected type with the extracted label and description
+	 */
+	static final class Result {
+		private final EID typeId;
+		private final String label;
+		private final String description;
+
+		private Result(final EID typeId, final String label, final String description) {
+			this.typeId = typeId;
+			this.label = label;
+			this.description = description;
+		}
+
+		/**
+		 * @param typeId ID of the type that has been detected without the content
+		 * @return result without label and description
+		 */
+		static Result of(final EID typeId) {
+			return new Result(typeId, null, null);
+		}
+
+		EID getTypeId() {
+			return typeId;
+		}
+
+		String getLabel() {
+			return label;
+		}
+
+		String getDescription() {
+			return description;
+		}
+	}
+
+	// State of one candidate during the detection
+	private static final class Candidate {
+		private final Detector detector;
+		private boolean pathFound;
+		private String label;
+		private String description;
+
+		private Candidate(final Detector detector) {
+			this.detector = detector;
+			this.pathFound = detector.path.length == 1;
+		}
+
+		private boolean isSatisfied() {
+			return pathFound && (detector.labelPath == null || label != null)
+					&& (detector.descriptionPath == null || description != null);
+		}
+	}
+
+	private final XMLInputFactory inputFactory;
+
+	XmlTypeDetection() {
+		inputFactory = XMLInputFactory.newInstance();
+		inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		inputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+	}
+
+	private static boolean matches(final QName pattern, final QName name) {
+		return pattern.getLocalPart().equals(name.getLocalPart())
+				&& (XMLConstants.NULL_NS_URI.equals(pattern.getNamespaceURI())
+						|| pattern.getNamespaceURI().equals(name.getNamespaceURI()));
+	}
+
+	// Checks if the element stack, without the root element, equals a relative path
+	private static boolean matchesRelative(final QName[] relativePath, final List<QName> stack) {
+		if (relativePath == null || stack.size() != relativePath.length + 1) {
+			return false;
+		}
+		for (int i = 0; i < relativePath.length; i++) {
+			if (!matches(relativePath[i], stack.get(i + 1))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean matchesPath(final QName[] path, final List<QName> stack) {
+		if (stack.size() != path.length) {
+			return false;
+		}
+		for (int i = 0; i < path.length; i++) {
+			if (!matches(path[i], stack.get(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Reads the text of the current element and of all its descendants, like the string
+	 * value in XPath. Other than getElementText(), elements with mixed content like
+	 * Atom titles of type 'xhtml' are supported.
+	 *
+	 * @param reader reader positioned at a start element, which is positioned at the
+	 *        corresponding end element afterwards
+	 * @return concatenated text
+	 * @throws XMLStreamException if the element is not well-formed or truncated
+	 */
+	private static String stringValue(final XMLStreamReader reader) throws XMLStreamException {
+		final StringBuilder text = new StringBuilder();
+		for (int depth = 1; depth > 0;) {
+			switch (reader.next()) {
+			case XMLStreamConstants.START_ELEMENT:
+				depth++;
+				break;
+			case XMLStreamConstants.END_ELEMENT:
+				depth--;
+				break;
+			case XMLStreamConstants.CHARACTERS:
+			case XMLStreamConstants.CDATA:
+			case XMLStreamConstants.SPACE:
+				text.append(reader.getText());
+				break;
+			case XMLStreamConstants.END_DOCUMENT:
+				throw new XMLStreamException("Unexpected end of document");
+			default:
+				break;
+			}
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Detects the type of a document
+	 *
+	 * @param in document stream, which is not closed
+	 * @param detectors detectors ordered by priority
+	 * @return the result of the detector with the highest priority whose path has been found
+	 *         or null if no detector matches
+	 * @throws XMLStreamException if the beginning of the document is not well-formed XML
+	 */
+	Result detect(final InputStream in, final List<Detector> detectors) throws XMLStreamException {
+		final XMLStreamReader reader = inputFactory.createXMLStreamReader(in);
+		try {
+			final List<Candidate> candidates = new ArrayList<>();
+			final List<QName> stack = new ArrayList<>();
+			int elements = 0;
+			read: while (reader.hasNext() && elements < MAX_ELEMENTS) {
+				final int event;
+				try {
+					event = reader.next();
+				} catch (final XMLStreamException e) {
+					if (candidates.isEmpty()) {
+						throw e;
+					}
+					// The document may have been truncated, decide with the elements read so far
+					break;
+				}
+				if (event == XMLStreamConstants.END_ELEMENT) {
+					stack.remove(stack.size() - 1);
+					continue;
+				} else if (event != XMLStreamConstants.START_ELEMENT) {
+					continue;
+				}
+				elements++;
+				stack.add(reader.getName());
+				if (stack.size() == 1) {
+					// Root element
+					for (final Detector detector : detectors) {
+						if (matches(detector.path[0], reader.getName())) {
+							candidates.add(new Candidate(detector));
+						}
+					}
+					if (candidates.isEmpty()) {
+						return null;
+					}
+				} else {
+					boolean textRequired = false;
+					for (final Candidate candidate : candidates) {
+						if (!candidate.pathFound && matchesPath(candidate.detector.path, stack)) {
+							candidate.pathFound = true;
+						}
+						textRequired |= (candidate.label == null && matchesRelative(candidate.detector.labelPath, stack))
+								|| (candidate.description == null
+										&& matchesRelative(candidate.detector.descriptionPath, stack));
+					}
+					if (textRequired) {
+						// Read the text once for all candidates, the end element is consumed
+						final String text;
+						try {
+							text = stringValue(reader).trim();
+						} catch (final XMLStreamException e) {
+							break read;
+						}
+						for (final Candidate candidate : candidates) {
+							if (candidate.label == null && matchesRelative(candidate.detector.labelPath, stack)) {
+								candidate.label = text;
+							}
+							if (candidate.description == null
+									&& matchesRelative(candidate.detector.descriptionPath, stack)) {
+								candidate.description = text;
+							}
+						}
+						stack.remove(stack.size() - 1);
+					}
+				}
+				// Stop as soon as the candidate with the highest priority is satisfied
+				if (candidates.get(0).isSatisfied()) {
+					break;
+				}
+			}
+			for (final Candidate candidate : candidates) {
+				if (candidate.pathFound) {
+					return new Result(candidate.detector.typeId, candidate.label, candidate.description);
+				}
+			}
+			return null;
+		} finally {
+			reader.close();
+		}
+	}
+}
@@ -37,6 +37,10 @@ public class DocumentationConstants {
 	public final static String OFFSET_DESCRIPTION = "The offset indicates the starting position of this request in relation to the complete set of unpaginated items. "
 			+ "Values less than 0 will be silently defaulted to the value 0.";
 
+	public final static String CURSOR_DESCRIPTION = "Continuation cursor for keyset based paging. An empty value requests the first page, "
+			+ "the cursor for the next page is returned in the 'Next-Cursor' response header and is omitted on the last page. "
+			+ "A cursor must be used with the same filter and sort parameters. If a cursor is set, the offset is ignored.";
+
 	public final static String FIELDS_DESCRIPTION = "If set to another value  than '*' a partial response with only the selected fields is returned. "
 			+ "Only fields on the highest level can be selected and should be separated with a comma. Unknown fields are silently ignored. "
 			+ "As also mandatory fields can be filtered the response may not validate against the default schema. ";
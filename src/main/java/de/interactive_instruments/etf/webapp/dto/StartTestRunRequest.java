@@ -19,6 +19,7 @@ import static de.interactive_instruments.etf.webapp.dto.DocumentationConstants.*
 
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -28,9 +29,11 @@ import com.fasterxml.jackson.annotation.*;
 import de.interactive_instruments.SUtils;
 import de.interactive_instruments.etf.dal.dao.PreparedDtoResolver;
 import de.interactive_instruments.etf.dal.dto.capabilities.TestObjectDto;
+import de.interactive_instruments.etf.dal.dto.capabilities.TestObjectTypeDto;
 import de.interactive_instruments.etf.dal.dto.run.TestRunDto;
 import de.interactive_instruments.etf.dal.dto.run.TestTaskDto;
 import de.interactive_instruments.etf.dal.dto.test.ExecutableTestSuiteDto;
+import de.interactive_instruments.etf.model.EID;
 import de.interactive_instruments.etf.model.EidFactory;
 import de.interactive_instruments.etf.webapp.conversion.EidConverter;
 import de.interactive_instruments.exceptions.ObjectWithIdNotFoundException;
@@ -100,8 +103,17 @@ public class StartTestRunRequest {
 		this.additionalProperties.put(name, value);
 	}
 
+	/**
+	 * Resolves the Executable Test Suites of a Test Run
+	 */
+	@FunctionalInterface
+	public interface ExecutableTestSuiteResolver {
+		ExecutableTestSuiteDto getExecutableTestSuiteById(final EID id)
+				throws StorageException, ObjectWithIdNotFoundException;
+	}
+
 	public TestRunDto toTestRun(final PreparedDtoResolver<TestObjectDto> testObjectDao,
-			final PreparedDtoResolver<ExecutableTestSuiteDto> etsDao)
+			final ExecutableTestSuiteResolver etsResolver)
 			throws ObjectWithIdNotFoundException, StorageException, IOException, URISyntaxException {
 		final TestRunDto testRun = new TestRunDto();
 		testRun.setId(EidFactory.getDefault().createRandomId());
@@ -113,7 +125,7 @@ public class StartTestRunRequest {
 		for (final String executableTestSuiteId : executableTestSuiteIds) {
 			final TestTaskDto testTaskDto = new TestTaskDto();
 			testTaskDto.setExecutableTestSuite(
-					etsDao.getById(EidConverter.toEid(executableTestSuiteId)).getDto());
+					etsResolver.getExecutableTestSuiteById(EidConverter.toEid(executableTestSuiteId)));
 			testTaskDto.setTestObject(testObject);
 			if (arguments == null || arguments.get().isEmpty()) {
 				// FIXME
@@ -123,9 +135,11 @@ public class StartTestRunRequest {
 					testTaskDto.getArguments().setValue(keyVal.getKey(), keyVal.getValue());
 				}
 			}
-			if (testObject.getTestObjectTypes() == null) {
-				testObject.setTestObjectTypes(
-						testTaskDto.getExecutableTestSuite().getSupportedTestObjectTypes());
+			final List<TestObjectTypeDto> supportedTypes = testTaskDto.getExecutableTestSuite()
+					.getSupportedTestObjectTypes();
+			if (testObject.getTestObjectTypes() == null && supportedTypes != null) {
+				// Do not share the list with the Executable Test Suite
+				testObject.setTestObjectTypes(new ArrayList<>(supportedTypes));
 			}
 			testRun.addTestTask(testTaskDto);
 		}
@@ -0,0 +1,135 @@
+/**
+ * Copyright 2010-2017 interactive instruments GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.interactive_instruments.etf.webapp.helpers;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.http.HttpHeaders;
+
+import de.interactive_instruments.SUtils;
+
+/**
+ * Sends files with support for single byte range requests, conditional requests
+ * based on an ETag derived from the file size and modification time and
+ * channel based copying.
+ *
+ * @author J. Herrmann ( herrmann <aT) interactive-instruments (doT> de )
+ */
+public class FileResponse {
+	private FileResponse() {}
+
+	private static final String BYTES_UNIT = "bytes";
+
+	/**
+	 * Returns the ETag for a file
+	 *
+	 * @param file file
+	 * @return quoted ETag
+	 */
+	public static String etagFor(final File file) {
+		return "\"" + Long.toHexString(file.length()) + "-" + Long.toHexString(file.lastModified()) + "\"";
+	}
+
+	/**
+	 * Sends the file or the requested byte range of the file.
+	 *
+	 * Sets the ETag, Last-Modified, Accept-Ranges, Content-Length and for partial responses the
+	 * Content-Range header. Responds with 304 if the If-None-Match header matches the ETag
+	 * and with 416 if the requested range can not be satisfied. The body is omitted for HEAD requests.
+	 *
+	 * @param file file to send
+	 * @param contentType content type of the file
+	 * @param request servlet request
+	 * @param response servlet response
+	 * @throws IOException if the file could not be read or the response could not be written
+	 */
+	public static void send(final File file, final String contentType, final HttpServletRequest request,
+			final HttpServletResponse response) throws IOException {
+		final long length = file.length();
+		final String etag = etagFor(file);
+		response.setHeader(HttpHeaders.ETAG, etag);
+		response.setDateHeader(HttpHeaders.LAST_MODIFIED, file.lastModified());
+		response.setHeader(HttpHeaders.ACCEPT_RANGES, BYTES_UNIT);
+
+		final String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+		if (ifNoneMatch != null && (ifNoneMatch.contains(etag) || "*".equals(ifNoneMatch.trim()))) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+
+		long start = 0;
+		long end = length - 1;
+		final String range = request.getHeader(HttpHeaders.RANGE);
+		final String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+		// Ignore the range if the client's copy is outdated or multiple ranges are requested
+		if (!SUtils.isNullOrEmpty(range) && range.startsWith(BYTES_UNIT + "=") && !range.contains(",")
+				&& (ifRange == null || etag.equals(ifRange.trim()))) {
+			final String spec = range.substring(BYTES_UNIT.length() + 1).trim();
+			final int dash = spec.indexOf('-');
+			try {
+				if (dash == 0) {
+					// suffix range: last n bytes
+					final long suffix = Long.parseLong(spec.substring(1));
+					start = Math.max(0, length - suffix);
+				} else if (dash > 0) {
+					start = Long.parseLong(spec.substring(0, dash));
+					if (dash < spec.length() - 1) {
+						end = Math.min(end, Long.parseLong(spec.substring(dash + 1)));
+					}
+				} else {
+					throw new NumberFormatException();
+				}
+			} catch (final NumberFormatException e) {
+				start = -1;
+			}
+			if (start < 0 || start >= length || end < start) {
+				response.setHeader(HttpHeaders.CONTENT_RANGE, BYTES_UNIT + " */" + length);
+				response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+				return;
+			}
+			response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+			response.setHeader(HttpHeaders.CONTENT_RANGE, BYTES_UNIT + " " + start + "-" + end + "/" + length);
+		}
+
+		response.setContentType(contentType);
+		final long count = length == 0 ? 0 : end - start + 1;
+		response.setContentLengthLong(count);
+		if ("HEAD".equals(request.getMethod())) {
+			return;
+		}
+		try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			final WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+			long position = start;
+			long remaining = count;
+			while (remaining > 0) {
+				final long transferred = channel.transferTo(position, remaining, out);
+				if (transferred <= 0) {
+					break;
+				}
+				position += transferred;
+				remaining -= transferred;
+			}
+		}
+	}
+}
@@ -16,6 +16,8 @@
 
 package de.interactive_instruments.etf.webapp.helpers;
 
+import java.util.*;
+
 import de.interactive_instruments.etf.dal.dao.Filter;
 
 /**
@@ -26,27 +28,65 @@ public class SimpleFilter implements Filter {
 	private final int offset;
 	private final int limit;
 	private final String fields;
+	private final String cursor;
 
 	public SimpleFilter(final int offset, final int limit) {
 		this(offset, limit, "*");
 	}
 
 	public SimpleFilter(final int offset, final int limit, final String fields) {
+		this(offset, limit, fields, null);
+	}
+
+	/**
+	 * @param offset number of items to skip, ignored if a cursor is set
+	 * @param limit page size
+	 * @param fields requested fields
+	 * @param cursor continuation cursor, an empty string requests the first page
+	 *               in cursor mode and null disables the cursor mode
+	 */
+	public SimpleFilter(final int offset, final int limit, final String fields, final String cursor) {
 		this.offset = offset > 0 ? offset : 0;
 		this.limit = limit > 0 && limit < 5000 ? limit : 1500;
-		this.fields = fields != null ? fields.trim() : "*";
+		this.fields = normalizeFields(fields);
+		this.cursor = cursor != null ? cursor.trim() : null;
 	}
 
 	public SimpleFilter(final String fields) {
 		this.offset = 0;
 		this.limit = 1500;
-		this.fields = fields != null ? fields.trim() : "*";
+		this.fields = normalizeFields(fields);
+		this.cursor = null;
 	}
 
 	public SimpleFilter() {
 		this.offset = 0;
 		this.limit = 1500;
 		this.fields = "*";
+		this.cursor = null;
+	}
+
+	/**
+	 * Sorts the field names and removes whitespace and duplicates, so that equal
+	 * projections are represented by equal strings
+	 *
+	 * @param fields comma separated field names
+	 * @return normalized field names or '*' for all fields
+	 */
+	static String normalizeFields(final String fields) {
+		if (fields == null) {
+			return "*";
+		}
+		final SortedSet<String> names = new TreeSet<>();
+		for (final String field : fields.split(",")) {
+			final String name = field.trim();
+			if ("*".equals(name)) {
+				return "*";
+			} else if (!name.isEmpty()) {
+				names.add(name);
+			}
+		}
+		return names.isEmpty() ? "*" : String.join(",", names);
 	}
 
 	@Override
@@ -62,4 +102,27 @@ public class SimpleFilter implements Filter {
 	@Override public String fields() {
 		return fields;
 	}
+
+	/**
+	 * @return the selected field names or an empty set if all fields are selected
+	 */
+	public Set<String> fieldNames() {
+		return "*".equals(fields) ? Collections.emptySet()
+				: new LinkedHashSet<>(Arrays.asList(fields.split(",")));
+	}
+
+	/**
+	 * @return a copy of this filter that selects all fields
+	 */
+	public SimpleFilter withAllFields() {
+		return new SimpleFilter(offset, limit, "*", cursor);
+	}
+
+	/**
+	 * @return the continuation cursor, an empty string for the first page or null
+	 * if offset based paging is used
+	 */
+	public String cursor() {
+		return cursor;
+	}
 }
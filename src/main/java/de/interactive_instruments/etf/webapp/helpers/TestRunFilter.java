@@ -0,0 +1,132 @@
+/*
+ * Copyright ${year} interactive instruments GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.interactive_instruments.etf.webapp.helpers;
+
+import java.util.Locale;
+
+import de.interactive_instruments.SUtils;
+import de.interactive_instruments.etf.dal.dto.result.TestResultStatus;
+import de.interactive_instruments.etf.model.EID;
+
+/**
+ * Filter for Test Run listings with predicates, a sort order, a label search
+ * and an optional continuation cursor.
+ *
+ * The predicates are not part of the Dao filter and must be evaluated by the caller.
+ *
+ * @author J. Herrmann ( herrmann <aT) interactive-instruments (doT> de )
+ */
+public class TestRunFilter extends SimpleFilter {
+
+	public enum Sort {
+		START_DESC, START_ASC, LABEL_ASC, LABEL_DESC;
+
+		/**
+		 * Parses a sort parameter like 'startTimestamp', '-startTimestamp', 'label' or '-label'
+		 *
+		 * @param parameter sort parameter, null for the default order
+		 * @return sort order
+		 * @throws IllegalArgumentException if the parameter is unknown
+		 */
+		public static Sort fromParameter(final String parameter) {
+			if (SUtils.isNullOrEmpty(parameter)) {
+				return START_DESC;
+			}
+			switch (parameter.trim()) {
+			case "-startTimestamp":
+				return START_DESC;
+			case "startTimestamp":
+				return START_ASC;
+			case "label":
+				return LABEL_ASC;
+			case "-label":
+				return LABEL_DESC;
+			default:
+				throw new IllegalArgumentException("Unknown sort order: " + parameter);
+			}
+		}
+	}
+
+	private final String search;
+	private final TestResultStatus status;
+	private final EID testObjectId;
+	private final EID executableTestSuiteId;
+	private final long from;
+	private final long to;
+	private final Sort sort;
+
+	/**
+	 * @param offset number of matching Test Runs to skip, ignored if a cursor is set
+	 * @param limit page size
+	 * @param search case insensitive part of the label or null
+	 * @param status result status or null
+	 * @param testObjectId ID of a tested Test Object or null
+	 * @param executableTestSuiteId ID of an executed Executable Test Suite or null
+	 * @param from minimal start time in milliseconds or null
+	 * @param to maximal start time in milliseconds or null
+	 * @param sort sort order
+	 * @param cursor continuation cursor of the previous page, an empty string for the first page or null
+	 */
+	public TestRunFilter(final int offset, final int limit, final String search, final TestResultStatus status,
+			final EID testObjectId, final EID executableTestSuiteId, final Long from, final Long to,
+			final Sort sort, final String cursor) {
+		super(offset, limit, "*", cursor);
+		this.search = !SUtils.isNullOrEmpty(search) ? search.trim().toLowerCase(Locale.ENGLISH) : null;
+		this.status = status;
+		this.testObjectId = testObjectId;
+		this.executableTestSuiteId = executableTestSuiteId;
+		this.from = from != null ? from : Long.MIN_VALUE;
+		this.to = to != null ? to : Long.MAX_VALUE;
+		this.sort = sort != null ? sort : Sort.START_DESC;
+	}
+
+	/**
+	 * @return true if no predicate, no cursor and the default sort order is used
+	 */
+	public boolean isUnrestricted() {
+		return search == null && status == null && testObjectId == null && executableTestSuiteId == null
+				&& from == Long.MIN_VALUE && to == Long.MAX_VALUE && sort == Sort.START_DESC && cursor() == null;
+	}
+
+	public String search() {
+		return search;
+	}
+
+	public TestResultStatus status() {
+		return status;
+	}
+
+	public EID testObjectId() {
+		return testObjectId;
+	}
+
+	public EID executableTestSuiteId() {
+		return executableTestSuiteId;
+	}
+
+	public long from() {
+		return from;
+	}
+
+	public long to() {
+		return to;
+	}
+
+	public Sort sort() {
+		return sort;
+	}
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright 2010-2017 interactive instruments GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.interactive_instruments.etf.webapp.controller;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.interactive_instruments.etf.model.EID;
+import de.interactive_instruments.etf.model.EidFactory;
+
+/**
+ * @author J. Herrmann ( herrmann <aT) interactive-instruments (doT> de )
+ */
+public class EtsSynchronizerTest {
+
+	@Rule
+	public final TemporaryFolder tmp = new TemporaryFolder();
+
+	private static final EID ETS_A = EidFactory.getDefault().createUUID("test.ets.a");
+	private static final EID ETS_B = EidFactory.getDefault().createUUID("test.ets.b");
+
+	private Path root;
+	private final Map<EID, Path> etsDirs = new HashMap<>();
+	private ProjectsManifest previous;
+
+	@Before
+	public void setUp() throws IOException {
+		root = tmp.newFolder("projects").toPath().toAbsolutePath().normalize();
+		write("a/ets-a.xml", "a");
+		write("b/ets-b.xml", "b");
+		write("common/include.xml", "shared");
+		etsDirs.put(ETS_A, root.resolve("a"));
+		etsDirs.put(ETS_B, root.resolve("b"));
+		previous = ProjectsManifest.scan(root, null);
+	}
+
+	private Path write(final String path, final String content) throws IOException {
+		final Path file = root.resolve(path);
+		Files.createDirectories(file.getParent());
+		return Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private Set<EID> affected() throws IOException {
+		final ProjectsManifest current = ProjectsManifest.scan(root, previous);
+		return EtsSynchronizer.affected(root, etsDirs, current.modifiedSince(previous), current.addedSince(previous));
+	}
+
+	@Test
+	public void addOneProject() throws IOException {
+		write("c/ets-c.xml", "c");
+		write("c/resources/include.xml", "c");
+		assertEquals(Collections.emptySet(), affected());
+	}
+
+	@Test
+	public void changeOneProject() throws IOException {
+		write("a/ets-a.xml", "a changed");
+		assertEquals(Collections.singleton(ETS_A), affected());
+	}
+
+	@Test
+	public void addFileToProject() throws IOException {
+		write("b/resources/new.xml", "new");
+		assertEquals(Collections.singleton(ETS_B), affected());
+	}
+
+	@Test
+	public void changeSharedResource() throws IOException {
+		write("common/include.xml", "shared changed");
+		assertEquals(new HashSet<>(Arrays.asList(ETS_A, ETS_B)), affected());
+	}
+
+	@Test
+	public void deleteSharedResource() throws IOException {
+		Files.delete(root.resolve("common/include.xml"));
+		assertEquals(new HashSet<>(Arrays.asList(ETS_A, ETS_B)), affected());
+	}
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright 2010-2017 interactive instruments GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.interactive_instruments.etf.webapp.controller;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.interactive_instruments.IFile;
+import de.interactive_instruments.etf.dal.dto.capabilities.TestObjectDto;
+import de.interactive_instruments.etf.model.EidFactory;
+import de.interactive_instruments.io.ContentTypeFilter;
+import de.interactive_instruments.io.FileContentFilterHolder;
+import de.interactive_instruments.io.FilenameExtensionFilter;
+import de.interactive_instruments.io.MultiFileFilter;
+
+/**
+ * @author J. Herrmann ( herrmann <aT) interactive-instruments (doT> de )
+ */
+public class FileStorageTest {
+
+	@Rule
+	public final TemporaryFolder tmp = new TemporaryFolder();
+
+	private FileStorage fileStorage;
+
+	private static class XmlFilter implements FileContentFilterHolder {
+		private final ContentTypeFilter contentFilter = new ContentTypeFilter(new String[]{"application/xml"});
+		private final MultiFileFilter filenameFilter = new FilenameExtensionFilter(new String[]{".xml"});
+
+		public ContentTypeFilter content() {
+			return contentFilter;
+		}
+
+		public MultiFileFilter filename() {
+			return filenameFilter;
+		}
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		final IFile testDataDir = new IFile(tmp.newFolder("testdata").getPath());
+		fileStorage = new FileStorage(testDataDir, new IFile(tmp.newFolder("upload").getPath()), new XmlFilter(), 4,
+				new ParallelDownloader(1, 0), new BlobStore(testDataDir.secureExpandPathDown(BlobStore.DIR_NAME)),
+				null);
+	}
+
+	@After
+	public void tearDown() {
+		fileStorage.release();
+	}
+
+	private IFile zip(final String name, final String entry, final String content) throws IOException {
+		final File file = new File(tmp.newFolder(), name);
+		try (final ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file))) {
+			zip.putNextEntry(new ZipEntry(entry));
+			zip.write(content.getBytes(StandardCharsets.UTF_8));
+			zip.closeEntry();
+		}
+		return new IFile(file.getPath());
+	}
+
+	private IFile upload(final IFile... archives) throws LocalizableApiError {
+		final TestObjectDto testObject = new TestObjectDto();
+		testObject.setId(EidFactory.getDefault().createRandomId());
+		testObject.setLabel("test");
+		final FileStorage.UploadSource[] sources = new FileStorage.UploadSource[archives.length];
+		for (int i = 0; i < archives.length; i++) {
+			sources[i] = FileStorage.source(archives[i]);
+		}
+		return fileStorage.upload(testObject, null, Arrays.asList(sources)).upload();
+	}
+
+	private static String read(final File dir, final String path) throws IOException {
+		return new String(Files.readAllBytes(new File(dir, path).toPath()), StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void uploadSameEntryTwiceKeepsBlob() throws IOException, LocalizableApiError {
+		final String first = "<a>first</a>";
+		final String second = "<a>second</a>";
+		final IFile firstDir = upload(zip("first.zip", "data/a.xml", first));
+
+		// The first archive is linked from the blob store, the second one replaces the entry
+		final IFile secondDir = upload(zip("first.zip", "data/a.xml", first),
+				zip("second.zip", "data/a.xml", second));
+		assertEquals(second, read(secondDir, "data/a.xml"));
+		assertEquals(first, read(firstDir, "data/a.xml"));
+
+		final IFile thirdDir = upload(zip("first.zip", "data/a.xml", first));
+		assertEquals(first, read(thirdDir, "data/a.xml"));
+	}
+
+	@Test
+	public void lastUploadWins() throws IOException, LocalizableApiError {
+		final IFile dir = upload(zip("first.zip", "a.xml", "<a>first</a>"),
+				zip("second.zip", "a.xml", "<a>second</a>"),
+				zip("third.zip", "b.xml", "<b/>"));
+		assertEquals("<a>second</a>", read(dir, "a.xml"));
+		assertEquals("<b/>", read(dir, "b.xml"));
+		assertEquals(2, new File(dir, ".").list().length);
+	}
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright 2010-2017 interactive instruments GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.interactive_instruments.etf.webapp.controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author J. Herrmann ( herrmann <aT) interactive-instruments (doT> de )
+ */
+public class ProjectsManifestTest {
+
+	@Rule
+	public final TemporaryFolder tmp = new TemporaryFolder();
+
+	private Path root;
+
+	@Before
+	public void setUp() throws IOException {
+		root = tmp.newFolder("projects").toPath();
+		write("ets1/project.xml", "ets1");
+		write("ets2/project.xml", "ets2");
+		write(".git/config", "ignored");
+	}
+
+	private Path write(final String path, final String content) throws IOException {
+		final Path file = root.resolve(path);
+		Files.createDirectories(file.getParent());
+		return Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void scanSkipsHiddenDirectories() throws IOException {
+		final ProjectsManifest manifest = ProjectsManifest.scan(root, null);
+		assertEquals(2, manifest.size());
+		assertEquals(new HashSet<>(Arrays.asList(root.resolve("ets1/project.xml"), root.resolve("ets2/project.xml"))),
+				manifest.modifiedSince(null));
+	}
+
+	@Test
+	public void modifiedSince() throws IOException {
+		final ProjectsManifest previous = ProjectsManifest.scan(root, null);
+		assertEquals(Collections.emptySet(), ProjectsManifest.scan(root, previous).modifiedSince(previous));
+
+		final Path changed = write("ets1/project.xml", "ets1 changed");
+		Files.delete(root.resolve("ets2/project.xml"));
+		final Path added = write("ets3/project.xml", "ets3");
+		final ProjectsManifest current = ProjectsManifest.scan(root, previous);
+		assertEquals(new HashSet<>(Arrays.asList(changed, root.resolve("ets2/project.xml"), added)),
+				current.modifiedSince(previous));
+		assertNotEquals(previous.digest(), current.digest());
+	}
+
+	@Test
+	public void addedSince() throws IOException {
+		final ProjectsManifest previous = ProjectsManifest.scan(root, null);
+		final Path added = write("ets3/project.xml", "ets3");
+		write("ets1/project.xml", "ets1 changed");
+		final ProjectsManifest current = ProjectsManifest.scan(root, previous);
+		assertEquals(Collections.singleton(added), current.addedSince(previous));
+		assertEquals(2, current.modifiedSince(previous).size());
+	}
+
+	@Test
+	public void storeAndLoad() throws IOException {
+		final ProjectsManifest manifest = ProjectsManifest.scan(root, null);
+		final File file = tmp.newFile("projects.manifest");
+		manifest.store(file);
+		final ProjectsManifest loaded = ProjectsManifest.load(root, file);
+		assertEquals(manifest.size(), loaded.size());
+		assertEquals(manifest.digest(), loaded.digest());
+		assertTrue(loaded.modifiedSince(manifest).isEmpty());
+		assertNull(ProjectsManifest.load(root, new File(tmp.getRoot(), "missing.manifest")));
+	}
+
+	@Test
+	public void digestDoesNotDependOnScanOrder() throws IOException {
+		final Path other = tmp.newFolder("copy").toPath();
+		Files.createDirectories(other.resolve("ets2"));
+		Files.copy(root.resolve("ets2/project.xml"), other.resolve("ets2/project.xml"));
+		Files.createDirectories(other.resolve("ets1"));
+		Files.copy(root.resolve("ets1/project.xml"), other.resolve("ets1/project.xml"));
+		assertEquals(ProjectsManifest.scan(root, null).digest(), ProjectsManifest.scan(other, null).digest());
+	}
+}
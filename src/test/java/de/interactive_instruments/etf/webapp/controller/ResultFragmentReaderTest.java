@@ -0,0 +1,122 @@
+/**
+ * Copyright 2010-2017 interactive instruments GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.interactive_instruments.etf.webapp.controller;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.interactive_instruments.etf.model.EID;
+import de.interactive_instruments.etf.model.EidFactory;
+import de.interactive_instruments.exceptions.ObjectWithIdNotFoundException;
+
+/**
+ * @author J. Herrmann ( herrmann <aT) interactive-instruments (doT> de )
+ */
+public class ResultFragmentReaderTest {
+
+	private static final String TASK = "00000000-0000-0000-0000-000000000001";
+	private static final String ETS = "00000000-0000-0000-0000-000000000002";
+	private static final String MODULE = "00000000-0000-0000-0000-000000000003";
+	private static final String CASE_1 = "00000000-0000-0000-0000-000000000004";
+	private static final String CASE_2 = "00000000-0000-0000-0000-000000000005";
+	private static final String CASE_3 = "00000000-0000-0000-0000-000000000006";
+
+	@Rule
+	public final TemporaryFolder tmp = new TemporaryFolder();
+
+	private ResultFragmentReader reader;
+
+	private static EID eid(final String id) {
+		return EidFactory.getDefault().createAndPreserveStr(id);
+	}
+
+	private static String testCase(final String id, final String status, final String steps) {
+		return "<TestCaseResult id=\"EID" + id + "\"><resultedFrom ref=\"EIDref-" + id + "\"/>"
+				+ "<status>" + status + "</status><testStepResults>" + steps + "</testStepResults></TestCaseResult>";
+	}
+
+	@Before
+	public void setUp() throws IOException, ObjectWithIdNotFoundException {
+		final String step = "<TestStepResult id=\"EIDstep\"><resultedFrom ref=\"EIDref-step\"/><status>FAILED</status>"
+				+ "<testAssertionResults><TestAssertionResult id=\"EIDassertion\"><resultedFrom ref=\"EIDref-assertion\"/>"
+				+ "<status>FAILED</status><messages><message ref=\"TR.missing\"><translationArguments>"
+				+ "<argument token=\"name\">foo</argument></translationArguments></message></messages>"
+				+ "</TestAssertionResult></testAssertionResults>"
+				+ "<invokedTests><TestStepResult id=\"EIDinvoked\"><status>PASSED</status></TestStepResult></invokedTests>"
+				+ "</TestStepResult>";
+		final String xml = "<DsResultSet><returnedItems><TestTaskResult id=\"EID" + TASK + "\">"
+				+ "<resultedFrom ref=\"EID" + ETS + "\"/><status>FAILED</status><testModuleResults>"
+				+ "<TestModuleResult id=\"EID" + MODULE + "\"><status>FAILED</status><testCaseResults>"
+				+ testCase(CASE_1, "PASSED", "")
+				+ testCase(CASE_2, "FAILED", step)
+				+ testCase(CASE_3, "SKIPPED", "")
+				+ "</testCaseResults></TestModuleResult></testModuleResults></TestTaskResult></returnedItems>"
+				+ "</DsResultSet>";
+		final Path file = tmp.newFile("result.xml").toPath();
+		Files.write(file, xml.getBytes(StandardCharsets.UTF_8));
+		reader = new ResultFragmentReader(file, eid(TASK));
+	}
+
+	@Test
+	public void readOverview() throws IOException, ObjectWithIdNotFoundException {
+		assertEquals("FAILED", reader.getStatus());
+		assertEquals(ETS, reader.getExecutableTestSuiteId());
+		final ResultFragmentReader.Overview overview = reader.readOverview();
+		assertEquals(TASK, overview.getId());
+		assertEquals(1, overview.getTestModules().size());
+		assertEquals(MODULE, overview.getTestModules().get(0).getId());
+		assertEquals(3, overview.getTestModules().get(0).getTestCaseCount());
+	}
+
+	@Test
+	public void readTestCasePage() throws IOException, ObjectWithIdNotFoundException {
+		final ResultFragmentReader.TestCasePage page = reader.readTestCases(eid(MODULE), 1, 1);
+		assertEquals(3, page.getTotal());
+		assertEquals(1, page.getTestCases().size());
+		assertEquals(CASE_2, page.getTestCases().get(0).getId());
+		assertEquals("ref-" + CASE_2, page.getTestCases().get(0).getRef());
+		assertEquals("FAILED", page.getTestCases().get(0).getStatus());
+	}
+
+	@Test
+	public void readTestSteps() throws IOException, ObjectWithIdNotFoundException {
+		final List<ResultFragmentReader.TestStep> steps = reader.readTestSteps(eid(CASE_2));
+		assertEquals(2, steps.size());
+		assertEquals("step", steps.get(0).getId());
+		assertEquals("invoked", steps.get(1).getId());
+		assertEquals(1, steps.get(0).getTestAssertions().size());
+		final ResultFragmentReader.TestAssertion assertion = steps.get(0).getTestAssertions().get(0);
+		assertEquals("ref-assertion", assertion.getRef());
+		assertEquals("FAILED", assertion.getStatus());
+		assertEquals("TR.missing", assertion.getMessages().get(0).getRef());
+		assertEquals("foo", assertion.getMessages().get(0).getArguments().get("name"));
+	}
+
+	@Test(expected = ObjectWithIdNotFoundException.class)
+	public void unknownTestCase() throws IOException, ObjectWithIdNotFoundException {
+		reader.readTestSteps(eid("00000000-0000-0000-0000-000000000099"));
+	}
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright 2010-2017 interactive instruments GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.interactive_instruments.etf.webapp.controller;
+
+import static de.interactive_instruments.etf.webapp.controller.XmlTypeDetectionTest.ATOM;
+import static de.interactive_instruments.etf.webapp.controller.XmlTypeDetectionTest.ATOM_FEED;
+import static de.interactive_instruments.etf.webapp.controller.XmlTypeDetectionTest.WFS_20;
+import static de.interactive_instruments.etf.webapp.controller.XmlTypeDetectionTest.WFS_CAPABILITIES;
+import static de.interactive_instruments.etf.webapp.controller.XmlTypeDetectionTest.detectors;
+import static de.interactive_instruments.etf.webapp.controller.XmlTypeDetectionTest.stream;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import org.junit.Test;
+
+/**
+ * @author J. Herrmann ( herrmann <aT) interactive-instruments (doT> de )
+ */
+public class TypeDetectorRegistryTest {
+
+	private final TypeDetectorRegistry registry = TypeDetectorRegistry.compile(detectors(),
+			Collections.emptyList(), new XmlTypeDetection());
+
+	@Test
+	public void classifyByContent() throws IOException {
+		final XmlTypeDetection.Result wfs = registry.classify("capabilities.xml", "application/xml",
+				stream(WFS_CAPABILITIES), false);
+		assertNotNull(wfs);
+		assertEquals(WFS_20, wfs.getTypeId());
+		assertEquals("Example WFS", wfs.getLabel());
+
+		final XmlTypeDetection.Result atom = registry.classify(null, null, stream(ATOM_FEED), false);
+		assertNotNull(atom);
+		assertEquals(ATOM, atom.getTypeId());
+		assertEquals("Example Feed", atom.getLabel());
+	}
+
+	@Test
+	public void classifyTruncatedContent() throws IOException {
+		final String truncated = ATOM_FEED.substring(0, ATOM_FEED.indexOf("<subtitle>"));
+		final XmlTypeDetection.Result atom = registry.classify("feed.xml", null, stream(truncated), false);
+		assertNotNull(atom);
+		assertEquals(ATOM, atom.getTypeId());
+		assertEquals("Example Feed", atom.getLabel());
+		assertNull(atom.getDescription());
+	}
+
+	@Test
+	public void classifyNonXmlContent() throws IOException {
+		assertNull(registry.classify("data.csv", "text/csv", stream("id;name\n1;a\n"), false));
+	}
+
+	@Test
+	public void classifyWithoutContent() throws IOException {
+		assertNull(registry.classify("capabilities.xml", "application/xml", null, true));
+	}
+}
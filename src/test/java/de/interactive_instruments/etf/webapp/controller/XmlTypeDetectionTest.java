@@ -0,0 +1,131 @@
+/**
+ * Copyright 2010-2017 interactive instruments GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.interactive_instruments.etf.webapp.controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Test;
+
+import de.interactive_instruments.etf.model.EID;
+import de.interactive_instruments.etf.model.EidFactory;
+
+/**
+ * @author J. Herrmann ( herrmann <aT) interactive-instruments (doT> de )
+ */
+public class XmlTypeDetectionTest {
+
+	static final EID WFS_20 = EidFactory.getDefault().createUUID("test.wfs20");
+	static final EID ATOM = EidFactory.getDefault().createUUID("test.atom");
+
+	static final String WFS_NS = "http://www.opengis.net/wfs/2.0";
+	static final String ATOM_NS = "http://www.w3.org/2005/Atom";
+
+	static final String WFS_CAPABILITIES = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+			+ "<wfs:WFS_Capabilities xmlns:wfs=\"" + WFS_NS + "\" xmlns:ows=\"http://www.opengis.net/ows/1.1\" version=\"2.0.0\">\n"
+			+ "  <ows:ServiceIdentification>\n"
+			+ "    <ows:Title>Example WFS</ows:Title>\n"
+			+ "    <ows:Abstract>Download service</ows:Abstract>\n"
+			+ "  </ows:ServiceIdentification>\n"
+			+ "  <wfs:FeatureTypeList/>\n"
+			+ "</wfs:WFS_Capabilities>";
+
+	static final String ATOM_FEED = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+			+ "<feed xmlns=\"" + ATOM_NS + "\">\n"
+			+ "  <title type=\"xhtml\"><div xmlns=\"http://www.w3.org/1999/xhtml\">Example <b>Feed</b></div></title>\n"
+			+ "  <subtitle><![CDATA[Download]]> service</subtitle>\n"
+			+ "  <entry><title>Dataset</title></entry>\n"
+			+ "</feed>";
+
+	static List<XmlTypeDetection.Detector> detectors() {
+		return Arrays.asList(
+				new XmlTypeDetection.Detector(WFS_20,
+						new QName[]{new QName(WFS_NS, "WFS_Capabilities")},
+						new QName[]{new QName("ServiceIdentification"), new QName("Title")},
+						new QName[]{new QName("ServiceIdentification"), new QName("Abstract")}),
+				new XmlTypeDetection.Detector(ATOM,
+						new QName[]{new QName(ATOM_NS, "feed")},
+						new QName[]{new QName(ATOM_NS, "title")},
+						new QName[]{new QName(ATOM_NS, "subtitle")}));
+	}
+
+	static InputStream stream(final String document) {
+		return new ByteArrayInputStream(document.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void detectWfs() throws XMLStreamException {
+		final XmlTypeDetection.Result result = new XmlTypeDetection().detect(stream(WFS_CAPABILITIES), detectors());
+		assertNotNull(result);
+		assertEquals(WFS_20, result.getTypeId());
+		assertEquals("Example WFS", result.getLabel());
+		assertEquals("Download service", result.getDescription());
+	}
+
+	@Test
+	public void detectAtomWithMixedContent() throws XMLStreamException {
+		final XmlTypeDetection.Result result = new XmlTypeDetection().detect(stream(ATOM_FEED), detectors());
+		assertNotNull(result);
+		assertEquals(ATOM, result.getTypeId());
+		assertEquals("Example Feed", result.getLabel());
+		assertEquals("Download service", result.getDescription());
+	}
+
+	@Test
+	public void detectTruncatedDocument() throws XMLStreamException {
+		final String truncated = WFS_CAPABILITIES.substring(0, WFS_CAPABILITIES.indexOf("<ows:Abstract>") + 10);
+		final XmlTypeDetection.Result result = new XmlTypeDetection().detect(stream(truncated), detectors());
+		assertNotNull(result);
+		assertEquals(WFS_20, result.getTypeId());
+		assertEquals("Example WFS", result.getLabel());
+		assertNull(result.getDescription());
+	}
+
+	@Test
+	public void detectUnknownRoot() throws XMLStreamException {
+		assertNull(new XmlTypeDetection().detect(stream("<other><title>x</title></other>"), detectors()));
+	}
+
+	@Test
+	public void detectWithCompiledExpression() throws XMLStreamException {
+		final XmlTypeDetection.Detector detector = XmlTypeDetection.Detector.compile(WFS_20,
+				"/*[local-name()='WFS_Capabilities']/wfs:FeatureTypeList");
+		final XmlTypeDetection.Result result = new XmlTypeDetection().detect(stream(WFS_CAPABILITIES),
+				Arrays.asList(detector));
+		assertNotNull(result);
+		assertEquals(WFS_20, result.getTypeId());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void compileRejectsRelativePath() {
+		XmlTypeDetection.Detector.compile(WFS_20, "//wfs:FeatureTypeList");
+	}
+
+	@Test(expected = XMLStreamException.class)
+	public void detectMalformedDocument() throws XMLStreamException {
+		new XmlTypeDetection().detect(stream("no xml"), detectors());
+	}
+}